@@ -6,6 +6,7 @@ import compiler.parser.Parser;
 import compiler.parser.ParserException;
 import compiler.node.Start;
 import compiler.tree_visitor.TreeVisitor;
+import compiler.code_gen.Target;
 
 import java.io.PushbackReader;
 import java.io.InputStreamReader;
@@ -32,10 +33,9 @@ public class Main {
             }
             System.exit(1);
         }
-        TreeVisitor treeVisitor = new TreeVisitor(options.getOutputCode(),
-                                                  options.getPrintAST(),
-                                                  options.getOptimize());
+        TreeVisitor treeVisitor = new TreeVisitor(options);
         tree.apply(treeVisitor);
+        treeVisitor.printStatistics();
         if (options.getOptimize()) {
             treeVisitor.getOptimizer().print();
         }
@@ -46,17 +46,61 @@ public class Main {
     }
 
     public static class Options {
+        private static final int defaultInlineThreshold = 32;
+
         private String input;
         private String outputCode;
         private boolean printAST;
         private boolean printIR;
         private boolean optimize;
+        private boolean registerAllocation;
+        private Target target;
+        private boolean peephole;
+        private boolean display;
+        private boolean lambdaLifting;
+        private int inlineThreshold;
+        private boolean tailCalls;
+        private boolean constantFolding;
+        private boolean copyPropagation;
+        private boolean deadCodeElimination;
+        private boolean framePacking;
+        private boolean strengthReduction;
+        private boolean loopInvariantCodeMotion;
+        private boolean arithmeticSimplification;
+        private boolean ssaOptimization;
+        private boolean blockLayout;
+        private boolean frameOmission;
+        private boolean inlineIntrinsics;
+        private boolean vectorization;
+        private boolean referencePromotion;
+        private boolean instructionSelection;
 
         public Options(String args[]) {
             input = null;
             printAST = false;
             printIR = false;
             optimize = false;
+            registerAllocation = false;
+            target = Target.X86;
+            peephole = false;
+            display = false;
+            lambdaLifting = false;
+            inlineThreshold = 0;
+            tailCalls = false;
+            constantFolding = false;
+            copyPropagation = false;
+            deadCodeElimination = false;
+            framePacking = false;
+            strengthReduction = false;
+            loopInvariantCodeMotion = false;
+            arithmeticSimplification = false;
+            ssaOptimization = false;
+            blockLayout = false;
+            frameOmission = false;
+            inlineIntrinsics = true;
+            vectorization = false;
+            referencePromotion = false;
+            instructionSelection = false;
             for (int i = 0 ; i < args.length ; i++) {
                 switch (args[i]) {
                     case "-ast":
@@ -68,7 +112,78 @@ public class Main {
                     case "-O":
                         optimize = true;
                         break;
+                    case "-regalloc":
+                        registerAllocation = true;
+                        break;
+                    case "-m64":
+                        target = Target.X86_64;
+                        break;
+                    case "-peephole":
+                        peephole = true;
+                        break;
+                    case "-display":
+                        display = true;
+                        break;
+                    case "-lift":
+                        lambdaLifting = true;
+                        break;
+                    case "-inline":
+                        inlineThreshold = defaultInlineThreshold;
+                        break;
+                    case "-tailcall":
+                        tailCalls = true;
+                        break;
+                    case "-fold":
+                        constantFolding = true;
+                        break;
+                    case "-copyprop":
+                        copyPropagation = true;
+                        break;
+                    case "-dce":
+                        deadCodeElimination = true;
+                        break;
+                    case "-packframe":
+                        framePacking = true;
+                        break;
+                    case "-ivsr":
+                        strengthReduction = true;
+                        break;
+                    case "-licm":
+                        loopInvariantCodeMotion = true;
+                        break;
+                    case "-simplify":
+                        arithmeticSimplification = true;
+                        break;
+                    case "-ssa":
+                        ssaOptimization = true;
+                        break;
+                    case "-layout":
+                        blockLayout = true;
+                        break;
+                    case "-omitfp":
+                        frameOmission = true;
+                        break;
+                    case "-nointrinsics":
+                        inlineIntrinsics = false;
+                        break;
+                    case "-vectorize":
+                        vectorization = true;
+                        break;
+                    case "-promoterefs":
+                        referencePromotion = true;
+                        break;
+                    case "-isel":
+                        instructionSelection = true;
+                        break;
                     default:
+                        if (args[i].startsWith("-inline=")) {
+                            try {
+                                inlineThreshold = Integer.parseInt(args[i].substring("-inline=".length()));
+                            } catch (NumberFormatException e) {
+                                throw new IllegalArgumentException("Invalid inline threshold " + args[i]);
+                            }
+                            break;
+                        }
                         input = args[i];
                 }
             }
@@ -100,5 +215,91 @@ public class Main {
         public boolean getOptimize() {
             return optimize;
         }
+
+        public boolean getRegisterAllocation() {
+            return registerAllocation;
+        }
+
+        public Target getTarget() {
+            return target;
+        }
+
+        public boolean getPeephole() {
+            return peephole;
+        }
+
+        public boolean getDisplay() {
+            return display;
+        }
+
+        public boolean getLambdaLifting() {
+            return lambdaLifting;
+        }
+
+        /* Maximum size in quads of an inlined function, or 0 if inlining is off */
+        public int getInlineThreshold() {
+            return inlineThreshold;
+        }
+
+        public boolean getTailCalls() {
+            return tailCalls;
+        }
+
+        public boolean getConstantFolding() {
+            return constantFolding;
+        }
+
+        public boolean getCopyPropagation() {
+            return copyPropagation;
+        }
+
+        public boolean getDeadCodeElimination() {
+            return deadCodeElimination;
+        }
+
+        public boolean getFramePacking() {
+            return framePacking;
+        }
+
+        public boolean getStrengthReduction() {
+            return strengthReduction;
+        }
+
+        public boolean getLoopInvariantCodeMotion() {
+            return loopInvariantCodeMotion;
+        }
+
+        public boolean getArithmeticSimplification() {
+            return arithmeticSimplification;
+        }
+
+        public boolean getSsaOptimization() {
+            return ssaOptimization;
+        }
+
+        public boolean getBlockLayout() {
+            return blockLayout;
+        }
+
+        public boolean getFrameOmission() {
+            return frameOmission;
+        }
+
+        /* Whether abs, ord, chr and the string functions are expanded inline */
+        public boolean getInlineIntrinsics() {
+            return inlineIntrinsics;
+        }
+
+        public boolean getVectorization() {
+            return vectorization;
+        }
+
+        public boolean getReferencePromotion() {
+            return referencePromotion;
+        }
+
+        public boolean getInstructionSelection() {
+            return instructionSelection;
+        }
     }
 }
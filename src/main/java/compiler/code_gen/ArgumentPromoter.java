@@ -0,0 +1,194 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.lang.String;
+
+/* Interprocedural promotion of scalar reference arguments that a function only reads to
+ * arguments by value, which its callers then pass by value too. Each function is analyzed
+ * when its code is generated, after the functions it calls, except for itself and the ones
+ * only declared so far, and before its callers, except for the ones generated earlier,
+ * which are its nested functions and the ones calling it through a forward declaration.
+ * A function called by code generated before it keeps its arguments as they are.
+ * The summary of a function is the types of the memory outside of its frame it may write,
+ * directly or through the functions it calls: elements of arrays other than its local
+ * ones, vars of enclosing functions and reference arguments. A scalar reference argument
+ * of a type the function writes nowhere may point to memory that the function changes
+ * through another name, so only the arguments of the types it does not write qualify.
+ * They must not be assigned or passed by reference, and no nested function may access
+ * them.
+ */
+public class ArgumentPromoter {
+    /* Standard library functions that write into their array arguments */
+    private static final Set<String> writingStandardLibrary = new HashSet<String>(Arrays.asList(
+        "_gets_-1", "_strcpy_-1", "_strcat_-1"));
+
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final HashMap<String, HashSet<Type>> writtenTypes;
+    private final HashMap<String, BitSet> promotedArguments;
+    private final HashSet<String> calledFunctions;
+    private final HashSet<String> nonLocalArguments;
+    private int promoted;
+
+    public ArgumentPromoter(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.writtenTypes = new HashMap<String, HashSet<Type>>();
+        this.promotedArguments = new HashMap<String, BitSet>();
+        this.calledFunctions = new HashSet<String>();
+        this.nonLocalArguments = new HashSet<String>();
+        this.promoted = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Called while its scope is the current one. Returns the positions
+     * of its arguments that are passed by value from now on. */
+    public BitSet run(String function, int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        long scope = symbolTable.getCurScope();
+        HashSet<Type> written = getWrittenTypes(function, firstQuad, scope);
+        writtenTypes.put(function, written);
+
+        /* Reference arguments assigned or passed by reference */
+        HashSet<String> escaping = new HashSet<String>();
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            QuadOperand operand = null;
+            if (quad.getOp() == Quad.Op.PAR && quad.getOperand2().getType() == QuadOperand.Type.R) {
+                operand = quad.getOperand1();
+            } else if (quad.getOp() != Quad.Op.UNIT && quad.getOp() != Quad.Op.ENDU
+                       && quad.getOp() != Quad.Op.CALL) {
+                operand = quad.getOutput();
+            }
+            if (operand != null && operand.getType() == QuadOperand.Type.IDENTIFIER) {
+                escaping.add(operand.getIdentifier());
+            }
+        }
+
+        BitSet promotable = new BitSet();
+        if (!calledFunctions.contains(function)) {
+            int position = 0;
+            for (Argument argument : symbolTable.getArguments(scope)) {
+                String identifier = argument.getToken().getText();
+                if (argument.isReference() && argument.getDimensions().size() == 0
+                    && !argument.hasNoFirstDimension() && !written.contains(argument.getType())
+                    && !escaping.contains(identifier) && !nonLocalArguments.contains(scope + " " + identifier)) {
+                    promotable.set(position);
+                    promoted++;
+                }
+                position++;
+            }
+        }
+        promotedArguments.put(function, promotable);
+
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            if (quad.getOp() == Quad.Op.CALL) {
+                calledFunctions.add(quad.getOutput().getIdentifier());
+            }
+        }
+        return promotable;
+    }
+
+    /* Whether the argument at the given position is passed by value instead of by reference */
+    public boolean isPromoted(String function, int argument) {
+        BitSet promotable = promotedArguments.get(function);
+        return promotable != null && promotable.get(argument);
+    }
+
+    /* An argument of the function with the given scope accessed by a function nested in it */
+    public void addNonLocalArgument(long scope, String identifier) {
+        nonLocalArguments.add(scope + " " + identifier);
+    }
+
+    public void printStatistics(int registerPointers) {
+        System.out.println("Reference arguments:");
+        System.out.println("  promoted to by value: " + promoted);
+        System.out.println("  pointers kept in registers: " + registerPointers);
+    }
+
+    private HashSet<Type> getWrittenTypes(String function, int firstQuad, long scope) {
+        ArrayList<Quad> quads = ir.getQuads();
+
+        /* Address temp vars only set to elements of local arrays, or moved along them */
+        HashMap<Integer, Boolean> localAddresses = new HashMap<Integer, Boolean>();
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            QuadOperand output = quad.getOutput();
+            if (output == null || (output.getType() != QuadOperand.Type.TEMPVAR && quad.getOp() != Quad.Op.ARRAY)
+                || !ir.getArrayInfo().containsKey(output.getTempVar())) {
+                continue;
+            }
+            int tempVar = output.getTempVar();
+            boolean local = (quad.getOp() == Quad.Op.ARRAY && isLocalArray(quad.getOperand1(), scope))
+                            || (quad.getOp() == Quad.Op.ADD && quad.getOperand1().getType() == QuadOperand.Type.TEMPVAR
+                                && quad.getOperand1().getTempVar() == tempVar);
+            Boolean previous = localAddresses.get(tempVar);
+            localAddresses.put(tempVar, local && (previous == null || previous));
+        }
+
+        HashSet<Type> written = new HashSet<Type>();
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            QuadOperand output = quad.getOutput();
+            switch (quad.getOp()) {
+                case UNIT:
+                case ENDU:
+                case ARRAY:
+                    break;
+                case CALL:
+                    String calledFunction = output.getIdentifier();
+                    if (calledFunction.equals(function)) {
+                        break;
+                    }
+                    if (Function.isStandardLibrary(calledFunction)) {
+                        if (writingStandardLibrary.contains(calledFunction)) {
+                            written.add(Type.CHAR);
+                        }
+                        break;
+                    }
+                    HashSet<Type> calledWritten = writtenTypes.get(calledFunction);
+                    if (calledWritten == null) {
+                        written.add(Type.INT);
+                        written.add(Type.CHAR);
+                    } else {
+                        written.addAll(calledWritten);
+                    }
+                    break;
+                default:
+                    if (output == null) {
+                        break;
+                    }
+                    if (output.getType() == QuadOperand.Type.ADDRESS) {
+                        Boolean local = localAddresses.get(output.getTempVar());
+                        if (local == null || !local) {
+                            written.add(ir.getArrayInfo().get(output.getTempVar()).getArrayType());
+                        }
+                    } else if (output.getType() == QuadOperand.Type.IDENTIFIER) {
+                        SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(output.getIdentifier());
+                        Symbol symbol = symbolEntry.getSymbol();
+                        if (symbolEntry.getScope() != scope
+                            || (symbol instanceof Argument && ((Argument)symbol).isReference())) {
+                            written.add(symbol.getType());
+                        }
+                    }
+            }
+        }
+        return written;
+    }
+
+    /* An array declared in the function with the given scope */
+    private boolean isLocalArray(QuadOperand operand, long scope) {
+        if (operand.getType() != QuadOperand.Type.IDENTIFIER) {
+            return false;
+        }
+        SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(operand.getIdentifier());
+        return symbolEntry.getScope() == scope && !(symbolEntry.getSymbol() instanceof Argument);
+    }
+}
@@ -0,0 +1,150 @@
+package compiler.code_gen;
+
+import java.util.ArrayList;
+import java.lang.String;
+
+/* Algebraic simplification of the arithmetic quads of a function with a constant
+ * operand, before its code is generated:
+ *  - x + 0, 0 + x, x - 0, x * 1, 1 * x and x div 1 become an assignment of x
+ *  - x * 0, 0 * x, x mod 1 and x - x become an assignment of 0
+ *  - x * -1 and -1 * x become 0 - x
+ * Divisions by -1 are kept, as they trap on the smallest integer. The remaining
+ * multiplications, divisions and modulos by constants are lowered by FinalCode to
+ * shifts, lea and multiplications by the magic numbers computed here.
+ */
+public class ArithmeticSimplifier {
+    private final IntermediateRepresentation ir;
+    private int simplifiedQuads;
+
+    public ArithmeticSimplifier(IntermediateRepresentation ir) {
+        this.ir = ir;
+        this.simplifiedQuads = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Quads are replaced in place, so no label changes. */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad simplified = simplify(quads.get(i));
+            if (simplified != null) {
+                quads.set(i, simplified);
+                simplifiedQuads++;
+            }
+        }
+    }
+
+    /* Operations by constants that FinalCode lowered without mul or idiv */
+    public void printStatistics(int loweredQuads) {
+        System.out.println("Arithmetic simplification:");
+        System.out.println("  identities removed: " + simplifiedQuads);
+        System.out.println("  operations by constants lowered: " + loweredQuads);
+    }
+
+    /* The quad simplified, or null if it stays as it is */
+    private static Quad simplify(Quad quad) {
+        QuadOperand operand1 = quad.getOperand1();
+        QuadOperand operand2 = quad.getOperand2();
+        QuadOperand output = quad.getOutput();
+        QuadOperand zero = new QuadOperand(QuadOperand.Type.INT, "0");
+        switch (quad.getOp()) {
+            case ADD:
+                if (isConstant(operand2, 0)) {
+                    return new Quad(Quad.Op.ASSIGN, operand1, null, output);
+                }
+                if (isConstant(operand1, 0)) {
+                    return new Quad(Quad.Op.ASSIGN, operand2, null, output);
+                }
+                return null;
+            case SUB:
+                if (isConstant(operand2, 0)) {
+                    return new Quad(Quad.Op.ASSIGN, operand1, null, output);
+                }
+                if (isSameVar(operand1, operand2)) {
+                    return new Quad(Quad.Op.ASSIGN, zero, null, output);
+                }
+                return null;
+            case MULT:
+                if (isConstant(operand1, 0) || isConstant(operand2, 0)) {
+                    return new Quad(Quad.Op.ASSIGN, zero, null, output);
+                }
+                if (isConstant(operand2, 1)) {
+                    return new Quad(Quad.Op.ASSIGN, operand1, null, output);
+                }
+                if (isConstant(operand1, 1)) {
+                    return new Quad(Quad.Op.ASSIGN, operand2, null, output);
+                }
+                if (isConstant(operand2, -1)) {
+                    return new Quad(Quad.Op.SUB, zero, operand1, output);
+                }
+                if (isConstant(operand1, -1)) {
+                    return new Quad(Quad.Op.SUB, zero, operand2, output);
+                }
+                return null;
+            case DIV:
+                if (isConstant(operand2, 1)) {
+                    return new Quad(Quad.Op.ASSIGN, operand1, null, output);
+                }
+                return null;
+            case MOD:
+                if (isConstant(operand2, 1)) {
+                    return new Quad(Quad.Op.ASSIGN, zero, null, output);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isConstant(QuadOperand operand, int value) {
+        return operand.getType() == QuadOperand.Type.INT && Integer.parseInt(operand.getIdentifier()) == value;
+    }
+
+    /* Both operands read the same temp var or variable, with nothing in between */
+    private static boolean isSameVar(QuadOperand operand1, QuadOperand operand2) {
+        if (operand1.getType() != operand2.getType()) {
+            return false;
+        }
+        switch (operand1.getType()) {
+            case TEMPVAR:
+                return operand1.getTempVar() == operand2.getTempVar();
+            case IDENTIFIER:
+                return operand1.getIdentifier().equals(operand2.getIdentifier());
+            default:
+                return false;
+        }
+    }
+
+    /* Multiplier and right shift for the signed division by a divisor of at least 2,
+     * from Hacker's Delight: the quotient of n is the high half of multiplier * n, plus
+     * n if the multiplier is negative, shifted right arithmetically, plus 1 if n is
+     * negative. */
+    static int[] getDivisionMagic(int divisor) {
+        final long two31 = 0x80000000L;
+        final long mask = 0xFFFFFFFFL;
+        long anc = two31 - 1 - two31 % divisor;
+        int p = 31;
+        long q1 = two31 / anc;
+        long r1 = two31 - q1 * anc;
+        long q2 = two31 / divisor;
+        long r2 = two31 - q2 * divisor;
+        long delta;
+        do {
+            p++;
+            q1 = (2 * q1) & mask;
+            r1 = (2 * r1) & mask;
+            if (r1 >= anc) {
+                q1 = (q1 + 1) & mask;
+                r1 = (r1 - anc) & mask;
+            }
+            q2 = (2 * q2) & mask;
+            r2 = (2 * r2) & mask;
+            if (r2 >= divisor) {
+                q2 = (q2 + 1) & mask;
+                r2 = (r2 - divisor) & mask;
+            }
+            delta = divisor - r2;
+        } while (q1 < delta || (q1 == delta && r1 == 0));
+        return new int[] {(int)((q2 + 1) & mask), p - 32};
+    }
+}
@@ -0,0 +1,318 @@
+package compiler.code_gen;
+
+import java.util.ArrayList;
+import java.lang.String;
+
+/* Basic block ordering of a function by static branch prediction, before its code is
+ * generated. Blocks are laid out in chains, each block followed by the successor it most
+ * likely goes to, so that the likely path falls through and taken branches are rare:
+ *  - a branch out of the innermost loop containing it is not taken, one staying in the
+ *    loop is, back edges included
+ *  - a successor that returns is not taken, so early return paths are moved to the end
+ *  - otherwise the source order is kept
+ * When a chain ends, the next one starts in the innermost loop of its last block, so the
+ * body of a loop stays contiguous. Loops whose header tests the exit condition are
+ * rotated: the header is placed after the body, where the back edge falls into it and
+ * its branch back to the body is the only one taken per iteration, and the loop is
+ * entered with a jump to it. Blocks that only jump elsewhere are bypassed, and blocks
+ * that cannot be reached are dropped.
+ */
+public class BlockLayout {
+    private final IntermediateRepresentation ir;
+    private int rotatedLoops;
+    private int movedBlocks;
+    private int invertedBranches;
+
+    public BlockLayout(IntermediateRepresentation ir) {
+        this.ir = ir;
+        this.rotatedLoops = 0;
+        this.movedBlocks = 0;
+        this.invertedBranches = 0;
+    }
+
+    public void printStatistics() {
+        System.out.println("Block layout:");
+        System.out.println("  loops rotated: " + rotatedLoops);
+        System.out.println("  blocks moved: " + movedBlocks);
+        System.out.println("  branches inverted: " + invertedBranches);
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        FlowGraph flowGraph = new FlowGraph(quads, firstQuad, quads.size() - 1);
+        ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+        ArrayList<FlowGraph.Loop> loops = flowGraph.getLoops();
+        boolean[] reachable = flowGraph.getReachable();
+        FlowGraph.Block exit = blocks.get(blocks.size() - 1);
+
+        int[] forward = new int[blocks.size()];
+        for (FlowGraph.Block block : blocks) {
+            forward[block.getIndex()] = getForward(quads, flowGraph, block);
+        }
+
+        /* Chains of likely successors */
+        boolean[] placed = new boolean[blocks.size()];
+        boolean[] deferred = new boolean[blocks.size()];
+        boolean[] cold = new boolean[blocks.size()];
+        ArrayList<FlowGraph.Block> order = new ArrayList<FlowGraph.Block>();
+        FlowGraph.Block block = blocks.get(0);
+        while (block != null) {
+            FlowGraph.Block body = getRotatedBody(quads, flowGraph, loops, block, forward);
+            while (body != null && !deferred[block.getIndex()] && !placed[body.getIndex()]) {
+                deferred[block.getIndex()] = true;
+                rotatedLoops++;
+                block = body;
+                body = getRotatedBody(quads, flowGraph, loops, block, forward);
+            }
+            placed[block.getIndex()] = true;
+            order.add(block);
+            FlowGraph.Block next = getLikelySuccessor(quads, flowGraph, loops, block, forward, cold);
+            if (next == null || placed[next.getIndex()] || next == exit) {
+                next = getNextChain(blocks, loops, block, placed, deferred, cold, reachable, forward, exit);
+            }
+            block = next;
+        }
+        order.add(exit);
+
+        int lastIndex = -1;
+        for (FlowGraph.Block placedBlock : order) {
+            if (placedBlock.getIndex() < lastIndex) {
+                movedBlocks++;
+            }
+            lastIndex = Math.max(lastIndex, placedBlock.getIndex());
+        }
+        emit(quads, firstQuad, flowGraph, order, forward);
+    }
+
+    /* Rewrites the quads in the given block order, with the jumps each block needs to
+     * reach its successors from its new place */
+    private void emit(ArrayList<Quad> quads, int firstQuad, FlowGraph flowGraph,
+                      ArrayList<FlowGraph.Block> order, int[] forward) {
+        ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        ArrayList<int[]> jumps = new ArrayList<int[]>();
+        int[] newStart = new int[blocks.size()];
+        for (int i = 0 ; i < order.size() ; i++) {
+            FlowGraph.Block block = order.get(i);
+            int next = (i + 1 < order.size() ? order.get(i + 1).getIndex() : -1);
+            newStart[block.getIndex()] = firstQuad + newQuads.size();
+            for (int q = block.getStart() ; q < block.getEnd() ; q++) {
+                newQuads.add(quads.get(q));
+            }
+            Quad last = quads.get(block.getEnd());
+            int fall = (block.getIndex() + 1 < blocks.size() ? forward[block.getIndex() + 1] : -1);
+            switch (last.getOp()) {
+                case JUMP:
+                    int target = forward[flowGraph.getBlock(last.getOutput().getTempVar()).getIndex()];
+                    if (target != next) {
+                        jumps.add(new int[] {newQuads.size(), target});
+                        newQuads.add(last);
+                    }
+                    break;
+                case EQUAL:
+                case NOT_EQUAL:
+                case GREATER:
+                case LESS:
+                case GREATER_EQUAL:
+                case LESS_EQUAL:
+                    int taken = forward[flowGraph.getBlock(last.getOutput().getTempVar()).getIndex()];
+                    if (taken == fall) {
+                        if (taken != next) {
+                            jumps.add(new int[] {newQuads.size(), taken});
+                            newQuads.add(new Quad(Quad.Op.JUMP, null, null, last.getOutput()));
+                        }
+                    } else if (taken == next) {
+                        jumps.add(new int[] {newQuads.size(), fall});
+                        newQuads.add(new Quad(invert(last.getOp()), last.getOperand1(), last.getOperand2(),
+                                              last.getOutput()));
+                        invertedBranches++;
+                    } else {
+                        jumps.add(new int[] {newQuads.size(), taken});
+                        newQuads.add(last);
+                        if (fall != next) {
+                            jumps.add(new int[] {newQuads.size(), fall});
+                            newQuads.add(new Quad(Quad.Op.JUMP, null, null, last.getOutput()));
+                        }
+                    }
+                    break;
+                default:
+                    newQuads.add(last);
+                    if (last.getOp() != Quad.Op.RET && last.getOp() != Quad.Op.ENDU && fall != next) {
+                        jumps.add(new int[] {newQuads.size(), fall});
+                        newQuads.add(new Quad(Quad.Op.JUMP, null, null,
+                                              new QuadOperand(QuadOperand.Type.LABEL, 0)));
+                    }
+            }
+        }
+
+        /* Every jump is a new quad with its final label, so the old labels need no mapping */
+        for (int[] jump : jumps) {
+            Quad quad = newQuads.get(jump[0]);
+            newQuads.set(jump[0], new Quad(quad.getOp(), quad.getOperand1(), quad.getOperand2(),
+                                           new QuadOperand(QuadOperand.Type.LABEL, newStart[jump[1]])));
+        }
+        int[] newIndex = new int[quads.size() - firstQuad + 1];
+        for (int i = 0 ; i < newIndex.length ; i++) {
+            newIndex[i] = firstQuad;
+        }
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+    }
+
+    /* Block the given one ends up in when only following jumps, itself if it does more
+     * than jump or the jumps go around in a cycle */
+    private static int getForward(ArrayList<Quad> quads, FlowGraph flowGraph, FlowGraph.Block block) {
+        FlowGraph.Block target = block;
+        for (int steps = 0 ; steps < flowGraph.getBlocks().size() ; steps++) {
+            if (target.getStart() != target.getEnd() || quads.get(target.getStart()).getOp() != Quad.Op.JUMP) {
+                return target.getIndex();
+            }
+            target = flowGraph.getBlock(quads.get(target.getStart()).getOutput().getTempVar());
+        }
+        return block.getIndex();
+    }
+
+    /* First block of the body of the loop the block heads, if it is a header that tests
+     * whether to leave the loop, or null */
+    private static FlowGraph.Block getRotatedBody(ArrayList<Quad> quads, FlowGraph flowGraph,
+                                                  ArrayList<FlowGraph.Loop> loops, FlowGraph.Block block,
+                                                  int[] forward) {
+        if (block.getIndex() == 0 || !isBranch(quads.get(block.getEnd()))) {
+            return null;
+        }
+        for (FlowGraph.Loop loop : loops) {
+            if (loop.getHeader() != block) {
+                continue;
+            }
+            FlowGraph.Block[] successors = getSuccessors(quads, flowGraph, block, forward);
+            boolean inLoop0 = loop.contains(successors[0]);
+            boolean inLoop1 = loop.contains(successors[1]);
+            if (inLoop0 == inLoop1) {
+                return null;
+            }
+            FlowGraph.Block body = (inLoop0 ? successors[0] : successors[1]);
+            return (body == block ? null : body);
+        }
+        return null;
+    }
+
+    /* Successor the block most likely goes to, or null if it returns */
+    private static FlowGraph.Block getLikelySuccessor(ArrayList<Quad> quads, FlowGraph flowGraph,
+                                                      ArrayList<FlowGraph.Loop> loops, FlowGraph.Block block,
+                                                      int[] forward, boolean[] cold) {
+        Quad last = quads.get(block.getEnd());
+        ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+        switch (last.getOp()) {
+            case RET:
+            case ENDU:
+                return null;
+            case JUMP:
+                return blocks.get(forward[flowGraph.getBlock(last.getOutput().getTempVar()).getIndex()]);
+            default:
+                if (!isBranch(last)) {
+                    return blocks.get(forward[block.getIndex() + 1]);
+                }
+        }
+        FlowGraph.Block[] successors = getSuccessors(quads, flowGraph, block, forward);
+        FlowGraph.Block taken = successors[0];
+        FlowGraph.Block fall = successors[1];
+        for (FlowGraph.Loop loop : loops) {
+            if (loop.contains(block)) {
+                if (loop.contains(taken) != loop.contains(fall)) {
+                    return (loop.contains(taken) ? taken : fall);
+                }
+                break;
+            }
+        }
+        boolean takenReturns = returns(quads, taken);
+        boolean fallReturns = returns(quads, fall);
+        if (takenReturns != fallReturns) {
+            cold[(takenReturns ? taken : fall).getIndex()] = true;
+            return (takenReturns ? fall : taken);
+        }
+        return fall;
+    }
+
+    /* Block to start the next chain with: an unplaced block of the innermost loop of the
+     * last one that has some, else an unplaced successor of the last one, else the first
+     * unplaced block. Deferred loop headers and cold blocks come last. Returns null when
+     * only the ENDU is left. */
+    private static FlowGraph.Block getNextChain(ArrayList<FlowGraph.Block> blocks, ArrayList<FlowGraph.Loop> loops,
+                                                FlowGraph.Block last, boolean[] placed, boolean[] deferred,
+                                                boolean[] cold, boolean[] reachable, int[] forward,
+                                                FlowGraph.Block exit) {
+        for (int pass = 0 ; pass < 3 ; pass++) {
+            for (FlowGraph.Loop loop : loops) {
+                if (!loop.contains(last)) {
+                    continue;
+                }
+                for (FlowGraph.Block block : blocks) {
+                    if (loop.contains(block) && isCandidate(block, pass, placed, deferred, cold, reachable,
+                                                            forward, exit)) {
+                        return block;
+                    }
+                }
+            }
+            for (FlowGraph.Block successor : last.getSuccessors()) {
+                FlowGraph.Block block = blocks.get(forward[successor.getIndex()]);
+                if (isCandidate(block, pass, placed, deferred, cold, reachable, forward, exit)) {
+                    return block;
+                }
+            }
+            for (FlowGraph.Block block : blocks) {
+                if (isCandidate(block, pass, placed, deferred, cold, reachable, forward, exit)) {
+                    return block;
+                }
+            }
+        }
+        return null;
+    }
+
+    /* Whether the block can start a chain, in the first pass only if it is neither a
+     * deferred header nor cold, and in the second only if it is not cold */
+    private static boolean isCandidate(FlowGraph.Block block, int pass, boolean[] placed, boolean[] deferred,
+                                       boolean[] cold, boolean[] reachable, int[] forward, FlowGraph.Block exit) {
+        int index = block.getIndex();
+        if (placed[index] || !reachable[index] || forward[index] != index || block == exit) {
+            return false;
+        }
+        return pass == 2 || (!cold[index] && (pass == 1 || !deferred[index]));
+    }
+
+    /* Taken and fall through successors of a block ending with a conditional jump */
+    private static FlowGraph.Block[] getSuccessors(ArrayList<Quad> quads, FlowGraph flowGraph,
+                                                   FlowGraph.Block block, int[] forward) {
+        ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+        Quad last = quads.get(block.getEnd());
+        return new FlowGraph.Block[] {
+            blocks.get(forward[flowGraph.getBlock(last.getOutput().getTempVar()).getIndex()]),
+            blocks.get(forward[block.getIndex() + 1])
+        };
+    }
+
+    private static boolean returns(ArrayList<Quad> quads, FlowGraph.Block block) {
+        return quads.get(block.getEnd()).getOp() == Quad.Op.RET;
+    }
+
+    private static boolean isBranch(Quad quad) {
+        return FlowGraph.isJump(quad) && quad.getOp() != Quad.Op.JUMP && quad.getOp() != Quad.Op.RET;
+    }
+
+    private static Quad.Op invert(Quad.Op op) {
+        switch (op) {
+            case EQUAL:
+                return Quad.Op.NOT_EQUAL;
+            case NOT_EQUAL:
+                return Quad.Op.EQUAL;
+            case GREATER:
+                return Quad.Op.LESS_EQUAL;
+            case LESS:
+                return Quad.Op.GREATER_EQUAL;
+            case GREATER_EQUAL:
+                return Quad.Op.LESS;
+            default:
+                return Quad.Op.GREATER;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package compiler.code_gen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.lang.String;
+
+/* Branch optimization over the assembly of a function, before the peephole pass.
+ * The backpatched conditions leave jump chains and conditional jumps over
+ * unconditional ones, so until nothing changes:
+ *  - jumps to a jmp are threaded to its destination
+ *  - jcc L1 ; jmp L2 ; L1:  becomes  jncc L2 ; L1:
+ *  - jumps to the label right after them are deleted
+ * Finally the quad labels that nothing jumps to any more are dropped.
+ */
+public class BranchOptimizer {
+    private int threadedJumps;
+    private int invertedBranches;
+    private int deletedJumps;
+
+    public BranchOptimizer() {
+        this.threadedJumps = 0;
+        this.invertedBranches = 0;
+        this.deletedJumps = 0;
+    }
+
+    public void run(ArrayList<String> code) {
+        boolean changed = true;
+        while (changed) {
+            changed = threadJumps(code);
+            changed |= invertBranches(code);
+            changed |= deleteJumpsToNext(code);
+        }
+        removeUnusedLabels(code);
+    }
+
+    public void printStatistics() {
+        System.out.println("Branch optimization:");
+        System.out.println("  threaded jumps: " + threadedJumps);
+        System.out.println("  inverted branches: " + invertedBranches);
+        System.out.println("  deleted jumps: " + deletedJumps);
+    }
+
+    private boolean threadJumps(ArrayList<String> code) {
+        HashMap<String, Integer> labels = getLabels(code);
+        boolean changed = false;
+        for (int i = 0 ; i < code.size() ; i++) {
+            String line = code.get(i);
+            if (!isJump(line)) {
+                continue;
+            }
+            String target = getTarget(line);
+            String destination = target;
+            HashSet<String> visited = new HashSet<String>();
+            while (labels.containsKey(destination) && visited.add(destination)) {
+                int next = nextInstruction(code, labels.get(destination));
+                if (next < 0 || !Peephole.getOpcode(code.get(next)).equals("jmp")) {
+                    break;
+                }
+                destination = getTarget(code.get(next));
+            }
+            if (!destination.equals(target)) {
+                code.set(i, Peephole.getOpcode(line) + " " + destination);
+                threadedJumps++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean invertBranches(ArrayList<String> code) {
+        HashSet<String> targets = getTargets(code);
+        boolean changed = false;
+        for (int i = 0 ; i < code.size() ; i++) {
+            String line = code.get(i);
+            String inverted = (isJump(line) ? getInvertedOpcode(Peephole.getOpcode(line)) : null);
+            if (inverted == null) {
+                continue;
+            }
+            int jump = nextInstruction(code, i);
+            if (jump < 0 || !Peephole.getOpcode(code.get(jump)).equals("jmp")
+                || labelTargeted(code, i, jump, targets)
+                || !labelFollows(code, jump, getTarget(line))) {
+                continue;
+            }
+            code.set(i, inverted + " " + getTarget(code.get(jump)));
+            code.remove(jump);
+            invertedBranches++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean deleteJumpsToNext(ArrayList<String> code) {
+        boolean changed = false;
+        for (int i = 0 ; i < code.size() ; i++) {
+            String line = code.get(i);
+            if (isJump(line) && labelFollows(code, i, getTarget(line))) {
+                code.remove(i--);
+                deletedJumps++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /* Drop quad labels nothing jumps to, along with the blank line before them */
+    private void removeUnusedLabels(ArrayList<String> code) {
+        HashSet<String> targets = getTargets(code);
+        for (int i = code.size() - 1 ; i >= 0 ; i--) {
+            String line = code.get(i);
+            if (line.matches("L[0-9]+:") && !targets.contains(getLabelName(line))) {
+                code.remove(i);
+                if (i > 0 && code.get(i - 1).isEmpty()) {
+                    code.remove(--i);
+                }
+            }
+        }
+    }
+
+    /* Whether the given label is reached from the instruction at from by falling
+     * through labels and blank lines only */
+    private static boolean labelFollows(ArrayList<String> code, int from, String label) {
+        for (int i = from + 1 ; i < code.size() ; i++) {
+            String line = code.get(i);
+            if (isLabel(line)) {
+                if (getLabelName(line).equals(label)) {
+                    return true;
+                }
+            } else if (!line.isEmpty()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /* Whether some jump targets a label between the two instructions */
+    private static boolean labelTargeted(ArrayList<String> code, int from, int to, HashSet<String> targets) {
+        for (int i = from + 1 ; i < to ; i++) {
+            String line = code.get(i);
+            if (isLabel(line) && (targets.contains(getLabelName(line))
+                                  || !line.matches("L[0-9]+:"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Next instruction after the given line, or -1 */
+    private static int nextInstruction(ArrayList<String> code, int from) {
+        for (int i = from + 1 ; i < code.size() ; i++) {
+            String line = code.get(i);
+            if (!line.isEmpty() && !isLabel(line)) {
+                return (line.startsWith(".") ? -1 : i);
+            }
+        }
+        return -1;
+    }
+
+    private static HashMap<String, Integer> getLabels(ArrayList<String> code) {
+        HashMap<String, Integer> labels = new HashMap<String, Integer>();
+        for (int i = 0 ; i < code.size() ; i++) {
+            if (isLabel(code.get(i))) {
+                labels.put(getLabelName(code.get(i)), i);
+            }
+        }
+        return labels;
+    }
+
+    private static HashSet<String> getTargets(ArrayList<String> code) {
+        HashSet<String> targets = new HashSet<String>();
+        for (String line : code) {
+            if (isJump(line)) {
+                targets.add(getTarget(line));
+            }
+        }
+        return targets;
+    }
+
+    private static boolean isLabel(String line) {
+        return line.endsWith(":") && !line.startsWith("\t");
+    }
+
+    private static String getLabelName(String line) {
+        return line.substring(0, line.length() - 1);
+    }
+
+    private static boolean isJump(String line) {
+        return !line.isEmpty() && !isLabel(line) && line.startsWith("j");
+    }
+
+    private static String getTarget(String jump) {
+        List<String> operands = Peephole.getOperands(jump);
+        return operands.get(0);
+    }
+
+    private static String getInvertedOpcode(String opcode) {
+        switch (opcode) {
+            case "jz":
+                return "jnz";
+            case "jnz":
+                return "jz";
+            case "jg":
+                return "jle";
+            case "jle":
+                return "jg";
+            case "jl":
+                return "jge";
+            case "jge":
+                return "jl";
+            case "ja":
+                return "jbe";
+            case "jbe":
+                return "ja";
+            case "jb":
+                return "jae";
+            case "jae":
+                return "jb";
+            default:
+                return null;
+        }
+    }
+}
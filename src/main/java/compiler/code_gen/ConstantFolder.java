@@ -0,0 +1,373 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.lang.String;
+
+/* Constant folding and propagation over the quads of a function, before its code
+ * is generated. A forward dataflow analysis over the basic blocks finds the temp vars
+ * and scalar local variables that hold the same constant on every path, and then:
+ *  - their uses are replaced by the constant
+ *  - arithmetic on constants is replaced by an assignment of the result
+ *  - comparisons of constants become a jump, or are dropped if never taken
+ * Reference arguments and variables of enclosing functions are never tracked, and local
+ * variables are forgotten at calls of functions that may reach them through the access
+ * link. Divisions that would trap at runtime are left to do so.
+ */
+public class ConstantFolder {
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final HashMap<String, Boolean> tracked;
+    private boolean rewriting;
+    private int foldedQuads;
+    private int propagatedOperands;
+
+    public ConstantFolder(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.tracked = new HashMap<String, Boolean>();
+        this.rewriting = false;
+        this.foldedQuads = 0;
+        this.propagatedOperands = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT. Called while its scope
+     * is the current one. */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        int lastQuad = quads.size() - 1;
+        FlowGraph graph = new FlowGraph(quads, firstQuad, lastQuad);
+        ArrayList<FlowGraph.Block> blocks = graph.getBlocks();
+        tracked.clear();
+
+        /* Constants on entry to each block, null until a path to it is found */
+        ArrayList<HashMap<String, QuadOperand>> in = new ArrayList<HashMap<String, QuadOperand>>();
+        ArrayList<HashMap<String, QuadOperand>> out = new ArrayList<HashMap<String, QuadOperand>>();
+        for (int i = 0 ; i < blocks.size() ; i++) {
+            in.add(null);
+            out.add(null);
+        }
+        in.set(0, new HashMap<String, QuadOperand>());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (FlowGraph.Block block : blocks) {
+                HashMap<String, QuadOperand> state = (block.getIndex() == 0 ? in.get(0)
+                                                                            : meet(block, out));
+                if (state == null) {
+                    continue;
+                }
+                in.set(block.getIndex(), state);
+                state = new HashMap<String, QuadOperand>(state);
+                for (int i = block.getStart() ; i <= block.getEnd() ; i++) {
+                    fold(quads.get(i), state);
+                }
+                if (!sameConstants(state, out.get(block.getIndex()))) {
+                    out.set(block.getIndex(), state);
+                    changed = true;
+                }
+            }
+        }
+
+        /* Rewrite the quads of the reachable blocks, dropping comparisons never taken.
+         * Rewritten jumps still name the old quads, so they are redirected at the end. */
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        int[] newIndex = new int[lastQuad - firstQuad + 2];
+        ArrayList<Quad> newJumps = new ArrayList<Quad>();
+        boolean rewritten = false;
+        rewriting = true;
+        for (FlowGraph.Block block : blocks) {
+            HashMap<String, QuadOperand> state = in.get(block.getIndex());
+            state = (state == null ? null : new HashMap<String, QuadOperand>(state));
+            for (int i = block.getStart() ; i <= block.getEnd() ; i++) {
+                Quad quad = quads.get(i);
+                Quad newQuad = (state == null ? quad : fold(quad, state));
+                newIndex[i - firstQuad] = firstQuad + newQuads.size();
+                if (newQuad != null) {
+                    newQuads.add(newQuad);
+                }
+                if (newQuad != quad && newQuad != null && newQuad.getOutput() != null
+                    && newQuad.getOutput().getType() == QuadOperand.Type.LABEL) {
+                    newJumps.add(newQuad);
+                }
+                rewritten |= (newQuad != quad);
+            }
+        }
+        rewriting = false;
+        if (!rewritten) {
+            return;
+        }
+        newIndex[lastQuad - firstQuad + 1] = firstQuad + newQuads.size();
+        for (Quad quad : newJumps) {
+            int destination = quad.getOutput().getTempVar() - firstQuad;
+            quad.setOutput(new QuadOperand(QuadOperand.Type.LABEL, newIndex[destination]));
+        }
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+    }
+
+    public void printStatistics() {
+        System.out.println("Constant folding:");
+        System.out.println("  folded quads: " + foldedQuads);
+        System.out.println("  propagated operands: " + propagatedOperands);
+    }
+
+    /* Constants common to all predecessors seen so far, or null if none was */
+    private static HashMap<String, QuadOperand> meet(FlowGraph.Block block,
+                                                     ArrayList<HashMap<String, QuadOperand>> out) {
+        HashMap<String, QuadOperand> state = null;
+        for (FlowGraph.Block predecessor : block.getPredecessors()) {
+            HashMap<String, QuadOperand> predecessorOut = out.get(predecessor.getIndex());
+            if (predecessorOut == null) {
+                continue;
+            }
+            if (state == null) {
+                state = new HashMap<String, QuadOperand>(predecessorOut);
+                continue;
+            }
+            for (Iterator<String> it = state.keySet().iterator() ; it.hasNext() ; ) {
+                String key = it.next();
+                QuadOperand constant = predecessorOut.get(key);
+                if (constant == null || !constant.getIdentifier().equals(state.get(key).getIdentifier())) {
+                    it.remove();
+                }
+            }
+        }
+        return state;
+    }
+
+    private static boolean sameConstants(HashMap<String, QuadOperand> state1,
+                                         HashMap<String, QuadOperand> state2) {
+        if (state2 == null || state1.size() != state2.size()) {
+            return false;
+        }
+        for (String key : state1.keySet()) {
+            QuadOperand constant = state2.get(key);
+            if (constant == null || !constant.getIdentifier().equals(state1.get(key).getIdentifier())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Update the constants known after the quad and return the quad rewritten with them,
+     * which is the same quad if nothing changed, or null if it is dropped */
+    private Quad fold(Quad quad, HashMap<String, QuadOperand> state) {
+        QuadOperand operand1 = quad.getOperand1();
+        QuadOperand operand2 = quad.getOperand2();
+        QuadOperand output = quad.getOutput();
+        switch (quad.getOp()) {
+            case ASSIGN:
+                operand1 = getValue(operand1, state);
+                setValue(output, (isConstant(operand1) ? operand1 : null), state);
+                break;
+            case ARRAY:
+                operand2 = getValue(operand2, state);
+                setValue(output, null, state);
+                break;
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case MOD:
+                operand1 = getValue(operand1, state);
+                operand2 = getValue(operand2, state);
+                Integer result = calculate(quad.getOp(), operand1, operand2);
+                if (result == null) {
+                    setValue(output, null, state);
+                    break;
+                }
+                QuadOperand constant = new QuadOperand(QuadOperand.Type.INT, String.valueOf(result));
+                setValue(output, constant, state);
+                foldedQuads += (rewriting ? 1 : 0);
+                return new Quad(Quad.Op.ASSIGN, constant, null, output);
+            case EQUAL:
+            case NOT_EQUAL:
+            case GREATER:
+            case LESS:
+            case GREATER_EQUAL:
+            case LESS_EQUAL:
+                operand1 = getValue(operand1, state);
+                operand2 = getValue(operand2, state);
+                Boolean outcome = compare(quad.getOp(), operand1, operand2);
+                if (outcome == null) {
+                    break;
+                }
+                foldedQuads += (rewriting ? 1 : 0);
+                return (outcome ? new Quad(Quad.Op.JUMP, null, null, output) : null);
+            case PAR:
+                if (operand2.getType() == QuadOperand.Type.V) {
+                    operand1 = getValue(operand1, state);
+                } else {
+                    /* Written by the call */
+                    setValue(operand1, null, state);
+                }
+                break;
+            case CALL:
+                if (!Function.isStandardLibrary(output.getIdentifier())) {
+                    for (Iterator<String> it = state.keySet().iterator() ; it.hasNext() ; ) {
+                        if (!it.next().startsWith("$")) {
+                            it.remove();
+                        }
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        if (operand1 == quad.getOperand1() && operand2 == quad.getOperand2()) {
+            return quad;
+        }
+        if (rewriting) {
+            propagatedOperands += (operand1 != quad.getOperand1() ? 1 : 0) +
+                                  (operand2 != quad.getOperand2() ? 1 : 0);
+        }
+        return new Quad(quad.getOp(), operand1, operand2, output);
+    }
+
+    /* Key of an operand whose constant value is tracked, or null */
+    private String getKey(QuadOperand operand) {
+        if (operand == null) {
+            return null;
+        }
+        switch (operand.getType()) {
+            case TEMPVAR:
+                return "$" + operand.getTempVar();
+            case IDENTIFIER:
+                String identifier = operand.getIdentifier();
+                Boolean isTracked = tracked.get(identifier);
+                if (isTracked == null) {
+                    SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(identifier);
+                    Symbol symbol = symbolEntry.getSymbol();
+                    isTracked = (symbolEntry.getScope() == symbolTable.getCurScope()
+                                 && symbol instanceof Variable
+                                 && ((Variable)symbol).getDimensions().size() == 0
+                                 && !(symbol instanceof Argument && ((Argument)symbol).isReference()));
+                    tracked.put(identifier, isTracked);
+                }
+                return (isTracked ? identifier : null);
+            default:
+                return null;
+        }
+    }
+
+    private QuadOperand getValue(QuadOperand operand, HashMap<String, QuadOperand> state) {
+        String key = getKey(operand);
+        QuadOperand constant = (key == null ? null : state.get(key));
+        return (constant == null ? operand : constant);
+    }
+
+    private void setValue(QuadOperand operand, QuadOperand constant, HashMap<String, QuadOperand> state) {
+        String key = getKey(operand);
+        if (key == null) {
+            return;
+        }
+        if (constant == null) {
+            state.remove(key);
+        } else {
+            state.put(key, constant);
+        }
+    }
+
+    private static boolean isConstant(QuadOperand operand) {
+        return operand.getType() == QuadOperand.Type.INT || operand.getType() == QuadOperand.Type.CHAR;
+    }
+
+    /* Result of the arithmetic as on the target, or null if not constant or if it traps */
+    private static Integer calculate(Quad.Op op, QuadOperand operand1, QuadOperand operand2) {
+        if (operand1.getType() != QuadOperand.Type.INT || operand2.getType() != QuadOperand.Type.INT) {
+            return null;
+        }
+        int value1 = Integer.parseInt(operand1.getIdentifier());
+        int value2 = Integer.parseInt(operand2.getIdentifier());
+        switch (op) {
+            case ADD:
+                return value1 + value2;
+            case SUB:
+                return value1 - value2;
+            case MULT:
+                return value1 * value2;
+            case DIV:
+            case MOD:
+                if (value2 == 0 || (value1 == Integer.MIN_VALUE && value2 == -1)) {
+                    return null;
+                }
+                return (op == Quad.Op.DIV ? value1 / value2 : value1 % value2);
+            default:
+                return null;
+        }
+    }
+
+    /* Outcome of the comparison, or null if not constant. Chars outside ASCII are only
+     * compared for equality, as their order depends on the sign the target gives them. */
+    private static Boolean compare(Quad.Op op, QuadOperand operand1, QuadOperand operand2) {
+        Integer value1 = getConstantValue(operand1);
+        Integer value2 = getConstantValue(operand2);
+        if (value1 == null || value2 == null || operand1.getType() != operand2.getType()
+            || (operand1.getType() == QuadOperand.Type.CHAR && (value1 > 127 || value2 > 127)
+                && op != Quad.Op.EQUAL && op != Quad.Op.NOT_EQUAL)) {
+            return null;
+        }
+        switch (op) {
+            case EQUAL:
+                return value1.intValue() == value2.intValue();
+            case NOT_EQUAL:
+                return value1.intValue() != value2.intValue();
+            case GREATER:
+                return value1 > value2;
+            case LESS:
+                return value1 < value2;
+            case GREATER_EQUAL:
+                return value1 >= value2;
+            case LESS_EQUAL:
+                return value1 <= value2;
+            default:
+                return null;
+        }
+    }
+
+    private static Integer getConstantValue(QuadOperand operand) {
+        switch (operand.getType()) {
+            case INT:
+                return Integer.parseInt(operand.getIdentifier());
+            case CHAR:
+                return getCharValue(operand.getIdentifier());
+            default:
+                return null;
+        }
+    }
+
+    /* Code of a char constant as written in the source, quotes included, or null if unknown */
+    static Integer getCharValue(String character) {
+        String body = character.substring(1, character.length() - 1);
+        if (body.length() == 1) {
+            return (int)body.charAt(0);
+        }
+        if (body.length() == 4 && body.startsWith("\\x")) {
+            try {
+                return Integer.parseInt(body.substring(2), 16);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        switch (body) {
+            case "\\n":
+                return 10;
+            case "\\t":
+                return 9;
+            case "\\r":
+                return 13;
+            case "\\0":
+                return 0;
+            case "\\\\":
+                return (int)'\\';
+            case "\\'":
+                return (int)'\'';
+            case "\\\"":
+                return (int)'"';
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.lang.String;
+
+/* Propagates copies into temp vars and coalesces temp vars with the variable they
+ * are copied to, before the code of a function is generated. Only temp vars assigned
+ * exactly once are touched:
+ *  - a temp var copied from a constant is replaced by it everywhere, and one copied
+ *    from another such temp var or from a scalar local var is replaced by it until
+ *    the end of the block, or until the local var may change
+ *  - a copy whose temp var is no longer read is dropped
+ *  - a quad computing a temp var that the next quad only copies elsewhere computes
+ *    straight into the destination, so x <- a + b needs no temp var at all
+ * A local var may change when it is assigned, passed by reference, or at a call to
+ * a function other than the standard library ones, which may reach it.
+ */
+public class CopyPropagator {
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private int propagatedCopies;
+    private int coalescedTempVars;
+
+    public CopyPropagator(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.propagatedCopies = 0;
+        this.coalescedTempVars = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Called while its scope is the current one. */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        int lastQuad = quads.size() - 1;
+        ArrayList<Quad> oldQuads = new ArrayList<Quad>(quads.subList(firstQuad, quads.size()));
+        boolean[] rewritten = new boolean[oldQuads.size()];
+        HashMap<Integer, Integer> definitions = QuadAnalysis.countDefinitions(quads, firstQuad);
+
+        boolean changed = propagate(oldQuads, rewritten, new FlowGraph(quads, firstQuad, lastQuad),
+                                    firstQuad, definitions, QuadAnalysis.getLocalVars(symbolTable));
+        HashMap<Integer, Integer> uses = countUses(oldQuads);
+        boolean[] dropped = new boolean[oldQuads.size()];
+        for (int i = 0 ; i < oldQuads.size() ; i++) {
+            Quad quad = oldQuads.get(i);
+            QuadOperand output = quad.getOutput();
+            if (quad.getOp() == Quad.Op.ASSIGN && output.getType() == QuadOperand.Type.TEMPVAR
+                && QuadAnalysis.isCountedOnce(definitions, output.getTempVar()) && !uses.containsKey(output.getTempVar())) {
+                dropped[i] = true;
+                changed = true;
+            }
+        }
+        changed |= coalesce(oldQuads, rewritten, dropped, getJumpTargets(oldQuads, firstQuad), definitions, uses);
+        if (!changed) {
+            return;
+        }
+
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        int[] newIndex = new int[oldQuads.size() + 1];
+        for (int i = 0 ; i < oldQuads.size() ; i++) {
+            newIndex[i] = firstQuad + newQuads.size();
+            if (!dropped[i]) {
+                newQuads.add(oldQuads.get(i));
+            }
+        }
+        newIndex[oldQuads.size()] = firstQuad + newQuads.size();
+
+        /* Rewritten jumps are new quads, so their labels are mapped here */
+        for (int i = 0 ; i < oldQuads.size() ; i++) {
+            Quad quad = oldQuads.get(i);
+            QuadOperand output = quad.getOutput();
+            if (rewritten[i] && !dropped[i] && output != null && output.getType() == QuadOperand.Type.LABEL) {
+                newQuads.set(newIndex[i] - firstQuad,
+                             new Quad(quad.getOp(), quad.getOperand1(), quad.getOperand2(),
+                                      new QuadOperand(QuadOperand.Type.LABEL,
+                                                      newIndex[output.getTempVar() - firstQuad])));
+            }
+        }
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+    }
+
+    public void printStatistics() {
+        System.out.println("Copy propagation:");
+        System.out.println("  propagated copies: " + propagatedCopies);
+        System.out.println("  coalesced temp vars: " + coalescedTempVars);
+    }
+
+    /* Replace reads of temp vars holding a copy with its source, block by block.
+     * Rewritten quads replace the old ones in oldQuads and are marked in rewritten. */
+    private boolean propagate(ArrayList<Quad> oldQuads, boolean[] rewritten, FlowGraph flowGraph,
+                              int firstQuad, HashMap<Integer, Integer> definitions, HashSet<String> localVars) {
+        HashMap<Integer, QuadOperand> globalCopies = new HashMap<Integer, QuadOperand>();
+        for (Quad quad : oldQuads) {
+            QuadOperand output = quad.getOutput();
+            if (quad.getOp() == Quad.Op.ASSIGN && output.getType() == QuadOperand.Type.TEMPVAR
+                && QuadAnalysis.isCountedOnce(definitions, output.getTempVar()) && isConstant(quad.getOperand1())) {
+                globalCopies.put(output.getTempVar(), quad.getOperand1());
+            }
+        }
+
+        boolean changed = false;
+        for (FlowGraph.Block block : flowGraph.getBlocks()) {
+            HashMap<Integer, QuadOperand> copies = new HashMap<Integer, QuadOperand>(globalCopies);
+            for (int i = block.getStart() - firstQuad ; i <= block.getEnd() - firstQuad ; i++) {
+                Quad quad = oldQuads.get(i);
+                QuadOperand operand1 = quad.getOperand1();
+                QuadOperand operand2 = quad.getOperand2();
+                if (quad.getOp() != Quad.Op.PAR || operand2.getType() == QuadOperand.Type.V) {
+                    operand1 = replace(operand1, copies);
+                    operand2 = replace(operand2, copies);
+                }
+                if (operand1 != quad.getOperand1() || operand2 != quad.getOperand2()) {
+                    quad = new Quad(quad.getOp(), operand1, operand2, quad.getOutput());
+                    oldQuads.set(i, quad);
+                    rewritten[i] = true;
+                    changed = true;
+                }
+                forget(quad, copies, localVars);
+
+                QuadOperand output = quad.getOutput();
+                if (quad.getOp() == Quad.Op.ASSIGN && output.getType() == QuadOperand.Type.TEMPVAR
+                    && QuadAnalysis.isCountedOnce(definitions, output.getTempVar())
+                    && (operand1.getType() == QuadOperand.Type.TEMPVAR
+                        && QuadAnalysis.isCountedOnce(definitions, operand1.getTempVar())
+                        && !ir.getArrayInfo().containsKey(operand1.getTempVar())
+                        || operand1.getType() == QuadOperand.Type.IDENTIFIER
+                           && localVars.contains(operand1.getIdentifier()))) {
+                    copies.put(output.getTempVar(), operand1);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private QuadOperand replace(QuadOperand operand, HashMap<Integer, QuadOperand> copies) {
+        if (operand == null || operand.getType() != QuadOperand.Type.TEMPVAR) {
+            return operand;
+        }
+        QuadOperand copy = copies.get(operand.getTempVar());
+        if (copy == null) {
+            return operand;
+        }
+        propagatedCopies++;
+        return copy;
+    }
+
+    /* Forget the copies from local vars that the quad may change */
+    private static void forget(Quad quad, HashMap<Integer, QuadOperand> copies, HashSet<String> localVars) {
+        String changed = null;
+        boolean all = false;
+        switch (quad.getOp()) {
+            case CALL:
+                all = !Function.isStandardLibrary(quad.getOutput().getIdentifier());
+                break;
+            case PAR:
+                if (quad.getOperand2().getType() == QuadOperand.Type.R
+                    && quad.getOperand1().getType() == QuadOperand.Type.IDENTIFIER) {
+                    changed = quad.getOperand1().getIdentifier();
+                }
+                break;
+            default:
+                if (quad.getOutput() != null && quad.getOutput().getType() == QuadOperand.Type.IDENTIFIER) {
+                    changed = quad.getOutput().getIdentifier();
+                }
+        }
+        if (changed == null && !all) {
+            return;
+        }
+        for (Iterator<QuadOperand> it = copies.values().iterator() ; it.hasNext() ; ) {
+            QuadOperand copy = it.next();
+            if (copy.getType() == QuadOperand.Type.IDENTIFIER
+                && (all || copy.getIdentifier().equals(changed))) {
+                it.remove();
+            }
+        }
+    }
+
+    /* Compute straight into the destination of a copy that follows, when the copy is
+     * the only read of the temp var and no jump lands on it */
+    private boolean coalesce(ArrayList<Quad> oldQuads, boolean[] rewritten, boolean[] dropped,
+                             HashSet<Integer> jumpTargets, HashMap<Integer, Integer> definitions,
+                             HashMap<Integer, Integer> uses) {
+        boolean changed = false;
+        for (int i = 0 ; i + 1 < oldQuads.size() ; i++) {
+            Quad quad = oldQuads.get(i);
+            Quad copy = oldQuads.get(i + 1);
+            if (dropped[i] || dropped[i + 1] || jumpTargets.contains(i + 1)) {
+                continue;
+            }
+            switch (quad.getOp()) {
+                case ASSIGN:
+                case ADD:
+                case SUB:
+                case MULT:
+                case DIV:
+                case MOD:
+                    break;
+                default:
+                    continue;
+            }
+            QuadOperand output = quad.getOutput();
+            if (output.getType() != QuadOperand.Type.TEMPVAR || copy.getOp() != Quad.Op.ASSIGN
+                || copy.getOperand1().getType() != QuadOperand.Type.TEMPVAR
+                || copy.getOperand1().getTempVar() != output.getTempVar()
+                || !QuadAnalysis.isCountedOnce(definitions, output.getTempVar())
+                || !QuadAnalysis.isCountedOnce(uses, output.getTempVar())) {
+                continue;
+            }
+            oldQuads.set(i + 1, new Quad(quad.getOp(), quad.getOperand1(), quad.getOperand2(),
+                                         copy.getOutput()));
+            rewritten[i + 1] = true;
+            dropped[i] = true;
+            coalescedTempVars++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /* Reads of each temp var, including the ones through its address */
+    private static HashMap<Integer, Integer> countUses(ArrayList<Quad> quads) {
+        HashMap<Integer, Integer> uses = new HashMap<Integer, Integer>();
+        for (Quad quad : quads) {
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (int i = 0 ; i < operands.length ; i++) {
+                QuadOperand operand = operands[i];
+                if (operand == null || (i == 0 && quad.getOp() == Quad.Op.PAR
+                                        && quad.getOperand2().getType() == QuadOperand.Type.RETCALLER)) {
+                    continue;
+                }
+                if (operand.getType() == QuadOperand.Type.ADDRESS
+                    || (operand.getType() == QuadOperand.Type.TEMPVAR && i < 2)) {
+                    QuadAnalysis.increment(uses, operand.getTempVar());
+                }
+            }
+        }
+        return uses;
+    }
+
+    /* Positions within the function, relative to its first quad, that jumps land on */
+    private static HashSet<Integer> getJumpTargets(ArrayList<Quad> quads, int firstQuad) {
+        HashSet<Integer> jumpTargets = new HashSet<Integer>();
+        for (Quad quad : quads) {
+            if (quad.getOutput() != null && quad.getOutput().getType() == QuadOperand.Type.LABEL) {
+                jumpTargets.add(quad.getOutput().getTempVar() - firstQuad);
+            }
+        }
+        return jumpTargets;
+    }
+
+    private static boolean isConstant(QuadOperand operand) {
+        return operand.getType() == QuadOperand.Type.INT || operand.getType() == QuadOperand.Type.CHAR;
+    }
+}
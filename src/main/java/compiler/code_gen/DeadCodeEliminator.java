@@ -0,0 +1,209 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.lang.String;
+
+/* Removes the quads of a function that never run or whose result is never read,
+ * before its code is generated. Blocks not reachable from the UNIT, such as the code
+ * after a RET or after an unconditional jump, are dropped, and so is any quad that
+ * only computes a temp var or scalar local var that is dead right after it, by
+ * liveness over the flow graph. Calls, parameters and stores through an address, to
+ * reference arguments, to outer variables or to the returned value are always kept.
+ * A call to a function other than the standard library ones may read any local var
+ * through nested functions, so all of them are live before it. Divisions are kept
+ * unless their divisor is a constant that cannot trap.
+ * Temp vars no longer found in the quads get no stack slot in FrameLayout.
+ */
+public class DeadCodeEliminator {
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private int unreachableQuads;
+    private int deadQuads;
+
+    public DeadCodeEliminator(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.unreachableQuads = 0;
+        this.deadQuads = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Called while its scope is the current one. Dropping a quad may
+     * leave the ones computing its operands dead, so it repeats until nothing changes. */
+    public void run(int firstQuad) {
+        HashSet<String> localVars = QuadAnalysis.getLocalVars(symbolTable);
+        while (eliminate(firstQuad, localVars)) {
+        }
+    }
+
+    public void printStatistics() {
+        System.out.println("Dead code elimination:");
+        System.out.println("  unreachable quads removed: " + unreachableQuads);
+        System.out.println("  dead quads removed: " + deadQuads);
+    }
+
+    private boolean eliminate(int firstQuad, HashSet<String> localVars) {
+        ArrayList<Quad> quads = ir.getQuads();
+        int lastQuad = quads.size() - 1;
+        FlowGraph flowGraph = new FlowGraph(quads, firstQuad, lastQuad);
+        ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+        boolean[] reachable = flowGraph.getReachable();
+        reachable[flowGraph.getBlock(lastQuad).getIndex()] = true;
+
+        /* Live vars at the end of each block, up to a fixpoint */
+        ArrayList<HashSet<String>> liveOut = new ArrayList<HashSet<String>>();
+        ArrayList<HashSet<String>> liveIn = new ArrayList<HashSet<String>>();
+        for (int i = 0 ; i < blocks.size() ; i++) {
+            liveOut.add(new HashSet<String>());
+            liveIn.add(new HashSet<String>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1 ; i >= 0 ; i--) {
+                FlowGraph.Block block = blocks.get(i);
+                if (!reachable[i]) {
+                    continue;
+                }
+                HashSet<String> live = new HashSet<String>();
+                for (FlowGraph.Block successor : block.getSuccessors()) {
+                    live.addAll(liveIn.get(successor.getIndex()));
+                }
+                liveOut.set(i, new HashSet<String>(live));
+                for (int j = block.getEnd() ; j >= block.getStart() ; j--) {
+                    transfer(quads.get(j), live, localVars);
+                }
+                if (!live.equals(liveIn.get(i))) {
+                    liveIn.set(i, live);
+                    changed = true;
+                }
+            }
+        }
+
+        /* Walk each block backwards from its live vars at the end */
+        boolean[] dropped = new boolean[lastQuad - firstQuad + 1];
+        int numDropped = 0;
+        for (FlowGraph.Block block : blocks) {
+            if (!reachable[block.getIndex()]) {
+                for (int j = block.getStart() ; j <= block.getEnd() ; j++) {
+                    dropped[j - firstQuad] = true;
+                    unreachableQuads++;
+                    numDropped++;
+                }
+                continue;
+            }
+            HashSet<String> live = new HashSet<String>(liveOut.get(block.getIndex()));
+            for (int j = block.getEnd() ; j >= block.getStart() ; j--) {
+                Quad quad = quads.get(j);
+                String key = (isRemovable(quad) ? getKey(quad.getOutput(), localVars) : null);
+                if (key != null && !live.contains(key)) {
+                    dropped[j - firstQuad] = true;
+                    deadQuads++;
+                    numDropped++;
+                    continue;
+                }
+                transfer(quad, live, localVars);
+            }
+        }
+        if (numDropped == 0) {
+            return false;
+        }
+
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        int[] newIndex = new int[dropped.length + 1];
+        for (int i = 0 ; i < dropped.length ; i++) {
+            newIndex[i] = firstQuad + newQuads.size();
+            if (!dropped[i]) {
+                newQuads.add(quads.get(firstQuad + i));
+            }
+        }
+        newIndex[dropped.length] = firstQuad + newQuads.size();
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+        return true;
+    }
+
+    /* Turn the vars live after the quad into the ones live before it */
+    private void transfer(Quad quad, HashSet<String> live, HashSet<String> localVars) {
+        QuadOperand output = quad.getOutput();
+        switch (quad.getOp()) {
+            case CALL:
+                if (!Function.isStandardLibrary(output.getIdentifier())) {
+                    live.addAll(localVars);
+                }
+                return;
+            case PAR:
+                if (quad.getOperand2().getType() == QuadOperand.Type.RETCALLER) {
+                    live.remove(getKey(quad.getOperand1(), localVars));
+                } else {
+                    addUse(quad.getOperand1(), live, localVars);
+                }
+                return;
+            case UNIT:
+            case ENDU:
+            case JUMP:
+            case RET:
+                return;
+            default:
+                if (output != null && output.getType() == QuadOperand.Type.ADDRESS) {
+                    addUse(output, live, localVars);
+                } else if (output != null) {
+                    live.remove(getKey(output, localVars));
+                }
+                addUse(quad.getOperand1(), live, localVars);
+                addUse(quad.getOperand2(), live, localVars);
+        }
+    }
+
+    private static void addUse(QuadOperand operand, HashSet<String> live, HashSet<String> localVars) {
+        String key = getKey(operand, localVars);
+        if (key != null) {
+            live.add(key);
+        }
+    }
+
+    /* Name of the var an operand reads or writes in the live sets, or null if untracked.
+     * An address operand reads its temp var, wherever it appears. */
+    private static String getKey(QuadOperand operand, HashSet<String> localVars) {
+        if (operand == null) {
+            return null;
+        }
+        switch (operand.getType()) {
+            case TEMPVAR:
+            case ADDRESS:
+                return "$" + operand.getTempVar();
+            case IDENTIFIER:
+                return (localVars.contains(operand.getIdentifier()) ? operand.getIdentifier() : null);
+            default:
+                return null;
+        }
+    }
+
+    /* Whether the quad only computes its output, which is removed if it is a tracked
+     * temp var or local var that is dead. Stores through an address are kept. */
+    private static boolean isRemovable(Quad quad) {
+        if (quad.getOutput() == null || quad.getOutput().getType() == QuadOperand.Type.ADDRESS) {
+            return false;
+        }
+        switch (quad.getOp()) {
+            case DIV:
+            case MOD:
+                QuadOperand divisor = quad.getOperand2();
+                if (divisor.getType() != QuadOperand.Type.INT
+                    || Integer.parseInt(divisor.getIdentifier()) == 0
+                    || Integer.parseInt(divisor.getIdentifier()) == -1) {
+                    return false;
+                }
+                return true;
+            case ASSIGN:
+            case ADD:
+            case SUB:
+            case MULT:
+            case ARRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
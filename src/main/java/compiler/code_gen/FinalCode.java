@@ -1,11 +1,17 @@
 package compiler.code_gen;
 
+import compiler.Main;
 import compiler.symbol_table.*;
 import java.util.Collections;
 import java.util.ArrayList;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.ListIterator;
+import java.util.Set;
 import java.lang.String;
 import java.io.PrintWriter;
 import java.io.IOException;
@@ -13,6 +19,10 @@ import java.io.File;
 
 
 public class FinalCode {
+    /* Standard library functions expanded inline instead of called */
+    private static final Set<String> intrinsics = new HashSet<String>(Arrays.asList(
+        "_abs_-1", "_ord_-1", "_chr_-1", "_strlen_-1", "_strcpy_-1", "_strcmp_-1", "_strcat_-1"));
+
     private final IntermediateRepresentation ir;
     private final SymbolTable symbolTable;
     private final PrintWriter writer;
@@ -20,32 +30,105 @@ public class FinalCode {
     private int curQuad;
     private int curTempVar;
     private final int wordSize;
+    private final boolean registerAllocation;
+    private final Target target;
+    private final Peephole peephole;
+    private final BranchOptimizer branchOptimizer;
+    private final boolean display;
+    private final LambdaLifter lambdaLifter;
+    private final boolean tailCalls;
+    private int siblingTailCalls;
+    private final FramePacker framePacker;
+    private final boolean arithmeticSimplification;
+    private int loweredArithmetic;
+    private final boolean frameOmission;
+    private final boolean inlineIntrinsics;
+    private int leafFunctions;
+    private int skippedAccessLinks;
+    private final LoopVectorizer loopVectorizer;
+    private HashMap<Integer, LoopVectorizer.VectorLoop> vectorLoops;
+    private final ArgumentPromoter argumentPromoter;
+    private int registerPointers;
+    private final InstructionSelector instructionSelector;
 
     private String curFunction;
     private int numTempVars;
     private QuadOperand curReturnTempVar;
     private final ArrayList<String> stringLiterals;
     private final ArrayDeque<Quad> passParameters;
+    private final ArrayList<String> code;
+    private final HashSet<Variable> nonLocalVars;
+    private final HashSet<Long> displayScopes;
+    private long displaySize;
+    private final HashMap<Long, FrameLayout> frameLayouts;
+    private FrameLayout frameLayout;
+    private RegisterAllocator registerAllocator;
+    private LambdaLifter.FunctionInfo curFunctionInfo;
+    private boolean omitFramePointer;
+    private long leafFrameSize;
+    private long framePointerOffset;
 
     public FinalCode(IntermediateRepresentation ir, SymbolTable symbolTable,
-                     String outputFile) throws IOException {
+                     Main.Options options) throws IOException {
         this.ir = ir;
         this.symbolTable = symbolTable;
-        this.writer = new PrintWriter(outputFile, "UTF-8");
+        this.writer = new PrintWriter(options.getOutputCode(), "UTF-8");
         this.writer.println(".intel_syntax noprefix\n" +
                             ".text");
-        this.outputFile = outputFile;
+        this.outputFile = options.getOutputCode();
         this.curQuad = 0;
         this.curTempVar = 0;
-        this.wordSize = 4;
+        this.target = options.getTarget();
+        this.wordSize = target.getWordSize();
+        this.registerAllocation = options.getRegisterAllocation();
+        this.peephole = (options.getPeephole() ? new Peephole(target) : null);
+        this.branchOptimizer = (options.getPeephole() ? new BranchOptimizer() : null);
+        this.display = options.getDisplay();
+        this.lambdaLifter = (options.getLambdaLifting() && !display ? new LambdaLifter(ir, symbolTable) : null);
+        this.tailCalls = options.getTailCalls();
+        this.siblingTailCalls = 0;
+        this.framePacker = (options.getFramePacking() ? new FramePacker(ir) : null);
+        this.arithmeticSimplification = options.getArithmeticSimplification();
+        this.loweredArithmetic = 0;
+        this.frameOmission = options.getFrameOmission();
+        this.inlineIntrinsics = options.getInlineIntrinsics();
+        this.leafFunctions = 0;
+        this.skippedAccessLinks = 0;
+        this.loopVectorizer = (options.getVectorization() ? new LoopVectorizer(ir, symbolTable) : null);
+        this.vectorLoops = new HashMap<Integer, LoopVectorizer.VectorLoop>();
+        this.argumentPromoter = (options.getReferencePromotion() ? new ArgumentPromoter(ir, symbolTable) : null);
+        this.registerPointers = 0;
+        this.instructionSelector = (options.getInstructionSelection()
+                                    ? new InstructionSelector(ir, symbolTable) : null);
         this.curFunction = null;
         this.numTempVars = 0;
         this.curReturnTempVar = null;
         this.stringLiterals = new ArrayList<String>();
         this.passParameters = new ArrayDeque<Quad>();
+        this.code = new ArrayList<String>();
+        this.nonLocalVars = new HashSet<Variable>();
+        this.displayScopes = new HashSet<Long>();
+        this.displaySize = 0;
+        this.frameLayouts = new HashMap<Long, FrameLayout>();
+        this.frameLayout = null;
+        this.registerAllocator = null;
+        this.curFunctionInfo = null;
+        this.omitFramePointer = false;
+        this.leafFrameSize = 0;
+        this.framePointerOffset = 0;
     }
 
     public void addMainFunction(String name) {
+        if (target == Target.X86_64) {
+            writer.println("\t.global main\n" +
+                           "main:\n" +
+                           "push rbp\n" +
+                           "mov rbp, rsp\n\n" +
+                           "call _" + name + "_0\n\n" +
+                           "pop rbp\n" +
+                           "ret");
+            return;
+        }
         writer.println("\t.global main\n" +
                        "main:\n" +
                        "push ebp\n" +
@@ -62,10 +145,33 @@ public class FinalCode {
         ArrayList<Quad> quads = ir.getQuads();
         ArrayList<Type> tempVars = ir.getTempVars();
 
+        /* Only quads that are jumped to get a label */
+        HashSet<Integer> jumpTargets = new HashSet<Integer>();
+        for (ListIterator<Quad> it = quads.listIterator(curQuad) ; it.hasNext() ; ) {
+            QuadOperand output = it.next().getOutput();
+            if (output != null && output.getType() == QuadOperand.Type.LABEL) {
+                jumpTargets.add(output.getTempVar());
+            }
+        }
+
         for (ListIterator<Quad> it = quads.listIterator(curQuad) ; it.hasNext() ; curQuad++) {
             Quad quad = it.next();
 
-            writer.println("\nL" + curQuad + ":");
+            /* Vector iterations of a loop go where it is entered, by falling through
+             * into its header or by a jump to it */
+            LoopVectorizer.VectorLoop vectorLoop = vectorLoops.get(curQuad);
+            if (vectorLoop != null && quad.getOp() != Quad.Op.JUMP) {
+                emitVectorLoop(vectorLoop);
+            }
+            if (jumpTargets.contains(curQuad)) {
+                emit("\nL" + curQuad + ":");
+            }
+            if (vectorLoop != null && quad.getOp() == Quad.Op.JUMP) {
+                emitVectorLoop(vectorLoop);
+            }
+            if (instructionSelector != null && selectInstructions(quad)) {
+                continue;
+            }
             switch (quad.getOp()) {
                 case PAR:
                     switch (quad.getOperand2().getType()) {
@@ -83,60 +189,205 @@ public class FinalCode {
                     }
                     break;
                 case CALL:
-                    handleParameters();
                     String calledFunction = quad.getOutput().getIdentifier();
                     String originalName = uniqueToOriginal(calledFunction);
                     SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(originalName);
                     Function function = (Function)symbolEntry.getSymbol();
                     long calledScope = symbolEntry.getScope()+1;
-                    long totalSize = function.getArguments().size() * wordSize;
                     boolean isStandardLibrary = Function.isStandardLibrary(calledFunction);
+                    if (isIntrinsic(calledFunction)) {
+                        emitIntrinsic(calledFunction);
+                        if (function.getType() != Type.NOTHING) {
+                            store("eax", curReturnTempVar);
+                        }
+                        break;
+                    }
+                    LambdaLifter.FunctionInfo calledInfo = null;
+                    if (!isStandardLibrary && lambdaLifter != null) {
+                        calledInfo = (calledFunction.equals(curFunction) ? curFunctionInfo
+                                                                         : lambdaLifter.getCallee(calledFunction));
+                    }
+                    boolean tailCall = (!isStandardLibrary && isSiblingTailCall(function, calledScope, calledInfo));
+                    long totalSize = handleParameters(calledFunction, function.getArguments().size(), calledInfo);
                     if (isStandardLibrary) {
                         calledFunction =  "_" + originalName;
-                    } else {
+                    } else if (calledInfo == null ? !display : calledInfo.hasAccessLink()) {
                         updateAR(symbolTable.getCurScope(), calledScope);
-                        totalSize += wordSize;
+                        if (target == Target.X86) {
+                            totalSize += wordSize;
+                        }
+                    }
+                    if (tailCall) {
+                        emitEpilogue("eax");
+                        emit("jmp " + calledFunction);
+                        siblingTailCalls++;
+                        break;
                     }
-                    writer.println("call " + calledFunction + (totalSize > 0 ? "\n" +
-                                   "add esp, " + totalSize : ""));
-                    if (function.getType() != Type.NOTHING) {
-                        loadAddr("esi", curReturnTempVar);
+                    emit("call " + calledFunction + (totalSize > 0 ? "\n" +
+                         "add " + target.getStackPointer() + ", " + totalSize : ""));
+                    if (function.getType() != Type.NOTHING
+                        && (getOperandRegister(curReturnTempVar) != null || target == Target.X86_64)) {
+                        store("eax", curReturnTempVar);
+                    } else if (function.getType() != Type.NOTHING) {
+                        loadAddr("ecx", curReturnTempVar);
                         String register = "eax";
                         if (function.getType() == Type.CHAR) {
-                            writer.println("push eax\n" +
-                                           "mov al, BYTE PTR [esp]\n" +
-                                           "pop eax");
+                            emit("push eax\n" +
+                                 "mov al, BYTE PTR [esp]\n" +
+                                 "pop eax");
                             register = "al";
                         }
-                        writer.println("mov " + getTypeSizeName(function.getType()) +
-                                       " [esi], " + register);
+                        emit("mov " + getTypeSizeName(function.getType()) +
+                             " [ecx], " + register);
                     }
                     break;
                 case UNIT:
                     curFunction = quad.getOperand1().getIdentifier();
                     originalName = uniqueToOriginal(curFunction);
+                    if (instructionSelector != null) {
+                        instructionSelector.run(curQuad);
+                    }
                     numTempVars = tempVars.size() - curTempVar;
-                    totalSize = getTotalSize();
-                    writer.println(curFunction + ":\n" +
-                                   "push ebp\n" +
-                                   "mov ebp, esp\n" +
-                                   "sub esp, " + totalSize);
+                    long curScope = symbolTable.getCurScope();
+                    ArrayDeque<Argument> arguments = new ArrayDeque<Argument>(symbolTable.getArguments(curScope));
+                    if (argumentPromoter != null) {
+                        arguments = promoteArguments(arguments);
+                    }
+                    boolean accessLink = !display;
+                    if (lambdaLifter != null) {
+                        curFunctionInfo = lambdaLifter.analyze(curFunction, curScope, curQuad);
+                        arguments.addAll(curFunctionInfo.getLiftedArguments());
+                        accessLink = curFunctionInfo.hasAccessLink();
+                    }
+                    if (registerAllocation && argumentPromoter != null) {
+                        registerAllocator = new RegisterAllocator(ir, curQuad, curTempVar,
+                                                                  getRegisterCandidates(curScope),
+                                                                  getPointerArguments(arguments, curScope),
+                                                                  getCopiedParameters(), target);
+                    } else if (registerAllocation) {
+                        registerAllocator = new RegisterAllocator(ir, curQuad, curTempVar,
+                                                                  getRegisterCandidates(curScope), target);
+                    }
+                    if (registerAllocator != null && instructionSelector != null) {
+                        registerAllocator.run(instructionSelector.getFoldedArrays());
+                    } else if (registerAllocator != null) {
+                        registerAllocator.run();
+                    }
+                    Set<Integer> usedTempVars = getUsedTempVars();
+                    HashMap<Integer, Integer> tempVarSlots = null;
+                    if (framePacker != null) {
+                        long unpackedSize = new FrameLayout(symbolTable.getLocalVars(curScope), arguments,
+                                                            tempVars, curTempVar, usedTempVars,
+                                                            ir.getArrayInfo().keySet(), null, target,
+                                                            accessLink, display).getTotalSize();
+                        for (Iterator<Integer> tempVarIt = usedTempVars.iterator() ; tempVarIt.hasNext() ; ) {
+                            QuadOperand tempVar = new QuadOperand(QuadOperand.Type.TEMPVAR, tempVarIt.next());
+                            if (getOperandRegister(tempVar) != null) {
+                                tempVarIt.remove();
+                            }
+                        }
+                        tempVarSlots = framePacker.assignSlots(curQuad, curTempVar, usedTempVars,
+                                                               ir.getArrayInfo().keySet(), wordSize);
+                        frameLayout = new FrameLayout(symbolTable.getLocalVars(curScope), arguments,
+                                                      tempVars, curTempVar, usedTempVars,
+                                                      ir.getArrayInfo().keySet(), tempVarSlots, target,
+                                                      accessLink, display);
+                        framePacker.record(curFunction, unpackedSize, frameLayout.getTotalSize());
+                    } else {
+                        frameLayout = new FrameLayout(symbolTable.getLocalVars(curScope), arguments,
+                                                      tempVars, curTempVar, usedTempVars,
+                                                      ir.getArrayInfo().keySet(), null, target,
+                                                      accessLink, display);
+                    }
+                    frameLayouts.put(curScope, frameLayout);
+                    totalSize = frameLayout.getTotalSize();
+
+                    /* Keep the stack 16 byte aligned at calls */
+                    if (registerAllocator != null && target == Target.X86_64
+                        && registerAllocator.getUsedRegisters().size() % 2 != 0) {
+                        totalSize += wordSize;
+                    }
+                    if (loopVectorizer != null) {
+                        vectorLoops = loopVectorizer.run(curQuad);
+                    }
+                    omitFramePointer = (frameOmission && isLeaf() && !displayScopes.contains(curScope));
+                    if (omitFramePointer) {
+                        /* The frame keeps its layout, with the word where the frame pointer
+                         * would be saved left unused, unless the frame is empty */
+                        leafFrameSize = (totalSize > 0 ? totalSize + wordSize : 0);
+                        framePointerOffset = leafFrameSize - wordSize;
+                        emit(curFunction + ":");
+                        if (leafFrameSize > 0) {
+                            emit("sub " + target.getStackPointer() + ", " + leafFrameSize);
+                        }
+                        leafFunctions++;
+                        if (accessLink && target == Target.X86_64 && !followsAccessLink(curScope)) {
+                            accessLink = false;
+                            skippedAccessLinks++;
+                        }
+                    } else {
+                        emit(curFunction + ":\n" +
+                             "push " + target.getFramePointer() + "\n" +
+                             "mov " + target.getFramePointer() + ", " + target.getStackPointer() + "\n" +
+                             "sub " + target.getStackPointer() + ", " + totalSize);
+                    }
+                    if (target == Target.X86_64) {
+                        saveArgumentRegisters(arguments, accessLink);
+                    }
+                    if (displayScopes.contains(curScope)) {
+                        String savedEntry = target.getPointerSizeName() + " " +
+                                            address(target.getFramePointer(), -wordSize);
+                        emit("mov " + target.getPointerRegister("eax") + ", " + getDisplayEntry(curScope) + "\n" +
+                             "mov " + savedEntry + ", " + target.getPointerRegister("eax") + "\n" +
+                             "mov " + getDisplayEntry(curScope) + ", " + target.getFramePointer());
+                    }
+                    if (registerAllocator != null) {
+                        for (String savedRegister : registerAllocator.getUsedRegisters()) {
+                            emit("push " + target.getPointerRegister(savedRegister));
+                            if (omitFramePointer) {
+                                framePointerOffset += wordSize;
+                            }
+                        }
+
+                        /* Reference arguments that keep their address in a register */
+                        for (String argument : registerAllocator.getPointerRegisters().keySet()) {
+                            long offset = frameLayout.getSymbolInfo(argument).getOffset();
+                            emit("mov " + target.getPointerRegister(registerAllocator.getPointerRegister(argument)) +
+                                 ", " + target.getPointerSizeName() + " " +
+                                 address(target.getFramePointer(), offset));
+                            registerPointers++;
+                        }
+                    }
                     break;
                 case ENDU:
                     curTempVar += numTempVars;
-                    writer.println(curFunction + "_end:\n" +
-                                   "mov esp, ebp\n" +
-                                   "pop ebp\n" +
-                                   "ret");
+                    frameLayouts.remove(symbolTable.getCurScope());
+                    frameLayout = null;
+                    emit(curFunction + "_end:");
+                    if (lambdaLifter != null) {
+                        lambdaLifter.finish(curFunction, symbolTable.getCurScope());
+                        curFunctionInfo = null;
+                    }
+                    emitEpilogue("ecx");
+                    displayScopes.remove(symbolTable.getCurScope());
+                    registerAllocator = null;
+                    omitFramePointer = false;
+                    vectorLoops.clear();
+                    emit("ret");
                     break;
                 case RET:
-                    writer.println("jmp " + curFunction + "_end");
+                    emit("jmp " + curFunction + "_end");
                     break;
                 case ASSIGN:
                     load("eax", quad.getOperand1());
                     store("eax", quad.getOutput());
                     break;
                 case ARRAY:
+                    /* The quad using the element addresses it itself */
+                    if (instructionSelector != null
+                        && instructionSelector.getFoldedArray(quad.getOutput().getTempVar()) != null) {
+                        break;
+                    }
                     load("eax", quad.getOperand2());
                     String identifier = quad.getOperand1().getIdentifier();
                     Type type = null;
@@ -145,24 +396,56 @@ public class FinalCode {
                     } else {
                         type = symbolTable.lookup(identifier).getType();
                     }
-                    writer.println("mov ecx, " + getTypeSize(type) + "\n" +
-                                   "imul ecx");
+                    if (target == Target.X86) {
+                        emit("mov ecx, " + FrameLayout.getTypeSize(type) + "\n" +
+                             "imul ecx");
+                    } else {
+                        emit("movsxd rax, eax\n" +
+                             "imul rax, rax, " + FrameLayout.getTypeSize(type));
+                    }
                     loadAddr("ecx", quad.getOperand1());
-                    writer.println("add eax, ecx");
+                    emit("add " + target.getPointerRegister("eax") + ", " +
+                         target.getPointerRegister("ecx"));
 
                     /* Change type from ADDRESS to TEMPVAR for store */
                     store("eax", new QuadOperand(QuadOperand.Type.TEMPVAR, quad.getOutput().getTempVar()));
                     break;
                 case ADD:
+                    /* Moving a pointer temp var by a byte offset, as strength reduction does */
+                    if (quad.getOutput().getType() == QuadOperand.Type.TEMPVAR
+                        && ir.getArrayInfo().containsKey(quad.getOutput().getTempVar())) {
+                        load("eax", quad.getOperand1());
+                        if (quad.getOperand2().getType() == QuadOperand.Type.INT) {
+                            emit("add " + target.getPointerRegister("eax") + ", " +
+                                 quad.getOperand2().getIdentifier());
+                        } else {
+                            load("edx", quad.getOperand2());
+                            if (target == Target.X86_64) {
+                                emit("movsxd rdx, edx");
+                            }
+                            emit("add " + target.getPointerRegister("eax") + ", " +
+                                 target.getPointerRegister("edx"));
+                        }
+                        store("eax", quad.getOutput());
+                        break;
+                    }
+                    arithmetic(quad);
+                    break;
                 case SUB:
                 case MULT:
-                    load("eax", quad.getOperand1());
-                    load("edx", quad.getOperand2());
-                    writer.println(convertOpToCommand(quad.getOp()) + " eax, edx");
-                    store("eax", quad.getOutput());
+                    arithmetic(quad);
                     break;
                 case DIV:
                 case MOD:
+                    if (arithmeticSimplification && isIntConstant(quad.getOperand2())) {
+                        int divisor = Integer.parseInt(quad.getOperand2().getIdentifier());
+                        if (divisor != 0 && divisor != -1 && divisor != Integer.MIN_VALUE) {
+                            load("eax", quad.getOperand1());
+                            divideByConstant(quad.getOp(), divisor);
+                            store("eax", quad.getOutput());
+                            break;
+                        }
+                    }
                     String register = null;
                     if (quad.getOp() == Quad.Op.DIV) {
                         register = "eax";
@@ -170,13 +453,17 @@ public class FinalCode {
                         register = "edx";
                     }
                     load("eax", quad.getOperand1());
-                    writer.println("cdq");
-                    load("ebx", quad.getOperand2());
-                    writer.println("idiv ebx");
+                    emit("cdq");
+                    String divisorRegister = getOperandRegister(quad.getOperand2());
+                    if (divisorRegister == null) {
+                        load("ecx", quad.getOperand2());
+                        divisorRegister = "ecx";
+                    }
+                    emit("idiv " + divisorRegister);
                     store(register, quad.getOutput());
                     break;
                 case JUMP:
-                    writer.println("jmp L" + quad.getOutput());
+                    emit("jmp L" + quad.getOutput());
                     break;
                 case EQUAL:
                 case NOT_EQUAL:
@@ -184,10 +471,26 @@ public class FinalCode {
                 case LESS:
                 case GREATER_EQUAL:
                 case LESS_EQUAL:
-                    load("eax", quad.getOperand1());
-                    load("edx", quad.getOperand2());
-                    writer.println("cmp eax, edx");
-                    writer.println(convertOpToCommand(quad.getOp()) + " L" + quad.getOutput());
+                    if (isPointer(quad.getOperand1()) && isPointer(quad.getOperand2())) {
+                        load("eax", quad.getOperand1());
+                        String operandRegister = getOperandRegister(quad.getOperand2());
+                        if (operandRegister == null) {
+                            load("edx", quad.getOperand2());
+                            operandRegister = "edx";
+                        }
+                        emit("cmp " + target.getPointerRegister("eax") + ", " +
+                             target.getPointerRegister(operandRegister));
+                        emit(convertOpToUnsignedCommand(quad.getOp()) + " L" + quad.getOutput());
+                        break;
+                    }
+                    boolean charInvolved = load("eax", quad.getOperand1());
+                    String operandRegister = (charInvolved ? null : getOperandRegister(quad.getOperand2()));
+                    if (operandRegister == null) {
+                        load("edx", quad.getOperand2());
+                        operandRegister = (charInvolved ? "dl" : "edx");
+                    }
+                    emit("cmp " + (charInvolved ? "al, " : "eax, ") + operandRegister);
+                    emit(convertOpToCommand(quad.getOp()) + " L" + quad.getOutput());
                     break;
                 default:
                     System.err.println("Internal error: wrong Quad OP " + quad.getOp() +
@@ -195,18 +498,75 @@ public class FinalCode {
                     System.exit(1);
             }
         }
+        if (peephole != null) {
+            branchOptimizer.run(code);
+            peephole.run(code);
+        }
+        for (String line : code) {
+            writer.println(line);
+        }
+        code.clear();
+    }
+
+    /* Code of the function being generated is kept until its end, for the branch
+     * optimization and peephole passes */
+    private void emit(String text) {
+        Collections.addAll(code, text.split("\n", -1));
     }
 
-    private void handleParameters() {
+    /* Parameters are passed last one first. On X86_64 the first ones go in registers
+     * and the rest on the stack, padded to keep it 16 byte aligned at the call.
+     * The outer variables a lifted function takes come after its own arguments.
+     * Reference arguments the called function takes by value are passed as values.
+     * Returns the bytes to pop from the stack after the call. */
+    private long handleParameters(String calledFunction, int numArguments, LambdaLifter.FunctionInfo calledInfo) {
+        ArrayList<Variable> liftedVars = (calledInfo == null ? new ArrayList<Variable>()
+                                                             : calledInfo.getLiftedVars());
+        String[] argumentRegisters = target.getArgumentRegisters();
+        int stackArguments = Math.max(numArguments + liftedVars.size() - argumentRegisters.length, 0);
+        long totalSize = stackArguments * wordSize;
+        if (target == Target.X86_64 && stackArguments % 2 != 0) {
+            emit("sub " + target.getStackPointer() + ", " + wordSize);
+            totalSize += wordSize;
+        }
+        for (int i = liftedVars.size() - 1 ; i >= 0 ; i--) {
+            int argument = numArguments + i;
+            String register = (argument < argumentRegisters.length ? argumentRegisters[argument] : null);
+            Variable liftedVar = liftedVars.get(i);
+            String identifier = liftedVar.getToken().getText();
+            long scope = calledInfo.getLiftedScopes().get(i);
+            if (register == null) {
+                boolean charInvolved = handleSymbol("LOAD", "eax", identifier, liftedVar, scope);
+                push("eax", charInvolved);
+            } else if (handleSymbol("LOAD", register, identifier, liftedVar, scope)) {
+                emit("movzx " + register + ", " + target.getByteRegister(register));
+            }
+        }
+        int argument = numArguments;
         for (Quad quad: passParameters) {
-            switch (quad.getOperand2().getType()) {
+            argument--;
+            String register = (argument < argumentRegisters.length ? argumentRegisters[argument] : null);
+            QuadOperand.Type mode = quad.getOperand2().getType();
+            if (mode == QuadOperand.Type.R && argumentPromoter != null
+                && argumentPromoter.isPromoted(calledFunction, argument)) {
+                mode = QuadOperand.Type.V;
+            }
+            switch (mode) {
                 case V:
-                    boolean charInvolved = load("eax", quad.getOperand1());
-                    push("eax", charInvolved);
+                    if (register == null) {
+                        boolean charInvolved = load("eax", quad.getOperand1());
+                        push("eax", charInvolved);
+                    } else if (load(register, quad.getOperand1())) {
+                        emit("movzx " + register + ", " + target.getByteRegister(register));
+                    }
                     break;
                 case R:
-                    loadAddr("esi", quad.getOperand1());
-                    writer.println("push esi");
+                    if (register == null) {
+                        loadAddr("ecx", quad.getOperand1());
+                        emit("push " + target.getPointerRegister("ecx"));
+                    } else {
+                        loadAddr(register, quad.getOperand1());
+                    }
                     break;
                 default:
                     System.err.println("Internal error: wrong QuadOperand type " +
@@ -215,84 +575,649 @@ public class FinalCode {
             }
         }
         passParameters.clear();
+        return totalSize;
+    }
+
+    /* Emits the cheapest cover the instruction selector finds for an int ASSIGN, ADD,
+     * SUB, MULT or comparison. Returns false, for the templates to handle the quad, if
+     * it is of another kind or some operand is not an int. */
+    private boolean selectInstructions(Quad quad) {
+        InstructionSelector.Operand first = null;
+        InstructionSelector.Operand second = null;
+        InstructionSelector.Operand output = null;
+        InstructionSelector.Selection selection = null;
+        switch (quad.getOp()) {
+            case ASSIGN:
+                first = getSelectorOperand(quad.getOperand1());
+                output = getSelectorOperand(quad.getOutput());
+                if (first == null || output == null) {
+                    return false;
+                }
+                selection = instructionSelector.selectMove(first, output);
+                break;
+            case ADD:
+            case SUB:
+            case MULT:
+                /* Multiplications by constants are lowered by the arithmetic simplification */
+                if (quad.getOp() == Quad.Op.MULT && arithmeticSimplification
+                    && (isIntConstant(quad.getOperand1()) || isIntConstant(quad.getOperand2()))) {
+                    return false;
+                }
+                first = getSelectorOperand(quad.getOperand1());
+                second = getSelectorOperand(quad.getOperand2());
+                output = getSelectorOperand(quad.getOutput());
+                if (first == null || second == null || output == null) {
+                    return false;
+                }
+                selection = instructionSelector.selectOperation(quad.getOp(), first, second, output);
+                break;
+            case EQUAL:
+            case NOT_EQUAL:
+            case GREATER:
+            case LESS:
+            case GREATER_EQUAL:
+            case LESS_EQUAL:
+                first = getSelectorOperand(quad.getOperand1());
+                second = getSelectorOperand(quad.getOperand2());
+                if (first == null || second == null) {
+                    return false;
+                }
+                selection = instructionSelector.selectComparison(first, second);
+                break;
+            default:
+                return false;
+        }
+        if (selection.isSwapped()) {
+            InstructionSelector.Operand swapped = first;
+            first = second;
+            second = swapped;
+        }
+        String destination = (output != null && output.has(InstructionSelector.REGISTER)
+                              ? output.get(InstructionSelector.REGISTER) : "eax");
+        switch (selection.getRule()) {
+            case MOVE:
+                if (output.has(InstructionSelector.REGISTER)) {
+                    if (!first.sameAs(output)) {
+                        loadSelectorOperand(destination, first);
+                    }
+                } else {
+                    emit("mov " + output.get(InstructionSelector.MEMORY) + ", " + first.getSource());
+                }
+                break;
+            case MOVE_THROUGH:
+                loadSelectorOperand("eax", first);
+                store("eax", quad.getOutput());
+                break;
+            case OPERATE:
+                loadSelectorOperand("eax", first);
+                emitOperation(convertOpToCommand(quad.getOp()), "eax", getSelectorSource("edx", second));
+                store("eax", quad.getOutput());
+                break;
+            case OPERATE_IN_PLACE:
+                if (!first.sameAs(output)) {
+                    loadSelectorOperand(destination, first);
+                }
+                emitOperation(convertOpToCommand(quad.getOp()), destination, getSelectorSource("edx", second));
+                break;
+            case OPERATE_MEMORY:
+                emit(convertOpToCommand(quad.getOp()) + " " + output.get(InstructionSelector.MEMORY) + ", " +
+                     second.getSource());
+                break;
+            case LEA:
+                long displacement = 0;
+                String address = "[" + target.getPointerRegister(first.get(InstructionSelector.REGISTER));
+                if (second.has(InstructionSelector.REGISTER)) {
+                    address += "+" + target.getPointerRegister(second.get(InstructionSelector.REGISTER));
+                } else {
+                    displacement = Long.parseLong(second.get(InstructionSelector.IMMEDIATE));
+                }
+                if (quad.getOp() == Quad.Op.SUB) {
+                    displacement = -displacement;
+                }
+                if (displacement != 0) {
+                    address += (displacement < 0 ? "" : "+") + displacement;
+                }
+                emit("lea " + destination + ", " + address + "]");
+                if (!output.has(InstructionSelector.REGISTER)) {
+                    store("eax", quad.getOutput());
+                }
+                break;
+            case IMUL_IMMEDIATE:
+                emit("imul " + destination + ", " + first.getSource() + ", " +
+                     second.get(InstructionSelector.IMMEDIATE));
+                if (!output.has(InstructionSelector.REGISTER)) {
+                    store("eax", quad.getOutput());
+                }
+                break;
+            case COMPARE:
+                emit("cmp " + first.getSource() + ", " + second.getSource());
+                emit(convertOpToCommand(selection.isSwapped() ? reverseComparison(quad.getOp()) : quad.getOp()) +
+                     " L" + quad.getOutput());
+                break;
+            case COMPARE_THROUGH:
+                loadSelectorOperand("eax", first);
+                emit("cmp eax, " + getSelectorSource("edx", second));
+                emit(convertOpToCommand(selection.isSwapped() ? reverseComparison(quad.getOp()) : quad.getOp()) +
+                     " L" + quad.getOutput());
+                break;
+            default:
+                System.err.println("Internal error: wrong rule " + selection.getRule() + " in FinalCode");
+                System.exit(1);
+        }
+        return true;
+    }
+
+    /* Leaf of the instruction selector for an int operand, or null if it is of another
+     * type or a pointer, which the templates handle. Scalars of the current function are
+     * in a register or in its frame, while a reference argument takes loading its
+     * pointer first and a variable of an enclosing function following access links. */
+    private InstructionSelector.Operand getSelectorOperand(QuadOperand quadOperand) {
+        String register = getOperandRegister(quadOperand);
+        String memory = null;
+        switch (quadOperand.getType()) {
+            case INT:
+                return new InstructionSelector.Operand(quadOperand, quadOperand.getIdentifier(), null, null, 1, 0);
+            case TEMPVAR:
+                int tempVar = quadOperand.getTempVar();
+                if (ir.getArrayInfo().containsKey(tempVar) || ir.getTempVars().get(tempVar) != Type.INT) {
+                    return null;
+                }
+                if (register == null) {
+                    memory = getTypeSizeName(Type.INT) + " " +
+                             address(target.getFramePointer(), frameLayout.getTempVarInfo(tempVar).getOffset());
+                }
+                return new InstructionSelector.Operand(quadOperand, null, register, memory, 1, 1);
+            case IDENTIFIER:
+                String identifier = quadOperand.getIdentifier();
+                SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(identifier);
+                Symbol symbol = symbolEntry.getSymbol();
+                if (symbol.getType() != Type.INT || !(symbol instanceof Variable)
+                    || ((Variable)symbol).getDimensions().size() > 0
+                    || (symbol instanceof Argument && ((Argument)symbol).hasNoFirstDimension())) {
+                    return null;
+                }
+                if (symbolEntry.getScope() != symbolTable.getCurScope()) {
+                    return new InstructionSelector.Operand(quadOperand, null, null, null, 3, 3);
+                }
+                if (register == null && registerAllocator != null
+                    && registerAllocator.getPointerRegister(identifier) != null) {
+                    memory = getTypeSizeName(Type.INT) + " [" +
+                             target.getPointerRegister(registerAllocator.getPointerRegister(identifier)) + "]";
+                } else if (register == null && !frameLayout.getSymbolInfo(identifier).isReference()) {
+                    memory = getTypeSizeName(Type.INT) + " " +
+                             address(target.getFramePointer(), frameLayout.getSymbolInfo(identifier).getOffset());
+                }
+                return new InstructionSelector.Operand(quadOperand, null, register, memory, 2, 2);
+            case ADDRESS:
+                tempVar = quadOperand.getTempVar();
+                if (getArrayType(tempVar) != Type.INT) {
+                    return null;
+                }
+                if (instructionSelector.getFoldedArray(tempVar) != null) {
+                    String element = getFoldedElement(null, tempVar);
+                    memory = (element == null ? null : getTypeSizeName(Type.INT) + " " + element);
+                } else {
+                    String pointerRegister = getOperandRegister(new QuadOperand(QuadOperand.Type.TEMPVAR, tempVar));
+                    if (pointerRegister != null) {
+                        memory = getTypeSizeName(Type.INT) + " [" + target.getPointerRegister(pointerRegister) + "]";
+                    }
+                }
+                return new InstructionSelector.Operand(quadOperand, null, null, memory, 2, 2);
+            case RETCALLED:
+                return new InstructionSelector.Operand(quadOperand, null, null, null, 1, 1);
+            default:
+                return null;
+        }
+    }
+
+    /* Loads an operand of the instruction selector into the given register */
+    private void loadSelectorOperand(String register, InstructionSelector.Operand operand) {
+        String source = operand.getSource();
+        if (source == null) {
+            load(register, operand.getQuadOperand());
+        } else if (!source.equals(register)) {
+            emit("mov " + register + ", " + source);
+        }
+    }
+
+    /* Operand of the instruction selector as the source of an instruction, loaded into
+     * the given register if it cannot be used as it is */
+    private String getSelectorSource(String register, InstructionSelector.Operand operand) {
+        if (operand.getSource() != null) {
+            return operand.getSource();
+        }
+        load(register, operand.getQuadOperand());
+        return register;
+    }
+
+    /* op d, s, with an immediate multiplier in the three operand form of imul */
+    private void emitOperation(String command, String destination, String source) {
+        if (command.equals("imul") && source.matches("-?[0-9]+")) {
+            emit("imul " + destination + ", " + destination + ", " + source);
+        } else {
+            emit(command + " " + destination + ", " + source);
+        }
+    }
+
+    /* Restore the display entry and the saved registers, and pop the frame,
+     * using the given register as scratch */
+    private void emitEpilogue(String register) {
+        if (displayScopes.contains(symbolTable.getCurScope())) {
+            emit("mov " + target.getPointerRegister(register) + ", " + target.getPointerSizeName() +
+                 " " + address(target.getFramePointer(), -wordSize) + "\n" +
+                 "mov " + getDisplayEntry(symbolTable.getCurScope()) + ", " +
+                 target.getPointerRegister(register));
+        }
+        if (registerAllocator != null) {
+            ArrayList<String> savedRegisters = registerAllocator.getUsedRegisters();
+            for (int i = savedRegisters.size() - 1 ; i >= 0 ; i--) {
+                emit("pop " + target.getPointerRegister(savedRegisters.get(i)));
+            }
+        }
+        if (!omitFramePointer) {
+            emit("mov " + target.getStackPointer() + ", " + target.getFramePointer() + "\n" +
+                 "pop " + target.getFramePointer());
+        } else if (leafFrameSize > 0) {
+            emit("add " + target.getStackPointer() + ", " + leafFrameSize);
+        }
+    }
+
+    private boolean isIntrinsic(String function) {
+        return inlineIntrinsics && intrinsics.contains(function);
+    }
+
+    /* Expand a call of an intrinsic with the parameters passed to it, leaving the
+     * result in eax, or al for chr. Only eax, ecx and edx are used, which no allocated
+     * value lives in, as a call would change them too. String loops keep their pointers
+     * in ecx and edx and are labeled after the CALL quad. */
+    private void emitIntrinsic(String function) {
+        ArrayList<QuadOperand> parameters = new ArrayList<QuadOperand>();
+        for (Quad quad : passParameters) {
+            parameters.add(0, quad.getOperand1());
+        }
+        passParameters.clear();
+        String label = curFunction + "_" + curQuad;
+        String ecx = target.getPointerRegister("ecx");
+        String edx = target.getPointerRegister("edx");
+        switch (function) {
+            case "_abs_-1":
+                load("eax", parameters.get(0));
+                emit("cdq\n" +
+                     "xor eax, edx\n" +
+                     "sub eax, edx");
+                break;
+            case "_ord_-1":
+                if (load("eax", parameters.get(0))) {
+                    emit("movsx eax, al");
+                }
+                break;
+            case "_chr_-1":
+                load("eax", parameters.get(0));
+                break;
+            case "_strlen_-1":
+                loadAddr("ecx", parameters.get(0));
+                emit("lea " + target.getPointerRegister("eax") + ", [" + ecx + "-1]\n" +
+                     label + "_len:\n" +
+                     "add " + target.getPointerRegister("eax") + ", 1\n" +
+                     "cmp BYTE PTR [" + target.getPointerRegister("eax") + "], 0\n" +
+                     "jne " + label + "_len\n" +
+                     "sub " + target.getPointerRegister("eax") + ", " + ecx);
+                break;
+            case "_strcmp_-1":
+                loadAddr("ecx", parameters.get(0));
+                loadAddr("edx", parameters.get(1));
+                emit(label + "_cmp:\n" +
+                     "movzx eax, BYTE PTR [" + ecx + "]\n" +
+                     "cmp al, BYTE PTR [" + edx + "]\n" +
+                     "jne " + label + "_diff\n" +
+                     "add " + ecx + ", 1\n" +
+                     "add " + edx + ", 1\n" +
+                     "test al, al\n" +
+                     "jne " + label + "_cmp\n" +
+                     "jmp " + label + "_done\n" +
+                     label + "_diff:\n" +
+                     "movzx ecx, BYTE PTR [" + edx + "]\n" +
+                     "sub eax, ecx\n" +
+                     label + "_done:");
+                break;
+            case "_strcat_-1":
+            case "_strcpy_-1":
+                loadAddr("ecx", parameters.get(0));
+                if (function.equals("_strcat_-1")) {
+                    emit("sub " + ecx + ", 1\n" +
+                         label + "_scan:\n" +
+                         "add " + ecx + ", 1\n" +
+                         "cmp BYTE PTR [" + ecx + "], 0\n" +
+                         "jne " + label + "_scan");
+                }
+                loadAddr("edx", parameters.get(1));
+                emit(label + "_cpy:\n" +
+                     "mov al, BYTE PTR [" + edx + "]\n" +
+                     "mov BYTE PTR [" + ecx + "], al\n" +
+                     "add " + ecx + ", 1\n" +
+                     "add " + edx + ", 1\n" +
+                     "test al, al\n" +
+                     "jne " + label + "_cpy");
+                break;
+            default:
+                System.err.println("Internal error: no intrinsic for " + function + " in FinalCode");
+                System.exit(1);
+        }
+    }
+
+    /* Iterations of a vectorized loop in whole vectors, before entering it, which leave
+     * the rest to the loop. The counter is kept in eax and the last value it may start
+     * a vector iteration with in edx. Every access loads the array address into ecx.
+     * Values are built in xmm0 to xmm5, and the sums of reduced vars in the registers
+     * after them, which are added up across lanes after the last iteration. */
+    private void emitVectorLoop(LoopVectorizer.VectorLoop vectorLoop) {
+        String label = curFunction + "_" + curQuad + "_vector";
+        String ecx = target.getPointerRegister("ecx");
+        String edx = target.getPointerRegister("edx");
+        int typeSize = FrameLayout.getTypeSize(vectorLoop.type);
+        int lanes = vectorLoop.getLanes();
+
+        /* Arrays that may be the same are only allowed to overlap at the same element */
+        int check = 0;
+        for (LoopVectorizer.Access[] accesses : vectorLoop.aliasChecks) {
+            long distance = ((long)accesses[0].offset - accesses[1].offset) * typeSize + LoopVectorizer.VECTOR_SIZE - 1;
+            loadAddr("ecx", new QuadOperand(QuadOperand.Type.IDENTIFIER, accesses[0].array));
+            loadAddr("edx", new QuadOperand(QuadOperand.Type.IDENTIFIER, accesses[1].array));
+            emit("sub " + ecx + ", " + edx + "\n" +
+                 "add " + ecx + ", " + distance + "\n" +
+                 "cmp " + ecx + ", " + (LoopVectorizer.VECTOR_SIZE - 1) + "\n" +
+                 "je " + label + "_check" + check + "\n" +
+                 "cmp " + ecx + ", " + (2 * LoopVectorizer.VECTOR_SIZE - 2) + "\n" +
+                 "jbe " + label + "_skip\n" +
+                 label + "_check" + check + ":");
+            check++;
+        }
+
+        load("eax", vectorLoop.counter);
+        load("edx", vectorLoop.bound);
+        if (target == Target.X86_64) {
+            emit("movsxd rax, eax");
+        }
+        emit("sub edx, " + (vectorLoop.inclusive ? lanes - 1 : lanes) + "\n" +
+             "jo " + label + "_skip\n" +
+             "cmp eax, edx\n" +
+             "jg " + label + "_skip");
+        int reductions = 0;
+        for (LoopVectorizer.Statement statement : vectorLoop.statements) {
+            if (statement.reduction != null) {
+                String sum = "xmm" + (LoopVectorizer.VALUE_REGISTERS + reductions++);
+                emit("pxor " + sum + ", " + sum);
+            }
+        }
+        emit(label + ":");
+        reductions = 0;
+        for (LoopVectorizer.Statement statement : vectorLoop.statements) {
+            emitVectorValue(statement.value, 0, typeSize);
+            if (statement.store != null) {
+                loadAddr("ecx", new QuadOperand(QuadOperand.Type.IDENTIFIER, statement.store.array));
+                emit("movdqu XMMWORD PTR " + vectorElement(statement.store, typeSize) + ", xmm0");
+            } else {
+                emit("paddd xmm" + (LoopVectorizer.VALUE_REGISTERS + reductions++) + ", xmm0");
+            }
+        }
+        emit("add " + target.getPointerRegister("eax") + ", " + lanes + "\n" +
+             "cmp eax, edx\n" +
+             "jle " + label);
+        store("eax", vectorLoop.counter);
+        reductions = 0;
+        for (LoopVectorizer.Statement statement : vectorLoop.statements) {
+            if (statement.reduction == null) {
+                continue;
+            }
+            String sum = "xmm" + (LoopVectorizer.VALUE_REGISTERS + reductions++);
+            emit("pshufd xmm0, " + sum + ", 0x4e\n" +
+                 "paddd " + sum + ", xmm0\n" +
+                 "pshufd xmm0, " + sum + ", 0xb1\n" +
+                 "paddd " + sum + ", xmm0\n" +
+                 "movd edx, " + sum);
+            load("eax", statement.reduction);
+            emit(convertOpToCommand(statement.op) + " eax, edx");
+            store("eax", statement.reduction);
+        }
+        emit(label + "_skip:");
+    }
+
+    /* Evaluate a vector value into the given xmm register, using the ones after it */
+    private void emitVectorValue(LoopVectorizer.Expression value, int register, int typeSize) {
+        String xmm = "xmm" + register;
+        String suffix = (typeSize == 1 ? "b" : "d");
+        switch (value.kind) {
+            case LOAD:
+                loadAddr("ecx", new QuadOperand(QuadOperand.Type.IDENTIFIER, value.access.array));
+                emit("movdqu " + xmm + ", XMMWORD PTR " + vectorElement(value.access, typeSize));
+                break;
+            case INVARIANT:
+                if (load("ecx", value.operand)) {
+                    emit("movzx ecx, cl\n" +
+                         "imul ecx, ecx, 0x01010101");
+                }
+                emit("movd " + xmm + ", ecx\n" +
+                     "pshufd " + xmm + ", " + xmm + ", 0");
+                break;
+            case ADD:
+            case SUB:
+                emitVectorValue(value.left, register, typeSize);
+                emitVectorValue(value.right, register + 1, typeSize);
+                emit((value.kind == LoopVectorizer.Expression.Kind.ADD ? "padd" : "psub") + suffix + " " +
+                     xmm + ", xmm" + (register + 1));
+                break;
+            case SHIFT:
+                emitVectorValue(value.left, register, typeSize);
+                emit("psll" + suffix + " " + xmm + ", " + value.value);
+                break;
+            default:
+                System.err.println("Internal error: wrong vector value " + value.kind + " in FinalCode");
+                System.exit(1);
+        }
+    }
+
+    /* Address of the elements of a vector access, from the array address in ecx and the counter in eax */
+    private String vectorElement(LoopVectorizer.Access access, int typeSize) {
+        long offset = (long)access.offset * typeSize;
+        return "[" + target.getPointerRegister("ecx") + "+" + target.getPointerRegister("eax") + "*" + typeSize +
+               (offset == 0 ? "" : (offset < 0 ? "" : "+") + offset) + "]";
+    }
+
+    /* Whether the current function makes no calls other than intrinsics. Its nested
+     * functions then never run while it does, so none of them reads its frame, and the
+     * stack pointer stays put between its prologue and epilogue. */
+    private boolean isLeaf() {
+        ArrayList<Quad> quads = ir.getQuads();
+        for (int i = curQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            if (quad.getOp() == Quad.Op.CALL && !isIntrinsic(quad.getOutput().getIdentifier())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Whether the current function reaches a variable of an enclosing function other
+     * than the ones it takes as extra arguments */
+    private boolean followsAccessLink(long curScope) {
+        ArrayList<Quad> quads = ir.getQuads();
+        for (int i = curQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (QuadOperand operand : operands) {
+                if (operand == null || operand.getType() != QuadOperand.Type.IDENTIFIER
+                    || quad.getOp() == Quad.Op.UNIT || quad.getOp() == Quad.Op.ENDU
+                    || quad.getOp() == Quad.Op.CALL) {
+                    continue;
+                }
+                SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(operand.getIdentifier());
+                if (symbolEntry.getScope() != curScope
+                    && (curFunctionInfo == null || curFunctionInfo.getLiftedArgument(symbolEntry.getSymbol()) == null)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /* Whether the call at the current quad may reuse the frame of the current function:
+     * on X86_64, with all arguments in registers, when the called function does not
+     * need the frame through its access link or a reference argument, and nothing but
+     * returning its result follows */
+    private boolean isSiblingTailCall(Function function, long calledScope,
+                                      LambdaLifter.FunctionInfo calledInfo) {
+        long curScope = symbolTable.getCurScope();
+        int numArguments = function.getArguments().size() +
+                           (calledInfo == null ? 0 : calledInfo.getLiftedVars().size());
+        if (!tailCalls || target != Target.X86_64 || calledScope > curScope
+            || numArguments > target.getArgumentRegisters().length) {
+            return false;
+        }
+        for (Quad quad : passParameters) {
+            QuadOperand operand = quad.getOperand1();
+            if (quad.getOperand2().getType() != QuadOperand.Type.R
+                || operand.getType() == QuadOperand.Type.STRING) {
+                continue;
+            }
+            if (operand.getType() != QuadOperand.Type.IDENTIFIER) {
+                return false;
+            }
+            SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(operand.getIdentifier());
+            Symbol symbol = symbolEntry.getSymbol();
+            if (symbolEntry.getScope() == curScope
+                && !(symbol instanceof Argument && ((Argument)symbol).isReference())) {
+                return false;
+            }
+        }
+        return TailCallEliminator.isFollowedByReturn(ir.getQuads(), curQuad,
+                                                     (function.getType() == Type.NOTHING ? null
+                                                                                         : curReturnTempVar));
     }
 
     private void push(String register, boolean charInvolved) {
         if (charInvolved) {
-            writer.println("movzx " + register + ", al");
+            emit("movzx " + register + ", al");
         }
-        writer.println("push " + register);
+        emit("push " + target.getPointerRegister(register));
     }
 
+    /* On X86_64 the access link of the called function is passed in r10 */
     private void updateAR(long oldScope, long newScope) {
+        if (target == Target.X86_64) {
+            if (oldScope < newScope) {
+                emit("mov r10, rbp");
+            } else {
+                getAR("r10d", oldScope, newScope - 1);
+            }
+            return;
+        }
         if (oldScope < newScope) {
-            writer.println("push ebp");
+            emit("push ebp");
         } else if (oldScope == newScope) {
-            writer.println("push DWORD PTR [ebp+" + 2 * wordSize + "]");
+            emit("push DWORD PTR [ebp+" + 2 * wordSize + "]");
         } else {
             long scopes = oldScope - newScope;
-            writer.println("mov esi, DWORD PTR [ebp+" + 2 * wordSize + "]");
+            emit("mov ecx, DWORD PTR [ebp+" + 2 * wordSize + "]");
             scopes--;
             while (scopes-- > 0) {
-                writer.println("mov esi, DWORD PTR [esi+" + 2 * wordSize + "]");
+                emit("mov ecx, DWORD PTR [ecx+" + 2 * wordSize + "]");
             }
-            writer.println("push DWORD PTR [esi+" + 2 * wordSize + "]");
+            emit("push DWORD PTR [ecx+" + 2 * wordSize + "]");
         }
     }
 
-    private void getAR(long innerScope, long outerScope) {
+    /* Follow the access links into the given register */
+    private void getAR(String register, long innerScope, long outerScope) {
         long scopes = innerScope - outerScope;
-        writer.println("mov esi, DWORD PTR [ebp+" + 2 * wordSize + "]");
+        String pointer = target.getPointerRegister(register);
+        if (display) {
+            displayScopes.add(outerScope);
+            displaySize = Math.max(displaySize, (outerScope + 1) * wordSize);
+            emit("mov " + pointer + ", " + getDisplayEntry(outerScope));
+            return;
+        }
+        emit("mov " + pointer + ", " + target.getPointerSizeName() + " " +
+             address(target.getFramePointer(), target.getAccessLinkOffset()));
         scopes--;
         while (scopes-- > 0) {
-            writer.println("mov esi, DWORD PTR [esi+" + 2 * wordSize + "]");
+            emit("mov " + pointer + ", " + target.getPointerSizeName() + " " +
+                 address(pointer, target.getAccessLinkOffset()));
         }
     }
 
-    /* Register is changed to 'al' if char datatype is involved */
+    /* Arguments passed in registers and the access link are stored in the frame,
+     * so that they are addressed like the ones passed on the stack */
+    private void saveArgumentRegisters(ArrayDeque<Argument> arguments, boolean accessLink) {
+        if (accessLink) {
+            emit("mov " + target.getPointerSizeName() + " " +
+                 address(target.getFramePointer(), target.getAccessLinkOffset()) + ", r10");
+        }
+        String[] argumentRegisters = target.getArgumentRegisters();
+        int i = 0;
+        for (Argument argument : arguments) {
+            if (i == argumentRegisters.length) {
+                break;
+            }
+            long offset = frameLayout.getSymbolInfo(argument.getToken().getText()).getOffset();
+            emit("mov " + target.getPointerSizeName() + " " +
+                 address(target.getFramePointer(), offset) + ", " +
+                 target.getPointerRegister(argumentRegisters[i++]));
+        }
+    }
+
+    /* Register is changed to its low byte if char datatype is involved */
     private boolean load(String register, QuadOperand quadOperand) {
         boolean charInvolved = false;
         switch (quadOperand.getType()) {
             case INT:
-                writer.println("mov " + register + ", " + Integer.parseInt(quadOperand.getIdentifier()));
+                emit("mov " + register + ", " + Integer.parseInt(quadOperand.getIdentifier()));
                 break;
             case CHAR:
                 charInvolved = true;
                 String character = handleSpecialCharacter(quadOperand.getIdentifier());
-                register = "al";
-                writer.println("mov " + register + ", " + character);
+                emit("mov " + target.getByteRegister(register) + ", " + character);
                 break;
             case TEMPVAR:
                 int tempVar = quadOperand.getTempVar();
-                SymbolInfo symbolInfo = getTempVarStackInfo(tempVar);
+                String tempVarRegister = getOperandRegister(quadOperand);
+                if (tempVarRegister != null) {
+                    charInvolved = (ir.getTempVars().get(tempVar) == Type.CHAR);
+                    if (ir.getArrayInfo().containsKey(tempVar)) {
+                        emit("mov " + target.getPointerRegister(register) + ", " +
+                             target.getPointerRegister(tempVarRegister));
+                    } else {
+                        emit("mov " + register + ", " + tempVarRegister);
+                    }
+                    break;
+                }
+                FrameLayout.SymbolInfo symbolInfo = frameLayout.getTempVarInfo(tempVar);
                 long offset = symbolInfo.getOffset();
                 Type tempVarType = symbolInfo.getType();
+                if (symbolInfo.isReference()) {
+                    emit("mov " + target.getPointerRegister(register) + ", " +
+                         target.getPointerSizeName() + " " +
+                         address(target.getFramePointer(), offset));
+                    break;
+                }
                 if (tempVarType == Type.CHAR) {
                     charInvolved = true;
-                    register = "al";
+                    register = target.getByteRegister(register);
                 }
-                writer.println("mov " + register + ", " + getTypeSizeName(tempVarType) +
-                              " [ebp-" + offset + "]");
+                emit("mov " + register + ", " + getTypeSizeName(tempVarType) +
+                    " " + address(target.getFramePointer(), offset));
                 break;
             case IDENTIFIER:
                 charInvolved = handleIdentifier("LOAD", register, quadOperand.getIdentifier());
                 break;
             case ADDRESS:
                 tempVar = quadOperand.getTempVar();
-                ArrayInfo arrayInfo = ir.getArrayInfo().get(tempVar);
-                if (arrayInfo == null) {
-                    System.err.println("Internal error: tempVar " + tempVar +
-                                       " not found in arrayInfo map");
-                    System.exit(1);
-                }
-                tempVarType = arrayInfo.getArrayType();
+                tempVarType = getArrayType(tempVar);
+                String element = getElement(register, tempVar);
                 if (tempVarType == Type.CHAR) {
                     charInvolved = true;
-                    register = "al";
+                    register = target.getByteRegister(register);
                 }
-                load("edi", new QuadOperand(QuadOperand.Type.TEMPVAR, tempVar));
-                writer.println("mov " + register + ", " + getTypeSizeName(tempVarType) +
-                               " [edi]");
+                emit("mov " + register + ", " + getTypeSizeName(tempVarType) + " " + element);
                 break;
             default:
                 System.err.println("Internal error: wrong quadOperand Type " +
@@ -305,19 +1230,36 @@ public class FinalCode {
     private void loadAddr(String register, QuadOperand quadOperand) {
         switch (quadOperand.getType()) {
             case STRING:
-                writer.println("mov " + register + ", OFFSET FLAT:string_literal_" +
-                               stringLiterals.size());
+                if (target == Target.X86) {
+                    emit("mov " + register + ", OFFSET FLAT:string_literal_" +
+                         stringLiterals.size());
+                } else {
+                    emit("lea " + target.getPointerRegister(register) +
+                         ", [rip+string_literal_" + stringLiterals.size() + "]");
+                }
                 stringLiterals.add(quadOperand.getIdentifier());
                 break;
             case TEMPVAR:
                 int tempVar = quadOperand.getTempVar();
-                long offset = getTempVarStackInfo(tempVar).getOffset();
-                writer.println("lea " + register + ", DWORD PTR [ebp-" + offset + "]");
+                if (getOperandRegister(quadOperand) != null) {
+                    System.err.println("Internal error: tempVar " + tempVar +
+                                       " lives in a register and has no address");
+                    System.exit(1);
+                }
+                long offset = frameLayout.getTempVarInfo(tempVar).getOffset();
+                emit("lea " + target.getPointerRegister(register) + ", " +
+                     target.getPointerSizeName() + " " + address(target.getFramePointer(), offset));
                 break;
             case IDENTIFIER:
                 handleIdentifier("LOAD_ADDR", register, quadOperand.getIdentifier());
                 break;
             case ADDRESS:
+                if (instructionSelector != null
+                    && instructionSelector.getFoldedArray(quadOperand.getTempVar()) != null) {
+                    emit("lea " + target.getPointerRegister(register) + ", " +
+                         getElement(register, quadOperand.getTempVar()));
+                    break;
+                }
                 load(register, new QuadOperand(QuadOperand.Type.TEMPVAR, quadOperand.getTempVar()));
                 break;
             default:
@@ -327,41 +1269,51 @@ public class FinalCode {
         }
     }
 
-    /* Register is changed to 'al' if char datatype is involved */
+    /* Register is changed to its low byte if char datatype is involved.
+     * Register ecx may be used to hold the destination address. */
     private void store(String register, QuadOperand quadOperand) {
         switch (quadOperand.getType()) {
             case TEMPVAR:
                 int tempVar = quadOperand.getTempVar();
-                SymbolInfo symbolInfo = getTempVarStackInfo(tempVar);
+                String tempVarRegister = getOperandRegister(quadOperand);
+                if (tempVarRegister != null) {
+                    if (ir.getArrayInfo().containsKey(tempVar)) {
+                        emit("mov " + target.getPointerRegister(tempVarRegister) + ", " +
+                             target.getPointerRegister(register));
+                    } else {
+                        storeToRegister(register, tempVarRegister, ir.getTempVars().get(tempVar));
+                    }
+                    break;
+                }
+                FrameLayout.SymbolInfo symbolInfo = frameLayout.getTempVarInfo(tempVar);
                 long offset = symbolInfo.getOffset();
                 Type tempVarType = symbolInfo.getType();
+                if (symbolInfo.isReference()) {
+                    emit("mov " + target.getPointerSizeName() + " " +
+                         address(target.getFramePointer(), offset) + ", " +
+                         target.getPointerRegister(register));
+                    break;
+                }
                 if (tempVarType == Type.CHAR) {
-                    register = "al";
+                    register = target.getByteRegister(register);
                 }
-                writer.println("mov " + getTypeSizeName(tempVarType) +
-                              " [ebp-" + offset + "], " + register);
+                emit("mov " + getTypeSizeName(tempVarType) +
+                    " " + address(target.getFramePointer(), offset) + ", " + register);
                 break;
             case IDENTIFIER:
                 handleIdentifier("STORE", register, quadOperand.getIdentifier());
                 break;
             case ADDRESS:
                 tempVar = quadOperand.getTempVar();
-                ArrayInfo arrayInfo = ir.getArrayInfo().get(tempVar);
-                if (arrayInfo == null) {
-                    System.err.println("Internal error: tempVar " + tempVar +
-                                       " not found in arrayInfo map");
-                    System.exit(1);
-                }
-               tempVarType = arrayInfo.getArrayType();
+                tempVarType = getArrayType(tempVar);
+                String element = getElement("ecx", tempVar);
                 if (tempVarType == Type.CHAR) {
-                    register = "al";
+                    register = target.getByteRegister(register);
                 }
-                load("edi", new QuadOperand(QuadOperand.Type.TEMPVAR, tempVar));
-                writer.println("mov " + getTypeSizeName(tempVarType) +
-                               " [edi], " + register);
+                emit("mov " + getTypeSizeName(tempVarType) + " " + element + ", " + register);
                 break;
             case RETCALLED:
-                writer.println("mov eax, " + register);
+                emit("mov eax, " + register);
                 break;
             default:
                 System.err.println("Internal error: wrong quadOperand Type " +
@@ -370,101 +1322,363 @@ public class FinalCode {
         }
     }
 
+    /* Chars are kept zero extended when they live in a register */
+    private void storeToRegister(String register, String destination, Type type) {
+        if (type == Type.CHAR) {
+            emit("movzx " + destination + ", " + target.getByteRegister(register));
+        } else {
+            emit("mov " + destination + ", " + register);
+        }
+    }
+
+    /* Memory operand, without its size, of the element an ADDRESS temp var points to.
+     * The given register may be used to load the pointer, or the base and index of
+     * an element whose ARRAY quad is folded into the access. */
+    private String getElement(String register, int tempVar) {
+        if (instructionSelector == null || instructionSelector.getFoldedArray(tempVar) == null) {
+            return "[" + loadPointer(register, tempVar) + "]";
+        }
+        return getFoldedElement(register, tempVar);
+    }
+
+    /* Address of the element a folded ARRAY quad computes, as base + index * size +
+     * displacement. A local array is based at the frame pointer and a reference array
+     * at the register holding its pointer, if any. The index is taken from its register
+     * on X86, where it needs no sign extension. Whatever is not in a register is loaded
+     * into the given one, and if that is null, returns null instead of emitting code.
+     * The selector only folds elements of arrays of other functions at a constant index,
+     * so that a single register is enough. */
+    private String getFoldedElement(String register, int tempVar) {
+        Quad arrayQuad = instructionSelector.getFoldedArray(tempVar);
+        QuadOperand array = arrayQuad.getOperand1();
+        QuadOperand index = arrayQuad.getOperand2();
+        int size = FrameLayout.getTypeSize(getArrayType(tempVar));
+        long displacement = 0;
+        String indexRegister = null;
+        boolean constantIndex = (index.getType() == QuadOperand.Type.INT);
+        if (constantIndex) {
+            displacement = Long.parseLong(index.getIdentifier()) * size;
+        } else if (target == Target.X86) {
+            indexRegister = getOperandRegister(index);
+        }
+        String base = null;
+        FrameLayout.SymbolInfo arrayInfo = null;
+        if (array.getType() == QuadOperand.Type.IDENTIFIER) {
+            SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(array.getIdentifier());
+            if (symbolEntry.getScope() == symbolTable.getCurScope()) {
+                arrayInfo = frameLayout.getSymbolInfo(array.getIdentifier());
+                if (!(symbolEntry.getSymbol() instanceof Argument)) {
+                    base = target.getFramePointer();
+                    displacement += arrayInfo.getOffset();
+                } else if (registerAllocator != null
+                           && registerAllocator.getPointerRegister(array.getIdentifier()) != null) {
+                    base = target.getPointerRegister(registerAllocator.getPointerRegister(array.getIdentifier()));
+                }
+            }
+        }
+        if (register == null) {
+            if (base == null || (!constantIndex && indexRegister == null)) {
+                return null;
+            }
+            return indexedAddress(base, indexRegister, size, displacement);
+        }
+        String pointer = target.getPointerRegister(register);
+        if (base != null && (constantIndex || indexRegister != null)) {
+            return indexedAddress(base, indexRegister, size, displacement);
+        }
+        if (base == null && (constantIndex || indexRegister != null)) {
+            loadAddr(register, array);
+            return indexedAddress(pointer, indexRegister, size, displacement);
+        }
+        load(register, index);
+        if (target == Target.X86_64) {
+            emit("movsxd " + pointer + ", " + register);
+        }
+        if (base != null) {
+            return indexedAddress(base, register, size, displacement);
+        }
+        if (arrayInfo == null) {
+            System.err.println("Internal error: element of " + array + " folded at a variable index");
+            System.exit(1);
+        }
+
+        /* Index scaled in place, plus the pointer in the frame of the reference argument */
+        if (size > 1) {
+            emit("sal " + pointer + ", " + Integer.numberOfTrailingZeros(size));
+        }
+        emit("add " + pointer + ", " + target.getPointerSizeName() + " " +
+             address(target.getFramePointer(), arrayInfo.getOffset()));
+        return indexedAddress(pointer, null, size, displacement);
+    }
+
+    /* Get the register holding the address stored in an ADDRESS temp var,
+     * loading it into the given register if the temp var is spilled */
+    private String loadPointer(String register, int tempVar) {
+        QuadOperand quadOperand = new QuadOperand(QuadOperand.Type.TEMPVAR, tempVar);
+        String tempVarRegister = getOperandRegister(quadOperand);
+        if (tempVarRegister != null) {
+            return target.getPointerRegister(tempVarRegister);
+        }
+        load(register, quadOperand);
+        return target.getPointerRegister(register);
+    }
+
+    private Type getArrayType(int tempVar) {
+        ArrayInfo arrayInfo = ir.getArrayInfo().get(tempVar);
+        if (arrayInfo == null) {
+            System.err.println("Internal error: tempVar " + tempVar +
+                               " not found in arrayInfo map");
+            System.exit(1);
+        }
+        return arrayInfo.getArrayType();
+    }
+
+    /* Register allocated to a temp var or a local variable of the current function, if any */
+    private String getOperandRegister(QuadOperand quadOperand) {
+        if (registerAllocator == null) {
+            return null;
+        }
+        switch (quadOperand.getType()) {
+            case TEMPVAR:
+                return registerAllocator.getTempVarRegister(quadOperand.getTempVar());
+            case IDENTIFIER:
+                return registerAllocator.getLocalVarRegister(quadOperand.getIdentifier());
+            default:
+                return null;
+        }
+    }
+
+    /* Scalar local variables of the current function that no nested function accesses,
+     * and that are not passed to lifted functions, as those are loaded at the CALL */
+    private HashSet<String> getRegisterCandidates(long scope) {
+        HashSet<String> candidates = new HashSet<String>();
+        for (Variable variable : symbolTable.getLocalVars(scope)) {
+            if (variable.getDimensions().size() == 0 && !nonLocalVars.contains(variable)) {
+                candidates.add(variable.getToken().getText());
+            }
+        }
+        if (lambdaLifter == null) {
+            return candidates;
+        }
+        ArrayList<Quad> quads = ir.getQuads();
+        for (int i = curQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            String calledFunction = (quad.getOp() == Quad.Op.CALL ? quad.getOutput().getIdentifier() : null);
+            if (calledFunction == null || Function.isStandardLibrary(calledFunction)
+                || calledFunction.equals(curFunction)) {
+                continue;
+            }
+            LambdaLifter.FunctionInfo calledInfo = lambdaLifter.getCallee(calledFunction);
+            for (Variable liftedVar : calledInfo.getLiftedVars()) {
+                candidates.remove(liftedVar.getToken().getText());
+            }
+        }
+        return candidates;
+    }
+
+    /* Arguments of the current function with the ones it takes by value from now on
+     * changed from reference arguments */
+    private ArrayDeque<Argument> promoteArguments(ArrayDeque<Argument> arguments) {
+        BitSet promoted = argumentPromoter.run(curFunction, curQuad);
+        ArrayDeque<Argument> result = new ArrayDeque<Argument>();
+        int position = 0;
+        for (Argument argument : arguments) {
+            if (promoted.get(position++)) {
+                argument = new Argument(argument.getToken(), argument.getType(), argument.getDimensions(),
+                                        false, false);
+            }
+            result.add(argument);
+        }
+        return result;
+    }
+
+    /* Reference arguments declared by the current function, whose address can be kept in
+     * a register as it never changes */
+    private HashSet<String> getPointerArguments(ArrayDeque<Argument> arguments, long scope) {
+        HashSet<String> pointerArguments = new HashSet<String>();
+        int declared = symbolTable.getArguments(scope).size();
+        for (Argument argument : arguments) {
+            if (declared-- == 0) {
+                break;
+            }
+            if (argument.isReference()) {
+                pointerArguments.add(argument.getToken().getText());
+            }
+        }
+        return pointerArguments;
+    }
+
+    /* PAR quads of the current function that pass by reference a parameter the called
+     * function takes by value */
+    private HashSet<Integer> getCopiedParameters() {
+        HashSet<Integer> copiedParameters = new HashSet<Integer>();
+        ArrayList<Integer> parameters = new ArrayList<Integer>();
+        ArrayList<Quad> quads = ir.getQuads();
+        for (int i = curQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            if (quad.getOp() == Quad.Op.PAR && (quad.getOperand2().getType() == QuadOperand.Type.V
+                                                || quad.getOperand2().getType() == QuadOperand.Type.R)) {
+                parameters.add(i);
+            } else if (quad.getOp() == Quad.Op.CALL) {
+                for (int argument = 0 ; argument < parameters.size() ; argument++) {
+                    if (argumentPromoter.isPromoted(quad.getOutput().getIdentifier(), argument)) {
+                        copiedParameters.add(parameters.get(argument));
+                    }
+                }
+                parameters.clear();
+            }
+        }
+        return copiedParameters;
+    }
+
+    /* Loads and address loads use the given register to follow access links or
+     * reference arguments, stores use ecx */
     private boolean handleIdentifier(String mode, String register, String identifier) {
         SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(identifier);
-        String basePointer = "ebp";
+        return handleSymbol(mode, register, identifier, symbolEntry.getSymbol(), symbolEntry.getScope());
+    }
+
+    /* Outer variables that the current function takes as extra arguments are read from its frame */
+    private boolean handleSymbol(String mode, String register, String identifier, Symbol symbol, long symbolScope) {
+        String basePointer = target.getFramePointer();
         boolean charInvolved = false;
-        ArrayDeque<Variable> variableList = null;
-        ArrayDeque<Argument> argumentList = null;
         long curScope = symbolTable.getCurScope();
-        long symbolScope = symbolEntry.getScope();
+        String pointer = (mode.equals("STORE") ? "ecx" : register);
+        if (argumentPromoter != null && curScope != symbolScope && symbol instanceof Argument) {
+            argumentPromoter.addNonLocalArgument(symbolScope, identifier);
+        }
+        if (curFunctionInfo != null && curFunctionInfo.getLiftedArgument(symbol) != null) {
+            symbol = curFunctionInfo.getLiftedArgument(symbol);
+            symbolScope = curScope;
+        }
         if (curScope != symbolScope) {
-            getAR(curScope, symbolScope);
-            basePointer = "esi";
+            if (symbol instanceof Variable && !(symbol instanceof Argument)) {
+                nonLocalVars.add((Variable)symbol);
+            } else if (symbol instanceof Argument && lambdaLifter != null && target == Target.X86) {
+                lambdaLifter.assumeLink(symbolScope);
+            }
+            getAR(pointer, curScope, symbolScope);
+            basePointer = target.getPointerRegister(pointer);
+        } else if (registerAllocator != null && registerAllocator.getLocalVarRegister(identifier) != null) {
+            String localVarRegister = registerAllocator.getLocalVarRegister(identifier);
+            switch (mode) {
+                case "LOAD":
+                    charInvolved = (symbol.getType() == Type.CHAR);
+                    emit("mov " + register + ", " + localVarRegister);
+                    break;
+                case "STORE":
+                    storeToRegister(register, localVarRegister, symbol.getType());
+                    break;
+                default:
+                    System.err.println("Internal error: local variable " + identifier +
+                                       " lives in a register and has no address");
+                    System.exit(1);
+            }
+            return charInvolved;
+        } else if (registerAllocator != null && registerAllocator.getPointerRegister(identifier) != null) {
+            String referencePointer = target.getPointerRegister(registerAllocator.getPointerRegister(identifier));
+            String valueRegister = register;
+            if (symbol.getType() == Type.CHAR) {
+                charInvolved = mode.equals("LOAD");
+                valueRegister = target.getByteRegister(register);
+            }
+            switch (mode) {
+                case "LOAD":
+                    emit("mov " + valueRegister + ", " + getTypeSizeName(symbol.getType()) +
+                         " [" + referencePointer + "]");
+                    break;
+                case "LOAD_ADDR":
+                    emit("mov " + target.getPointerRegister(register) + ", " + referencePointer);
+                    break;
+                case "STORE":
+                    emit("mov " + getTypeSizeName(symbol.getType()) +
+                         " [" + referencePointer + "], " + valueRegister);
+                    break;
+                default:
+                    System.err.println("Internal error: wrong mode at handleIdentifier");
+                    System.exit(1);
+            }
+            return charInvolved;
         }
-        Symbol symbol = symbolEntry.getSymbol();
         if (symbol instanceof Variable && !(symbol instanceof Argument)) {
-            variableList = symbolTable.getLocalVars(symbolScope);
-            SymbolInfo localVarInfo = getLocalVarInfo(variableList, identifier);
+            FrameLayout.SymbolInfo localVarInfo = getFrameLayout(symbolScope, identifier).getSymbolInfo(identifier);
             if (localVarInfo == null) {
                 System.err.println("Internal error: couldn't find local variable " + identifier +
                                    "in given list");
                 System.exit(1);
             }
+            String localVarAddress = address(basePointer, localVarInfo.getOffset());
             switch (mode) {
                 case "LOAD":
                     if (localVarInfo.getType() == Type.CHAR) {
                         charInvolved = true;
-                        register = "al";
+                        register = target.getByteRegister(register);
                     }
-                    writer.println("mov " + register + ", " +
-                                    getTypeSizeName(localVarInfo.getType()) +
-                                    " [" + basePointer + "-" + localVarInfo.getOffset() + "]");
+                    emit("mov " + register + ", " +
+                          getTypeSizeName(localVarInfo.getType()) + " " + localVarAddress);
                     break;
                 case "LOAD_ADDR":
-                    writer.println("lea " + register + ", DWORD PTR [" + basePointer +
-                                  "-" + localVarInfo.getOffset() + "]");
+                    emit("lea " + target.getPointerRegister(register) + ", " +
+                         target.getPointerSizeName() + " " + localVarAddress);
                     break;
                 case "STORE":
                     if (localVarInfo.getType() == Type.CHAR) {
-                        register = "al";
+                        register = target.getByteRegister(register);
                     }
-                    writer.println("mov " + getTypeSizeName(localVarInfo.getType()) +
-                                   " [" + basePointer + "-" + localVarInfo.getOffset() +
-                                   "], " + register);
+                    emit("mov " + getTypeSizeName(localVarInfo.getType()) +
+                         " " + localVarAddress + ", " + register);
                     break;
                 default:
                     System.err.println("Internal error: wrong mode at handleIdentifier");
                     System.exit(1);
             }
-        } else if (symbolEntry.getSymbol() instanceof Argument) {
-            argumentList = symbolTable.getArguments(symbolScope);
-            SymbolInfo argumentInfo = getArgumentInfo(argumentList, identifier);
+        } else if (symbol instanceof Argument) {
+            FrameLayout.SymbolInfo argumentInfo = getFrameLayout(symbolScope, identifier).getSymbolInfo(identifier);
             if (argumentInfo == null) {
                 System.err.println("Internal error: couldn't find argument " +
                                    "in given list");
                 System.exit(1);
             }
+            String argumentAddress = address(basePointer, argumentInfo.getOffset());
+            String referencePointer = target.getPointerRegister(pointer);
             switch (mode) {
                 case "LOAD":
+                    String valueRegister = register;
                     if (argumentInfo.getType() == Type.CHAR) {
                         charInvolved = true;
-                        register = "al";
+                        valueRegister = target.getByteRegister(register);
                     }
                     if (! argumentInfo.isReference()) {
-                        writer.println("mov " + register + ", " +
-                                        getTypeSizeName(argumentInfo.getType()) +
-                                        " [" + basePointer + "+" + (argumentInfo.getOffset() + 3 * wordSize) + "]");
+                        emit("mov " + valueRegister + ", " +
+                              getTypeSizeName(argumentInfo.getType()) + " " + argumentAddress);
                     } else {
-                        writer.println("mov edi, DWORD PTR [" + basePointer + "+" +
-                                       (argumentInfo.getOffset() + 3 * wordSize) + "]");
-                        writer.println("mov " + register + ", " + getTypeSizeName(argumentInfo.getType()) +
-                                       " [edi]");
+                        emit("mov " + referencePointer + ", " + target.getPointerSizeName() +
+                             " " + argumentAddress);
+                        emit("mov " + valueRegister + ", " + getTypeSizeName(argumentInfo.getType()) +
+                             " [" + referencePointer + "]");
                     }
                     break;
                 case "LOAD_ADDR":
                     if (! argumentInfo.isReference()) {
-                        writer.println("lea " + register + ", " +
-                                        getTypeSizeName(argumentInfo.getType()) +
-                                        " [" + basePointer + "+" + (argumentInfo.getOffset() + 3 * wordSize) + "]");
+                        emit("lea " + target.getPointerRegister(register) + ", " +
+                              getTypeSizeName(argumentInfo.getType()) + " " + argumentAddress);
                     } else {
-                        writer.println("mov " + register + ", DWORD PTR [" + basePointer +
-                                       "+" + (argumentInfo.getOffset() + 3 * wordSize) + "]");
+                        emit("mov " + target.getPointerRegister(register) + ", " +
+                             target.getPointerSizeName() + " " + argumentAddress);
                     }
                     break;
                 case "STORE":
                     if (argumentInfo.getType() == Type.CHAR) {
-                        register = "al";
+                        register = target.getByteRegister(register);
                     }
                     if (! argumentInfo.isReference()) {
-                        writer.println("mov " + getTypeSizeName(argumentInfo.getType()) +
-                                       " [" + basePointer + "+" + (argumentInfo.getOffset() + 3 * wordSize) +
-                                       "], " + register);
+                        emit("mov " + getTypeSizeName(argumentInfo.getType()) +
+                             " " + argumentAddress + ", " + register);
                     } else {
-                        writer.println("mov edi, DWORD PTR [" + basePointer + "+" +
-                                       (argumentInfo.getOffset() + 3 * wordSize) + "]");
-                        writer.println("mov " + getTypeSizeName(argumentInfo.getType()) +
-                                       " [edi], " + register);
+                        emit("mov " + referencePointer + ", " + target.getPointerSizeName() +
+                             " " + argumentAddress);
+                        emit("mov " + getTypeSizeName(argumentInfo.getType()) +
+                             " [" + referencePointer + "], " + register);
                     }
                     break;
                 default:
@@ -484,6 +1698,10 @@ public class FinalCode {
             writer.println("string_literal_" + it.previousIndex() + ": .asciz " +
                            stringLiteral);
         }
+        if (displaySize > 0) {
+            writer.println("\n.bss\n" +
+                           "display: .zero " + displaySize);
+        }
         writer.close();
     }
 
@@ -493,152 +1711,71 @@ public class FinalCode {
         file.delete();
     }
 
-    /* Used to get info about a particular symbol within a list of local vars,
-     * arguments or temp vars:
-     *  - its byte position in that list, taking into account the size of the other symbols
-     *  - its type
-     *  - its pass method, if an argument
-     */
-    private class SymbolInfo {
-        private long offset;
-        private Type type;
-        private boolean isReference;
-
-        public SymbolInfo(long offset, Type type) {
-            this.offset = offset;
-            this.type = type;
-            this.isReference = false;
-        }
-
-        public SymbolInfo(long offset, Type type, boolean isReference) {
-            this.offset = offset;
-            this.type = type;
-            this.isReference = isReference;
-        }
-
-        public long getOffset() {
-            return offset;
-        }
-
-        public Type getType() {
-            return type;
-        }
-
-        public boolean isReference() {
-            return isReference;
-        }
-    }
-
-    /* Temp var offset in current stack frame */
-    private SymbolInfo getTempVarStackInfo(int tempVar) {
-        ArrayList<Type> tempVars = ir.getTempVars();
-        long offset = getTotalLocalVarsOffset();
-        SymbolInfo symbolInfo = getTempVarInfo(tempVars, tempVar, offset);
-        return new SymbolInfo(symbolInfo.getOffset(), symbolInfo.getType());
-    }
-
-    private SymbolInfo getLocalVarInfo(ArrayDeque<Variable> variables, String identifier) {
-        long offset = 0;
-        for (Iterator<Variable> it = variables.iterator() ; it.hasNext() ; ) {
-            Variable variable = it.next();
-            if (variable.getType() == Type.INT && (offset > 0 && offset % wordSize != 0)) {
-                offset = nextWordAlignedByte(offset, wordSize);
-            }
-            offset += getLocalVarSize(variable);
-            if (variable.getToken().getText().equals(identifier)) {
-                return new SymbolInfo(offset, variable.getType());
-            }
-        }
-        return null;
-    }
-
-    /* Start from a given offset, representing the local variables size on stack frame */
-    private SymbolInfo getTempVarInfo(ArrayList<Type> tempVars, int tempVar, long offset) {
-        if (tempVar < curTempVar) {
-            System.err.println("Internal error: tempVar " + tempVar +
-                               " is less than curTempVar " + curTempVar + " in getTempVarInfo");
-            System.exit(1);
-        }
-        for (ListIterator<Type> i = tempVars.listIterator(curTempVar) ; i.hasNext() ; ) {
-            Type tempVarType = i.next();
-            if (tempVarType == Type.INT && (offset > 0 && offset % wordSize != 0)) {
-                offset = nextWordAlignedByte(offset, wordSize) + wordSize;
-            }
-            offset += getTypeSize(tempVarType);
-            if (i.previousIndex() == tempVar) {
-                return new SymbolInfo(offset, tempVarType);
+    /* Temp vars that the quads of the current function refer to. Passes over the quads
+     * may have dropped every use of others, which then need no stack slot. */
+    private Set<Integer> getUsedTempVars() {
+        HashSet<Integer> usedTempVars = new HashSet<Integer>();
+        ArrayList<Quad> quads = ir.getQuads();
+        for (int i = curQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (QuadOperand operand : operands) {
+                if (operand != null && (operand.getType() == QuadOperand.Type.TEMPVAR
+                                        || operand.getType() == QuadOperand.Type.ADDRESS)
+                    && (instructionSelector == null || instructionSelector.getFoldedArray(operand.getTempVar()) == null)) {
+                    usedTempVars.add(operand.getTempVar());
+                }
             }
         }
-        System.err.println("Internal error: tempVar " + tempVar + " does not exist in " +
-                           "tempVars in getTempVarInfo");
-        System.exit(1);
-        return null;
+        return usedTempVars;
     }
 
-    private SymbolInfo getArgumentInfo(ArrayDeque<Argument> arguments, String identifier) {
-        long offset = 0;
-        for (Iterator<Argument> it = arguments.iterator() ; it.hasNext() ; ) {
-            Argument argument = it.next();
-            if (argument.getToken().getText().equals(identifier)) {
-                return new SymbolInfo(offset, argument.getType(), argument.isReference());
-            }
-            offset += wordSize;
+    /* Layouts of enclosing functions are built when a nested function first accesses
+     * them, and rebuilt if it accesses a local var declared after that */
+    private FrameLayout getFrameLayout(long scope, String identifier) {
+        FrameLayout layout = frameLayouts.get(scope);
+        if (layout == null || layout.getSymbolInfo(identifier) == null) {
+            ArrayList<Type> tempVars = ir.getTempVars();
+            layout = new FrameLayout(symbolTable.getLocalVars(scope), symbolTable.getArguments(scope),
+                                     tempVars, tempVars.size(), new HashSet<Integer>(),
+                                     ir.getArrayInfo().keySet(), null, target, !display, display);
+            frameLayouts.put(scope, layout);
         }
-        return null;
+        return layout;
     }
 
-    /* Total size occupied by local and temp bars, taking into account allignment */
-    private long getTotalSize() {
-        ArrayList<Type> tempVars = ir.getTempVars();
-        long offset = getTotalLocalVarsOffset();
-        return getTotalTempVarsOffset(tempVars, offset);
+    /* Display entry holding the frame of the latest activation at the given scope.
+     * Functions whose frame nested functions access replace it while active. */
+    private String getDisplayEntry(long scope) {
+        String base = (target == Target.X86 ? "display" : "rip+display");
+        return target.getPointerSizeName() + " [" + base + "+" + scope * wordSize + "]";
     }
 
-    private long getTotalLocalVarsOffset() {
-        ArrayDeque<Variable> localVars = symbolTable.getLocalVars(symbolTable.getCurScope());
-        long index = 0;
-        for (Variable variable: localVars) {
-            if (variable.getType() == Type.INT && (index > 0 && index % wordSize != 0)) {
-                index = nextWordAlignedByte(index, wordSize);
-            }
-            index += getLocalVarSize(variable);
+    /* Memory operand at base + index * scale + displacement, with the index optional */
+    private String indexedAddress(String base, String index, int scale, long offset) {
+        if (omitFramePointer && base.equals(target.getFramePointer())) {
+            base = target.getStackPointer();
+            offset += framePointerOffset;
         }
-        return index;
-    }
-
-    /* Start from a given offset, representing the local variables size on stack frame */
-    private long getTotalTempVarsOffset(ArrayList<Type> tempVars, long offset) {
-        for (ListIterator<Type> i = tempVars.listIterator(curTempVar) ; i.hasNext() ; ) {
-            Type tempVarType = i.next();
-            if (tempVarType == Type.INT && (offset > 0 && offset % wordSize != 0)) {
-                offset = nextWordAlignedByte(offset, wordSize) + wordSize;
-            }
-            offset += getTypeSize(tempVarType);
+        String address = "[" + base;
+        if (index != null) {
+            address += "+" + target.getPointerRegister(index) + (scale > 1 ? "*" + scale : "");
         }
-        return offset;
-    }
-
-    private static long getLocalVarSize(Variable variable) {
-        long index = 0;
-        if (variable.getDimensions().size() == 0) {
-            index += getTypeSize(variable.getType());
-        } else {
-            index += (variable.getTotalCells() * getTypeSize(variable.getType()));
+        if (offset != 0) {
+            address += (offset < 0 ? "" : "+") + offset;
         }
-        return index;
+        return address + "]";
     }
 
-    private static int getTypeSize(Type type) {
-        switch (type) {
-            case INT:
-                return 4;
-            case CHAR:
-                return 1;
-            default:
-                System.err.println("Internal error: invalid variable type " + type + " in getTypeSize");
-                System.exit(1);
+    /* Memory operand at a signed displacement from the given base register. Without a
+     * frame pointer, the frame is addressed from the stack pointer, which stays put in
+     * a leaf function once its prologue is done. */
+    private String address(String base, long offset) {
+        if (omitFramePointer && base.equals(target.getFramePointer())) {
+            base = target.getStackPointer();
+            offset += framePointerOffset;
         }
-        return -1;
+        return "[" + base + (offset < 0 ? "" : "+") + offset + "]";
     }
 
     private static String getTypeSizeName(Type type) {
@@ -655,22 +1792,45 @@ public class FinalCode {
     }
 
 
-    public int getCurTempVar() {
-        return curTempVar;
+    public int getLoweredArithmetic() {
+        return loweredArithmetic;
     }
 
-    public int getCurQuad() {
-        return curQuad;
+    public int getSiblingTailCalls() {
+        return siblingTailCalls;
     }
 
-    private static long nextWordAlignedByte(long pos, int wordSize) {
-        if (pos == 0) {
-            return pos;
+    /* Statistics of the passes run while generating the code */
+    public void printStatistics() {
+        if (peephole != null) {
+            branchOptimizer.printStatistics();
+            peephole.printStatistics();
+        }
+        if (framePacker != null) {
+            framePacker.printStatistics();
         }
-        while (pos % wordSize != 0) {
-            pos++;
+        if (frameOmission) {
+            System.out.println("Frame pointer omission:");
+            System.out.println("  leaf functions: " + leafFunctions);
+            System.out.println("  access links not saved: " + skippedAccessLinks);
         }
-        return pos;
+        if (loopVectorizer != null) {
+            loopVectorizer.printStatistics();
+        }
+        if (argumentPromoter != null) {
+            argumentPromoter.printStatistics(registerPointers);
+        }
+        if (instructionSelector != null) {
+            instructionSelector.printStatistics();
+        }
+    }
+
+    public int getCurTempVar() {
+        return curTempVar;
+    }
+
+    public int getCurQuad() {
+        return curQuad;
     }
 
     private static String convertOpToCommand(Quad.Op op) {
@@ -700,11 +1860,161 @@ public class FinalCode {
         return "";
     }
 
+    private static boolean isIntConstant(QuadOperand quadOperand) {
+        return quadOperand.getType() == QuadOperand.Type.INT;
+    }
+
+    /* ADD, SUB or MULT of two ints, through eax */
+    private void arithmetic(Quad quad) {
+        if (arithmeticSimplification && quad.getOp() == Quad.Op.MULT
+            && (isIntConstant(quad.getOperand1()) || isIntConstant(quad.getOperand2()))) {
+            boolean constantFirst = isIntConstant(quad.getOperand1());
+            load("eax", (constantFirst ? quad.getOperand2() : quad.getOperand1()));
+            multiplyByConstant(Integer.parseInt((constantFirst ? quad.getOperand1()
+                                                               : quad.getOperand2()).getIdentifier()));
+            store("eax", quad.getOutput());
+            return;
+        }
+        load("eax", quad.getOperand1());
+        String operandRegister = getOperandRegister(quad.getOperand2());
+        if (operandRegister == null) {
+            load("edx", quad.getOperand2());
+            operandRegister = "edx";
+        }
+        emit(convertOpToCommand(quad.getOp()) + " eax, " + operandRegister);
+        store("eax", quad.getOutput());
+    }
+
+    /* eax *= multiplier, with shifts and lea for powers of two and for 3, 5 or 9 times
+     * a power of two, negated for negative multipliers */
+    private void multiplyByConstant(int multiplier) {
+        long magnitude = Math.abs((long)multiplier);
+        int shift = Long.numberOfTrailingZeros(magnitude);
+        long factor = magnitude >> shift;
+        if (multiplier == 0) {
+            emit("mov eax, 0");
+        } else if (factor == 3 || factor == 5 || factor == 9) {
+            String pointer = target.getPointerRegister("eax");
+            emit("lea eax, [" + pointer + "+" + pointer + "*" + (factor - 1) + "]");
+        } else if (factor != 1) {
+            emit("imul eax, eax, " + multiplier);
+            return;
+        }
+        if (shift > 0) {
+            emit("shl eax, " + shift);
+        }
+        if (multiplier < 0) {
+            emit("neg eax");
+        }
+        loweredArithmetic++;
+    }
+
+    /* eax = eax div divisor or eax mod divisor, rounding towards zero like idiv, for
+     * divisors other than 0, -1 and the smallest integer. Powers of two add 2^k - 1 to
+     * negative dividends before shifting or masking, other divisors take the quotient
+     * from a multiplication by a magic number. The remainder keeps the dividend's sign. */
+    private void divideByConstant(Quad.Op op, int divisor) {
+        int magnitude = Math.abs(divisor);
+        int shift = Integer.numberOfTrailingZeros(magnitude);
+        loweredArithmetic++;
+        if (magnitude == 1) {
+            if (op == Quad.Op.MOD) {
+                emit("mov eax, 0");
+            }
+            return;
+        }
+        if (Integer.bitCount(magnitude) == 1) {
+            emit("mov edx, eax\n" +
+                 "sar edx, 31\n" +
+                 "shr edx, " + (32 - shift) + "\n" +
+                 "add eax, edx");
+            if (op == Quad.Op.DIV) {
+                emit("sar eax, " + shift);
+                if (divisor < 0) {
+                    emit("neg eax");
+                }
+            } else {
+                emit("and eax, " + (magnitude - 1) + "\n" +
+                     "sub eax, edx");
+            }
+            return;
+        }
+        int[] magic = ArithmeticSimplifier.getDivisionMagic(magnitude);
+        emit("mov ecx, eax\n" +
+             "mov edx, " + magic[0] + "\n" +
+             "imul edx");
+        if (magic[0] < 0) {
+            emit("add edx, ecx");
+        }
+        if (magic[1] > 0) {
+            emit("sar edx, " + magic[1]);
+        }
+        emit("mov eax, ecx\n" +
+             "shr eax, 31\n" +
+             "add eax, edx");
+        if (op == Quad.Op.DIV) {
+            if (divisor < 0) {
+                emit("neg eax");
+            }
+        } else {
+            emit("imul eax, eax, " + magnitude + "\n" +
+                 "sub ecx, eax\n" +
+                 "mov eax, ecx");
+        }
+    }
+
+    /* Comparison with its operands swapped */
+    private static Quad.Op reverseComparison(Quad.Op op) {
+        switch (op) {
+            case GREATER:
+                return Quad.Op.LESS;
+            case LESS:
+                return Quad.Op.GREATER;
+            case GREATER_EQUAL:
+                return Quad.Op.LESS_EQUAL;
+            case LESS_EQUAL:
+                return Quad.Op.GREATER_EQUAL;
+            default:
+                return op;
+        }
+    }
+
+    /* Jumps for comparing pointers, which are unsigned */
+    private static String convertOpToUnsignedCommand(Quad.Op op) {
+        switch (op) {
+            case EQUAL:
+                return "jz";
+            case NOT_EQUAL:
+                return "jnz";
+            case GREATER:
+                return "ja";
+            case LESS:
+                return "jb";
+            case GREATER_EQUAL:
+                return "jae";
+            case LESS_EQUAL:
+                return "jbe";
+            default:
+                System.err.println("Internal error: OP is not listed in convertOpToUnsignedCommand");
+                System.exit(1);
+        }
+        return "";
+    }
+
+    private boolean isPointer(QuadOperand quadOperand) {
+        return quadOperand.getType() == QuadOperand.Type.TEMPVAR
+               && ir.getArrayInfo().containsKey(quadOperand.getTempVar());
+    }
+
+    public HashSet<Variable> getNonLocalVars() {
+        return nonLocalVars;
+    }
+
     public static String makeUniqueFunctionName(String function, String scope) {
         return "_" + function + "_" + String.valueOf(scope);
     }
 
-    private static String uniqueToOriginal(String unique) {
+    static String uniqueToOriginal(String unique) {
         int index = unique.lastIndexOf("_");
         if (index == -1) {
             index = unique.length();
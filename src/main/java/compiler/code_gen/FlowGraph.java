@@ -0,0 +1,369 @@
+package compiler.code_gen;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.lang.String;
+
+/* Basic blocks of a function and the edges between them, for the passes over its quads.
+ * A block starts at the UNIT, at every quad some jump targets, after every jump and at
+ * the ENDU, which is a block of its own that RET leads to. Conditional jumps fall
+ * through to the next block, and CALL does not end a block.
+ */
+public class FlowGraph {
+    private final ArrayList<Block> blocks;
+    private final int[] blockOf;
+    private final int firstQuad;
+
+    /* Quads of the function are the ones from firstQuad, its UNIT, to lastQuad, its ENDU */
+    public FlowGraph(ArrayList<Quad> quads, int firstQuad, int lastQuad) {
+        this.blocks = new ArrayList<Block>();
+        this.blockOf = new int[lastQuad - firstQuad + 1];
+        this.firstQuad = firstQuad;
+
+        HashSet<Integer> leaders = new HashSet<Integer>();
+        leaders.add(firstQuad);
+        leaders.add(lastQuad);
+        for (int i = firstQuad ; i <= lastQuad ; i++) {
+            Quad quad = quads.get(i);
+            if (isJump(quad)) {
+                leaders.add(i + 1);
+            }
+            if (quad.getOutput() != null && quad.getOutput().getType() == QuadOperand.Type.LABEL) {
+                leaders.add(quad.getOutput().getTempVar());
+            }
+        }
+        for (int i = firstQuad ; i <= lastQuad ; i++) {
+            if (leaders.contains(i)) {
+                blocks.add(new Block(blocks.size(), i));
+            }
+            Block block = blocks.get(blocks.size() - 1);
+            block.end = i;
+            blockOf[i - firstQuad] = block.getIndex();
+        }
+
+        for (Block block : blocks) {
+            Quad last = quads.get(block.getEnd());
+            if (last.getOp() == Quad.Op.ENDU) {
+                continue;
+            }
+            if (last.getOp() == Quad.Op.RET) {
+                addEdge(block, getBlock(lastQuad));
+                continue;
+            }
+            if (last.getOutput() != null && last.getOutput().getType() == QuadOperand.Type.LABEL) {
+                addEdge(block, getBlock(last.getOutput().getTempVar()));
+            }
+            if (last.getOp() != Quad.Op.JUMP) {
+                addEdge(block, blocks.get(block.getIndex() + 1));
+            }
+        }
+    }
+
+    public ArrayList<Block> getBlocks() {
+        return blocks;
+    }
+
+    /* Block containing the given quad */
+    public Block getBlock(int quad) {
+        return blocks.get(blockOf[quad - firstQuad]);
+    }
+
+    /* Blocks reachable from the first one */
+    public boolean[] getReachable() {
+        boolean[] reachable = new boolean[blocks.size()];
+        ArrayList<Block> stack = new ArrayList<Block>();
+        stack.add(blocks.get(0));
+        reachable[0] = true;
+        while (!stack.isEmpty()) {
+            Block block = stack.remove(stack.size() - 1);
+            for (Block successor : block.getSuccessors()) {
+                if (!reachable[successor.getIndex()]) {
+                    reachable[successor.getIndex()] = true;
+                    stack.add(successor);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    /* Blocks dominating each block, by index. Unreachable blocks are dominated by all. */
+    public BitSet[] getDominators() {
+        boolean[] reachable = getReachable();
+        BitSet[] dominators = new BitSet[blocks.size()];
+        for (int i = 0 ; i < blocks.size() ; i++) {
+            dominators[i] = new BitSet(blocks.size());
+            if (i == 0) {
+                dominators[i].set(0);
+            } else {
+                dominators[i].set(0, blocks.size());
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1 ; i < blocks.size() ; i++) {
+                if (!reachable[i]) {
+                    continue;
+                }
+                BitSet dominator = new BitSet(blocks.size());
+                dominator.set(0, blocks.size());
+                for (Block predecessor : blocks.get(i).getPredecessors()) {
+                    if (reachable[predecessor.getIndex()]) {
+                        dominator.and(dominators[predecessor.getIndex()]);
+                    }
+                }
+                dominator.set(i);
+                if (!dominator.equals(dominators[i])) {
+                    dominators[i] = dominator;
+                    changed = true;
+                }
+            }
+        }
+        return dominators;
+    }
+
+    /* Immediate dominator of each reachable block by index, the closest of its strict
+     * dominators, or -1 for the first block and unreachable ones */
+    public int[] getImmediateDominators() {
+        boolean[] reachable = getReachable();
+        BitSet[] dominators = getDominators();
+        int[] immediateDominators = new int[blocks.size()];
+        for (int i = 0 ; i < blocks.size() ; i++) {
+            immediateDominators[i] = -1;
+            if (i == 0 || !reachable[i]) {
+                continue;
+            }
+            for (int d = dominators[i].nextSetBit(0) ; d >= 0 ; d = dominators[i].nextSetBit(d+1)) {
+                if (d != i && dominators[d].cardinality() == dominators[i].cardinality() - 1) {
+                    immediateDominators[i] = d;
+                }
+            }
+        }
+        return immediateDominators;
+    }
+
+    /* Dominance frontier of each block by index: the blocks where its dominance ends,
+     * which it does not strictly dominate but one of their predecessors it dominates */
+    public BitSet[] getDominanceFrontiers(int[] immediateDominators) {
+        boolean[] reachable = getReachable();
+        BitSet[] frontiers = new BitSet[blocks.size()];
+        for (int i = 0 ; i < blocks.size() ; i++) {
+            frontiers[i] = new BitSet(blocks.size());
+        }
+        for (Block block : blocks) {
+            if (!reachable[block.getIndex()] || block.getPredecessors().size() < 2) {
+                continue;
+            }
+            for (Block predecessor : block.getPredecessors()) {
+                if (!reachable[predecessor.getIndex()]) {
+                    continue;
+                }
+                int runner = predecessor.getIndex();
+                while (runner >= 0 && runner != immediateDominators[block.getIndex()]) {
+                    frontiers[runner].set(block.getIndex());
+                    runner = immediateDominators[runner];
+                }
+            }
+        }
+        return frontiers;
+    }
+
+    /* Natural loops, one per header with the blocks of all its back edges, innermost first */
+    public ArrayList<Loop> getLoops() {
+        BitSet[] dominators = getDominators();
+        boolean[] reachable = getReachable();
+        ArrayList<Loop> loops = new ArrayList<Loop>();
+        for (Block header : blocks) {
+            Loop loop = null;
+            for (Block latch : header.getPredecessors()) {
+                if (!reachable[latch.getIndex()] || !dominators[latch.getIndex()].get(header.getIndex())) {
+                    continue;
+                }
+                if (loop == null) {
+                    loop = new Loop(header);
+                    loops.add(loop);
+                }
+                loop.latches.add(latch);
+
+                /* Blocks reaching the back edge without going through the header */
+                ArrayList<Block> stack = new ArrayList<Block>();
+                if (!loop.blocks.get(latch.getIndex())) {
+                    loop.blocks.set(latch.getIndex());
+                    stack.add(latch);
+                }
+                while (!stack.isEmpty()) {
+                    Block block = stack.remove(stack.size() - 1);
+                    for (Block predecessor : block.getPredecessors()) {
+                        if (reachable[predecessor.getIndex()] && !loop.blocks.get(predecessor.getIndex())) {
+                            loop.blocks.set(predecessor.getIndex());
+                            stack.add(predecessor);
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(loops, new Comparator<Loop>() {
+            @Override
+            public int compare(Loop a, Loop b) {
+                return Integer.compare(a.blocks.cardinality(), b.blocks.cardinality());
+            }
+        });
+        return loops;
+    }
+
+    /* Whether a preheader can go right before the header of the loop, which needs
+     * nothing in the loop to fall through into the header */
+    public boolean canInsertPreheader(ArrayList<Quad> quads, Loop loop) {
+        int header = loop.getHeader().getStart();
+        Quad.Op op = quads.get(header - 1).getOp();
+        return !loop.contains(getBlock(header - 1)) || op == Quad.Op.JUMP || op == Quad.Op.RET;
+    }
+
+    /* Rewrites the quads of the function with the preheader quads right before the
+     * header of the loop, where the jumps from outside the loop now land, and with each
+     * quad in replacements replaced by its list, which may be empty. Back edges skip the
+     * preheader. Jumps in the replacements have the labels of the old quads. */
+    public void insertPreheader(IntermediateRepresentation ir, Loop loop, ArrayList<Quad> preheader,
+                                HashMap<Integer, ArrayList<Quad>> replacements) {
+        ArrayList<Quad> quads = ir.getQuads();
+        int header = loop.getHeader().getStart();
+        ArrayList<Quad> oldQuads = new ArrayList<Quad>(quads.subList(firstQuad, quads.size()));
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        ArrayList<Integer> origins = new ArrayList<Integer>();
+        int[] newIndex = new int[oldQuads.size() + 1];
+        int headerPosition = -1;
+        for (int i = 0 ; i < oldQuads.size() ; i++) {
+            int q = firstQuad + i;
+            newIndex[i] = firstQuad + newQuads.size();
+            if (q == header) {
+                for (Quad quad : preheader) {
+                    newQuads.add(quad);
+                    origins.add(-1);
+                }
+                headerPosition = firstQuad + newQuads.size();
+            }
+            ArrayList<Quad> replacement = replacements.get(q);
+            if (replacement == null) {
+                newQuads.add(oldQuads.get(i));
+                origins.add(q);
+                continue;
+            }
+            for (Quad quad : replacement) {
+                newQuads.add(quad);
+                origins.add(q);
+            }
+        }
+        newIndex[oldQuads.size()] = firstQuad + newQuads.size();
+
+        for (int i = 0 ; i < newQuads.size() ; i++) {
+            Quad quad = newQuads.get(i);
+            int origin = origins.get(i);
+            QuadOperand output = quad.getOutput();
+            if (origin < 0 || output == null || output.getType() != QuadOperand.Type.LABEL) {
+                continue;
+            }
+            int target = output.getTempVar();
+            if (target == header && loop.contains(getBlock(origin))) {
+                target = headerPosition;
+            } else if (quad != oldQuads.get(origin - firstQuad)) {
+                target = newIndex[target - firstQuad];
+            } else {
+                continue;
+            }
+            newQuads.set(i, new Quad(quad.getOp(), quad.getOperand1(), quad.getOperand2(),
+                                     new QuadOperand(QuadOperand.Type.LABEL, target)));
+        }
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+    }
+
+    static boolean isJump(Quad quad) {
+        switch (quad.getOp()) {
+            case JUMP:
+            case RET:
+            case EQUAL:
+            case NOT_EQUAL:
+            case GREATER:
+            case LESS:
+            case GREATER_EQUAL:
+            case LESS_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void addEdge(Block from, Block to) {
+        if (!from.successors.contains(to)) {
+            from.successors.add(to);
+            to.predecessors.add(from);
+        }
+    }
+
+    /* Header of a natural loop, the blocks with a back edge to it, and all of its
+     * blocks by index, the header included */
+    public static class Loop {
+        private final Block header;
+        private final ArrayList<Block> latches;
+        private final BitSet blocks;
+
+        public Loop(Block header) {
+            this.header = header;
+            this.latches = new ArrayList<Block>();
+            this.blocks = new BitSet();
+            this.blocks.set(header.getIndex());
+        }
+
+        public Block getHeader() {
+            return header;
+        }
+
+        public ArrayList<Block> getLatches() {
+            return latches;
+        }
+
+        public boolean contains(Block block) {
+            return blocks.get(block.getIndex());
+        }
+    }
+
+    /* Quads from start to end, inclusive */
+    public static class Block {
+        private final int index;
+        private final int start;
+        private int end;
+        private final ArrayList<Block> successors;
+        private final ArrayList<Block> predecessors;
+
+        public Block(int index, int start) {
+            this.index = index;
+            this.start = start;
+            this.end = start;
+            this.successors = new ArrayList<Block>();
+            this.predecessors = new ArrayList<Block>();
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public ArrayList<Block> getSuccessors() {
+            return successors;
+        }
+
+        public ArrayList<Block> getPredecessors() {
+            return predecessors;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.lang.String;
+
+/* Stack frame of a function, computed once so that codegen resolves every local var,
+ * argument and temp var with a map lookup. Offsets are signed displacements from
+ * the base pointer:
+ *  - local and temp vars lie below the base pointer
+ *  - on X86, arguments lie above the return address and access link
+ *  - on X86_64, the access link and the arguments passed in registers are stored
+ *    right below the base pointer, and the rest lie above the return address
+ * Without an access link, on X86 the arguments lie right above the return address.
+ * With a display there are no access links, and the slot right below the base pointer
+ * keeps the display entry that the function replaces.
+ */
+public class FrameLayout {
+    private final HashMap<String, SymbolInfo> symbols;
+    private final HashMap<Integer, SymbolInfo> tempVarInfo;
+    private final ArrayDeque<Variable> localVars;
+    private final long localVarsSize;
+    private final long totalSize;
+
+    /* Temp vars from firstTempVar onwards belong to the function, and only the ones
+     * in usedTempVars, which its quads still refer to, get a slot. The ones in
+     * addressTempVars hold the result of an ARRAY quad and are pointer sized.
+     * Temp vars given the same slot in tempVarSlots share their offset, while without
+     * tempVarSlots each one has its own. */
+    public FrameLayout(ArrayDeque<Variable> localVars, ArrayDeque<Argument> arguments,
+                       ArrayList<Type> tempVars, int firstTempVar, Set<Integer> usedTempVars,
+                       Set<Integer> addressTempVars, Map<Integer, Integer> tempVarSlots,
+                       Target target, boolean accessLink, boolean display) {
+        this.symbols = new HashMap<String, SymbolInfo>();
+        this.tempVarInfo = new HashMap<Integer, SymbolInfo>();
+        this.localVars = localVars;
+        int wordSize = target.getWordSize();
+        int registerArguments = Math.min(arguments.size(), target.getArgumentRegisters().length);
+
+        long offset = 0;
+        if (target == Target.X86 && display) {
+            offset = wordSize;
+        } else if (target == Target.X86_64) {
+            offset = wordSize;
+            int i = 0;
+            for (Argument argument : arguments) {
+                if (i++ == registerArguments) {
+                    break;
+                }
+                offset += wordSize;
+                symbols.put(argument.getToken().getText(),
+                            new SymbolInfo(-offset, wordSize, argument.getType(), argument.isReference()));
+            }
+        }
+
+        for (Variable variable : localVars) {
+            if (variable.getType() == Type.INT && (offset > 0 && offset % getTypeSize(Type.INT) != 0)) {
+                offset = nextWordAlignedByte(offset, getTypeSize(Type.INT));
+            }
+            long size = getLocalVarSize(variable);
+            offset += size;
+            symbols.put(variable.getToken().getText(), new SymbolInfo(-offset, size, variable.getType()));
+        }
+        this.localVarsSize = offset;
+
+        HashMap<Integer, Long> slotOffsets = new HashMap<Integer, Long>();
+        for (int i = firstTempVar ; i < tempVars.size() ; i++) {
+            if (!usedTempVars.contains(i)) {
+                continue;
+            }
+            Type tempVarType = tempVars.get(i);
+            boolean isAddress = addressTempVars.contains(i);
+            int size = (isAddress ? wordSize : getTypeSize(tempVarType));
+            Integer slot = (tempVarSlots == null ? null : tempVarSlots.get(i));
+            if (slot != null && slotOffsets.containsKey(slot)) {
+                tempVarInfo.put(i, new SymbolInfo(slotOffsets.get(slot), size, tempVarType, isAddress));
+                continue;
+            }
+            if (size > 1 && (offset > 0 && offset % size != 0)) {
+                offset = nextWordAlignedByte(offset, size) + size;
+            }
+            offset += size;
+            tempVarInfo.put(i, new SymbolInfo(-offset, size, tempVarType, isAddress));
+            if (slot != null) {
+                slotOffsets.put(slot, -offset);
+            }
+        }
+        if (target == Target.X86_64) {
+            offset = nextWordAlignedByte(offset, 2 * wordSize);
+        }
+        this.totalSize = offset;
+
+        /* Skip the old base pointer, the return address and, on X86, the access link */
+        offset = (target == Target.X86 && accessLink ? 3 : 2) * wordSize;
+        int i = 0;
+        for (Argument argument : arguments) {
+            if (i++ < registerArguments) {
+                continue;
+            }
+            symbols.put(argument.getToken().getText(),
+                        new SymbolInfo(offset, wordSize, argument.getType(), argument.isReference()));
+            offset += wordSize;
+        }
+    }
+
+    /* Local variable or argument of the function, or null if not declared (yet) */
+    public SymbolInfo getSymbolInfo(String identifier) {
+        return symbols.get(identifier);
+    }
+
+    public SymbolInfo getTempVarInfo(int tempVar) {
+        SymbolInfo symbolInfo = tempVarInfo.get(tempVar);
+        if (symbolInfo == null) {
+            System.err.println("Internal error: tempVar " + tempVar + " does not belong " +
+                               "to the frame in getTempVarInfo");
+            System.exit(1);
+        }
+        return symbolInfo;
+    }
+
+    public ArrayDeque<Variable> getLocalVars() {
+        return localVars;
+    }
+
+    public long getLocalVarsSize() {
+        return localVarsSize;
+    }
+
+    /* Total size occupied by local and temp vars, taking into account alignment */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    static long getLocalVarSize(Variable variable) {
+        long index = 0;
+        if (variable.getDimensions().size() == 0) {
+            index += getTypeSize(variable.getType());
+        } else {
+            index += (variable.getTotalCells() * getTypeSize(variable.getType()));
+        }
+        return index;
+    }
+
+    static int getTypeSize(Type type) {
+        switch (type) {
+            case INT:
+                return 4;
+            case CHAR:
+                return 1;
+            default:
+                System.err.println("Internal error: invalid variable type " + type + " in getTypeSize");
+                System.exit(1);
+        }
+        return -1;
+    }
+
+    static long nextWordAlignedByte(long pos, int wordSize) {
+        if (pos == 0) {
+            return pos;
+        }
+        while (pos % wordSize != 0) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /* Info about a particular symbol within the frame:
+     *  - its byte offset from the base pointer
+     *  - its size in bytes
+     *  - its type
+     *  - whether the slot holds an address: a reference argument or the result of an ARRAY quad
+     */
+    public static class SymbolInfo {
+        private final long offset;
+        private final long size;
+        private final Type type;
+        private final boolean isReference;
+
+        public SymbolInfo(long offset, long size, Type type) {
+            this.offset = offset;
+            this.size = size;
+            this.type = type;
+            this.isReference = false;
+        }
+
+        public SymbolInfo(long offset, long size, Type type, boolean isReference) {
+            this.offset = offset;
+            this.size = size;
+            this.type = type;
+            this.isReference = isReference;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public boolean isReference() {
+            return isReference;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package compiler.code_gen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Set;
+import java.lang.String;
+
+/* Packs the temp vars of a function into as few stack slots as it can. Temp vars whose
+ * live intervals do not overlap share a slot, assigned greedily in order of the first
+ * quad where each one is live. Only temp vars of the same size share a slot, so a slot
+ * keeps the alignment FrameLayout gives to its first temp var. Temp vars that live in
+ * a register need no slot at all.
+ */
+public class FramePacker {
+    private final IntermediateRepresentation ir;
+    private final ArrayList<String> functions;
+    private final ArrayList<Long> unpackedSizes;
+    private final ArrayList<Long> packedSizes;
+
+    public FramePacker(IntermediateRepresentation ir) {
+        this.ir = ir;
+        this.functions = new ArrayList<String>();
+        this.unpackedSizes = new ArrayList<Long>();
+        this.packedSizes = new ArrayList<Long>();
+    }
+
+    /* Slot of each of the given temp vars of the function starting at firstQuad, where
+     * temp vars with the same slot share their offset. The ones in addressTempVars are
+     * pointer sized. */
+    public HashMap<Integer, Integer> assignSlots(int firstQuad, final int firstTempVar, Set<Integer> tempVars,
+                                                 Set<Integer> addressTempVars, int wordSize) {
+        final LiveIntervals liveIntervals = new LiveIntervals(ir, firstQuad, firstTempVar,
+                                                              new HashMap<String, Integer>());
+        ArrayList<Integer> ordered = new ArrayList<Integer>(tempVars);
+        Collections.sort(ordered, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int compared = Integer.compare(liveIntervals.getStart(a - firstTempVar),
+                                               liveIntervals.getStart(b - firstTempVar));
+                return (compared != 0 ? compared : Integer.compare(a, b));
+            }
+        });
+
+        HashMap<Integer, Integer> slots = new HashMap<Integer, Integer>();
+        ArrayList<Integer> slotSizes = new ArrayList<Integer>();
+        ArrayList<Integer> slotEnds = new ArrayList<Integer>();
+        for (int tempVar : ordered) {
+            int start = liveIntervals.getStart(tempVar - firstTempVar);
+            int size = (addressTempVars.contains(tempVar) ? wordSize
+                                                          : FrameLayout.getTypeSize(ir.getTempVars().get(tempVar)));
+            int slot = -1;
+            for (int i = 0 ; i < slotSizes.size() && start >= 0 ; i++) {
+                if (slotSizes.get(i) == size && slotEnds.get(i) <= start) {
+                    slot = i;
+                    break;
+                }
+            }
+            if (slot < 0) {
+                slot = slotSizes.size();
+                slotSizes.add(size);
+                slotEnds.add(0);
+            }
+            slotEnds.set(slot, (start < 0 ? Integer.MAX_VALUE : liveIntervals.getEnd(tempVar - firstTempVar)));
+            slots.put(tempVar, slot);
+        }
+        return slots;
+    }
+
+    /* Size of the function's local and temp vars without packing and with it */
+    public void record(String function, long unpackedSize, long packedSize) {
+        functions.add(function);
+        unpackedSizes.add(unpackedSize);
+        packedSizes.add(packedSize);
+    }
+
+    public void printStatistics() {
+        System.out.println("Frame packing:");
+        long unpackedTotal = 0;
+        long packedTotal = 0;
+        for (int i = 0 ; i < functions.size() ; i++) {
+            System.out.println("  " + functions.get(i) + ": " + unpackedSizes.get(i) + " -> " +
+                               packedSizes.get(i) + " bytes");
+            unpackedTotal += unpackedSizes.get(i);
+            packedTotal += packedSizes.get(i);
+        }
+        System.out.println("  total: " + unpackedTotal + " -> " + packedTotal + " bytes");
+    }
+}
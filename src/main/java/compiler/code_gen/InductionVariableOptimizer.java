@@ -0,0 +1,569 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.lang.String;
+
+/* Strength reduction of array indexing on the induction variables of loops, before
+ * the code of a function is generated. A basic induction variable of a natural loop
+ * is a scalar local var that the loop only changes by adding or subtracting constants.
+ * An ARRAY quad in the loop indexed by it, or by it plus a constant or a loop invariant
+ * operand, becomes a copy of a pointer temp var, which a preheader before the loop
+ * sets to the first address and every increment of the variable moves by the step
+ * times the element size. This replaces the multiplication and the addition to the
+ * array base of every access with an addition per increment.
+ * If afterwards the variable is only read by the loop test, against a loop invariant,
+ * and is dead after the loop, the test compares the pointer with the address of that
+ * bound instead and the variable is no longer incremented.
+ * Nested functions may change a local var while a call runs, so a loop with calls to
+ * functions other than the standard library ones only keeps the local vars that no
+ * nested function accesses.
+ */
+public class InductionVariableOptimizer {
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final Set<Variable> nonLocalVars;
+    private int reducedAddresses;
+    private int replacedTests;
+
+    public InductionVariableOptimizer(IntermediateRepresentation ir, SymbolTable symbolTable,
+                                      Set<Variable> nonLocalVars) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.nonLocalVars = nonLocalVars;
+        this.reducedAddresses = 0;
+        this.replacedTests = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Called while its scope is the current one. Loops are reduced one
+     * at a time, innermost first, as each one changes the flow graph. */
+    public void run(int firstQuad) {
+        HashMap<String, Boolean> localVars = QuadAnalysis.getLocalVars(symbolTable, nonLocalVars);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            ArrayList<Quad> quads = ir.getQuads();
+            FlowGraph flowGraph = new FlowGraph(quads, firstQuad, quads.size() - 1);
+            for (FlowGraph.Loop loop : flowGraph.getLoops()) {
+                if (reduce(firstQuad, flowGraph, loop, localVars)) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    public void printStatistics() {
+        System.out.println("Induction variables:");
+        System.out.println("  array addresses reduced: " + reducedAddresses);
+        System.out.println("  loop tests replaced: " + replacedTests);
+    }
+
+    private boolean reduce(int firstQuad, FlowGraph flowGraph, FlowGraph.Loop loop,
+                           HashMap<String, Boolean> localVars) {
+        ArrayList<Quad> quads = ir.getQuads();
+
+        if (!flowGraph.canInsertPreheader(quads, loop)) {
+            return false;
+        }
+
+        LoopInfo info = new LoopInfo(quads, flowGraph, loop, localVars);
+        HashMap<String, ArrayList<Increment>> inductionVars = new HashMap<String, ArrayList<Increment>>();
+        for (String localVar : info.definitions.keySet()) {
+            ArrayList<Increment> increments = getIncrements(quads, flowGraph, localVar, info);
+            if (increments != null) {
+                inductionVars.put(localVar, increments);
+            }
+        }
+        if (inductionVars.isEmpty()) {
+            return false;
+        }
+
+        /* Array addresses on the same array, variable and offset share a pointer */
+        HashMap<Integer, Integer> uses = countUses(quads, firstQuad);
+        HashMap<Integer, Integer> definitions = QuadAnalysis.countDefinitions(quads, firstQuad);
+        LinkedHashMap<String, Pointer> pointers = new LinkedHashMap<String, Pointer>();
+        HashMap<Integer, Pointer> addresses = new HashMap<Integer, Pointer>();
+        HashMap<Integer, Integer> derivedIndices = new HashMap<Integer, Integer>();
+        for (int q : info.quads) {
+            Quad quad = quads.get(q);
+            if (quad.getOp() != Quad.Op.ARRAY || quad.getOperand1().getType() != QuadOperand.Type.IDENTIFIER) {
+                continue;
+            }
+            String inductionVar = null;
+            QuadOperand offset = null;
+            int derived = -1;
+            QuadOperand index = quad.getOperand2();
+            if (index.getType() == QuadOperand.Type.IDENTIFIER && inductionVars.containsKey(index.getIdentifier())) {
+                inductionVar = index.getIdentifier();
+            } else if (index.getType() == QuadOperand.Type.TEMPVAR
+                       && QuadAnalysis.isCountedOnce(definitions, index.getTempVar())) {
+                derived = findDerivedIndex(quads, flowGraph, q, index.getTempVar());
+                if (derived < 0) {
+                    continue;
+                }
+                Quad definition = quads.get(derived);
+                QuadOperand operand1 = definition.getOperand1();
+                QuadOperand operand2 = definition.getOperand2();
+                if (definition.getOp() == Quad.Op.ADD && isInductionVar(operand1, inductionVars)
+                    && info.isInvariant(operand2)) {
+                    inductionVar = operand1.getIdentifier();
+                    offset = operand2;
+                } else if (definition.getOp() == Quad.Op.ADD && isInductionVar(operand2, inductionVars)
+                           && info.isInvariant(operand1)) {
+                    inductionVar = operand2.getIdentifier();
+                    offset = operand1;
+                } else if (definition.getOp() == Quad.Op.SUB && isInductionVar(operand1, inductionVars)
+                           && operand2.getType() == QuadOperand.Type.INT) {
+                    inductionVar = operand1.getIdentifier();
+                    offset = new QuadOperand(QuadOperand.Type.INT,
+                                             String.valueOf(-Integer.parseInt(operand2.getIdentifier())));
+                }
+                if (inductionVar == null || isIncrementedBetween(inductionVars.get(inductionVar), derived, q)) {
+                    continue;
+                }
+            } else {
+                continue;
+            }
+
+            String array = quad.getOperand1().getIdentifier();
+            String key = array + " " + inductionVar + " " + (offset == null ? "" : offset.toString());
+            Pointer pointer = pointers.get(key);
+            if (pointer == null) {
+                int tempVar = ir.newTempVar(ir.getTempVars().get(quad.getOutput().getTempVar()));
+                ArrayInfo arrayInfo = ir.getArrayInfo().get(quad.getOutput().getTempVar());
+                if (arrayInfo != null) {
+                    ir.getArrayInfo().put(tempVar, arrayInfo);
+                }
+                pointer = new Pointer(quad.getOperand1(), inductionVar, offset,
+                                      new QuadOperand(QuadOperand.Type.TEMPVAR, tempVar),
+                                      FrameLayout.getTypeSize(symbolTable.lookup(array).getType()));
+                pointers.put(key, pointer);
+            }
+            addresses.put(q, pointer);
+            if (derived >= 0) {
+                derivedIndices.put(q, derived);
+            }
+        }
+        if (addresses.isEmpty()) {
+            return false;
+        }
+
+        /* Loop tests that a pointer can take over, and the increments they make useless */
+        HashMap<Integer, Quad> replacedTests = new HashMap<Integer, Quad>();
+        HashSet<Integer> dropped = new HashSet<Integer>();
+        ArrayList<Quad> preheader = new ArrayList<Quad>();
+        for (Pointer pointer : pointers.values()) {
+            if (pointer.offset == null) {
+                preheader.add(new Quad(Quad.Op.ARRAY, pointer.array,
+                                       new QuadOperand(QuadOperand.Type.IDENTIFIER, pointer.inductionVar),
+                                       pointer.getAddress()));
+            } else {
+                QuadOperand index = new QuadOperand(QuadOperand.Type.TEMPVAR, ir.newTempVar(Type.INT));
+                preheader.add(new Quad(Quad.Op.ADD, new QuadOperand(QuadOperand.Type.IDENTIFIER,
+                                                                    pointer.inductionVar),
+                                       pointer.offset, index));
+                preheader.add(new Quad(Quad.Op.ARRAY, pointer.array, index, pointer.getAddress()));
+            }
+        }
+        for (String inductionVar : inductionVars.keySet()) {
+            replaceTest(quads, flowGraph, loop, info, inductionVar, inductionVars.get(inductionVar),
+                        pointers, addresses, derivedIndices, uses, preheader, replacedTests, dropped);
+        }
+
+        /* The loop with its addresses and increments rewritten */
+        HashMap<Integer, ArrayList<Quad>> replacements = new HashMap<Integer, ArrayList<Quad>>();
+        for (int q : addresses.keySet()) {
+            replacements.put(q, newList(new Quad(Quad.Op.ASSIGN, addresses.get(q).tempVar, null,
+                                                 new QuadOperand(QuadOperand.Type.TEMPVAR,
+                                                                 quads.get(q).getOutput().getTempVar()))));
+            reducedAddresses++;
+        }
+        for (int q : replacedTests.keySet()) {
+            replacements.put(q, newList(replacedTests.get(q)));
+        }
+        for (int q : dropped) {
+            replacements.put(q, new ArrayList<Quad>());
+        }
+        for (String inductionVar : inductionVars.keySet()) {
+            for (Increment increment : inductionVars.get(inductionVar)) {
+                ArrayList<Quad> replacement = replacements.get(increment.position);
+                if (replacement == null) {
+                    replacement = newList(quads.get(increment.position));
+                    replacements.put(increment.position, replacement);
+                }
+                for (Pointer pointer : pointers.values()) {
+                    if (pointer.inductionVar.equals(inductionVar)) {
+                        replacement.add(new Quad(Quad.Op.ADD, pointer.tempVar,
+                                                 new QuadOperand(QuadOperand.Type.INT,
+                                                                 String.valueOf(increment.step * pointer.size)),
+                                                 pointer.tempVar));
+                    }
+                }
+            }
+        }
+        flowGraph.insertPreheader(ir, loop, preheader, replacements);
+        return true;
+    }
+
+    /* Replace the test of the loop on the induction var with a test on one of its pointers,
+     * if nothing else in the loop reads the variable and it is dead after the loop */
+    private void replaceTest(ArrayList<Quad> quads, FlowGraph flowGraph, FlowGraph.Loop loop, LoopInfo info,
+                             String inductionVar, ArrayList<Increment> increments,
+                             LinkedHashMap<String, Pointer> pointers, HashMap<Integer, Pointer> addresses,
+                             HashMap<Integer, Integer> derivedIndices, HashMap<Integer, Integer> uses,
+                             ArrayList<Quad> preheader, HashMap<Integer, Quad> replacedTests,
+                             HashSet<Integer> dropped) {
+        if (info.hasCall || increments.size() != 1 || increments.get(0).step <= 0) {
+            return;
+        }
+        Pointer pointer = null;
+        for (Pointer candidate : pointers.values()) {
+            if (candidate.inductionVar.equals(inductionVar)) {
+                pointer = candidate;
+                break;
+            }
+        }
+        Increment increment = increments.get(0);
+        int test = -1;
+        for (int q : info.quads) {
+            Quad quad = quads.get(q);
+            if (!readsVar(quad, inductionVar) || q == increment.first
+                || (addresses.containsKey(q) && addresses.get(q).inductionVar.equals(inductionVar))) {
+                continue;
+            }
+            boolean derived = false;
+            for (int address : derivedIndices.keySet()) {
+                if (derivedIndices.get(address) == q && addresses.get(address).inductionVar.equals(inductionVar)
+                    && QuadAnalysis.isCountedOnce(uses, quad.getOutput().getTempVar())) {
+                    derived = true;
+                }
+            }
+            if (derived) {
+                continue;
+            }
+            if (test >= 0 || !FlowGraph.isJump(quad) || quad.getOp() == Quad.Op.JUMP
+                || quad.getOp() == Quad.Op.RET) {
+                return;
+            }
+            test = q;
+        }
+        if (test < 0) {
+            return;
+        }
+        Quad quad = quads.get(test);
+        boolean first = isVar(quad.getOperand1(), inductionVar);
+        QuadOperand bound = (first ? quad.getOperand2() : quad.getOperand1());
+        if (isVar(bound, inductionVar) || !info.isInvariant(bound) || isLiveAfter(quads, flowGraph, loop, inductionVar)) {
+            return;
+        }
+
+        QuadOperand end = new QuadOperand(QuadOperand.Type.TEMPVAR, ir.newTempVar(ir.getTempVars().get(
+                                                                       pointer.tempVar.getTempVar())));
+        if (ir.getArrayInfo().containsKey(pointer.tempVar.getTempVar())) {
+            ir.getArrayInfo().put(end.getTempVar(), ir.getArrayInfo().get(pointer.tempVar.getTempVar()));
+        }
+        if (pointer.offset == null) {
+            preheader.add(new Quad(Quad.Op.ARRAY, pointer.array, bound,
+                                   new QuadOperand(QuadOperand.Type.ADDRESS, end.getTempVar())));
+        } else {
+            QuadOperand index = new QuadOperand(QuadOperand.Type.TEMPVAR, ir.newTempVar(Type.INT));
+            preheader.add(new Quad(Quad.Op.ADD, bound, pointer.offset, index));
+            preheader.add(new Quad(Quad.Op.ARRAY, pointer.array, index,
+                                   new QuadOperand(QuadOperand.Type.ADDRESS, end.getTempVar())));
+        }
+        replacedTests.put(test, new Quad(quad.getOp(), (first ? pointer.tempVar : end),
+                                         (first ? end : pointer.tempVar), quad.getOutput()));
+        dropped.add(increment.first);
+        dropped.add(increment.position);
+        this.replacedTests++;
+    }
+
+    /* Increments of the local var in the loop, or null if it changes otherwise. An
+     * increment is a single quad adding a constant to the variable, or one computing
+     * that into a temp var followed by its copy to the variable. */
+    private ArrayList<Increment> getIncrements(ArrayList<Quad> quads, FlowGraph flowGraph, String localVar,
+                                               LoopInfo info) {
+        if (info.passedByReference.contains(localVar) || (info.hasCall && info.localVars.get(localVar))) {
+            return null;
+        }
+        ArrayList<Increment> increments = new ArrayList<Increment>();
+        for (int q : info.definitions.get(localVar)) {
+            Quad quad = quads.get(q);
+            int first = q;
+            if (quad.getOp() == Quad.Op.ASSIGN && quad.getOperand1().getType() == QuadOperand.Type.TEMPVAR
+                && q > flowGraph.getBlock(q).getStart()) {
+                Quad computation = quads.get(q - 1);
+                if (computation.getOutput() != null
+                    && computation.getOutput().getType() == QuadOperand.Type.TEMPVAR
+                    && computation.getOutput().getTempVar() == quad.getOperand1().getTempVar()
+                    && info.countTempVarReads(quad.getOperand1().getTempVar()) == 1) {
+                    quad = computation;
+                    first = q - 1;
+                }
+            }
+            Integer step = getStep(quad, localVar);
+            if (step == null) {
+                return null;
+            }
+            increments.add(new Increment(first, q, step));
+        }
+        return increments;
+    }
+
+    private static ArrayList<Quad> newList(Quad quad) {
+        ArrayList<Quad> list = new ArrayList<Quad>();
+        list.add(quad);
+        return list;
+    }
+
+    /* Constant the quad adds to the variable, or null if it does not */
+    private static Integer getStep(Quad quad, String localVar) {
+        QuadOperand operand1 = quad.getOperand1();
+        QuadOperand operand2 = quad.getOperand2();
+        if (quad.getOp() == Quad.Op.ADD && isVar(operand1, localVar) && operand2.getType() == QuadOperand.Type.INT) {
+            return Integer.parseInt(operand2.getIdentifier());
+        }
+        if (quad.getOp() == Quad.Op.ADD && isVar(operand2, localVar) && operand1.getType() == QuadOperand.Type.INT) {
+            return Integer.parseInt(operand1.getIdentifier());
+        }
+        if (quad.getOp() == Quad.Op.SUB && isVar(operand1, localVar) && operand2.getType() == QuadOperand.Type.INT) {
+            return -Integer.parseInt(operand2.getIdentifier());
+        }
+        return null;
+    }
+
+    /* Quad computing the temp var used as the index of the ARRAY quad, if it is earlier
+     * in the same block, or -1 */
+    private static int findDerivedIndex(ArrayList<Quad> quads, FlowGraph flowGraph, int address, int tempVar) {
+        for (int q = address - 1 ; q >= flowGraph.getBlock(address).getStart() ; q--) {
+            QuadOperand output = quads.get(q).getOutput();
+            if (output != null && output.getType() == QuadOperand.Type.TEMPVAR && output.getTempVar() == tempVar) {
+                return q;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isIncrementedBetween(ArrayList<Increment> increments, int from, int to) {
+        for (Increment increment : increments) {
+            if (increment.position > from && increment.position < to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Whether the local var may be read after leaving the loop, before it is assigned.
+     * Calls may read it through lifted functions, and entering the loop again reads it
+     * in the preheader. */
+    private static boolean isLiveAfter(ArrayList<Quad> quads, FlowGraph flowGraph, FlowGraph.Loop loop,
+                                       String localVar) {
+        ArrayList<FlowGraph.Block> stack = new ArrayList<FlowGraph.Block>();
+        HashSet<FlowGraph.Block> visited = new HashSet<FlowGraph.Block>();
+        for (FlowGraph.Block block : flowGraph.getBlocks()) {
+            if (!loop.contains(block)) {
+                continue;
+            }
+            for (FlowGraph.Block successor : block.getSuccessors()) {
+                if (!loop.contains(successor) && visited.add(successor)) {
+                    stack.add(successor);
+                }
+            }
+        }
+        while (!stack.isEmpty()) {
+            FlowGraph.Block block = stack.remove(stack.size() - 1);
+            if (loop.contains(block)) {
+                return true;
+            }
+            boolean assigned = false;
+            for (int q = block.getStart() ; q <= block.getEnd() && !assigned ; q++) {
+                Quad quad = quads.get(q);
+                if (readsVar(quad, localVar)
+                    || (quad.getOp() == Quad.Op.CALL
+                        && !Function.isStandardLibrary(quad.getOutput().getIdentifier()))) {
+                    return true;
+                }
+                assigned = (quad.getOp() != Quad.Op.PAR && isVar(quad.getOutput(), localVar));
+            }
+            if (assigned) {
+                continue;
+            }
+            for (FlowGraph.Block successor : block.getSuccessors()) {
+                if (visited.add(successor)) {
+                    stack.add(successor);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean readsVar(Quad quad, String localVar) {
+        if (quad.getOp() == Quad.Op.PAR) {
+            return isVar(quad.getOperand1(), localVar);
+        }
+        return isVar(quad.getOperand1(), localVar) || isVar(quad.getOperand2(), localVar);
+    }
+
+    private static boolean isVar(QuadOperand operand, String localVar) {
+        return operand != null && operand.getType() == QuadOperand.Type.IDENTIFIER
+               && operand.getIdentifier().equals(localVar);
+    }
+
+    private static boolean isInductionVar(QuadOperand operand, HashMap<String, ArrayList<Increment>> inductionVars) {
+        return operand.getType() == QuadOperand.Type.IDENTIFIER && inductionVars.containsKey(operand.getIdentifier());
+    }
+
+    /* Reads of each temp var of the function, including the ones through its address */
+    private static HashMap<Integer, Integer> countUses(ArrayList<Quad> quads, int firstQuad) {
+        HashMap<Integer, Integer> uses = new HashMap<Integer, Integer>();
+        for (int q = firstQuad ; q < quads.size() ; q++) {
+            Quad quad = quads.get(q);
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (int i = 0 ; i < operands.length ; i++) {
+                QuadOperand operand = operands[i];
+                if (operand == null || (quad.getOp() == Quad.Op.PAR
+                                        && quad.getOperand2().getType() == QuadOperand.Type.RETCALLER)) {
+                    continue;
+                }
+                if (operand.getType() == QuadOperand.Type.ADDRESS
+                    || (operand.getType() == QuadOperand.Type.TEMPVAR && i < 2)) {
+                    QuadAnalysis.increment(uses, operand.getTempVar());
+                }
+            }
+        }
+        return uses;
+    }
+
+
+    /* What the quads of a loop change */
+    private static class LoopInfo {
+        private final HashMap<String, Boolean> localVars;
+        private final ArrayList<Integer> quads;
+        private final HashMap<String, ArrayList<Integer>> definitions;
+        private final HashSet<String> passedByReference;
+        private final HashSet<Integer> definedTempVars;
+        private final HashMap<Integer, Integer> tempVarReads;
+        private boolean hasCall;
+
+        public LoopInfo(ArrayList<Quad> quads, FlowGraph flowGraph, FlowGraph.Loop loop,
+                        HashMap<String, Boolean> localVars) {
+            this.localVars = localVars;
+            this.quads = new ArrayList<Integer>();
+            this.definitions = new HashMap<String, ArrayList<Integer>>();
+            this.passedByReference = new HashSet<String>();
+            this.definedTempVars = new HashSet<Integer>();
+            this.tempVarReads = new HashMap<Integer, Integer>();
+            this.hasCall = false;
+            for (FlowGraph.Block block : flowGraph.getBlocks()) {
+                if (!loop.contains(block)) {
+                    continue;
+                }
+                for (int q = block.getStart() ; q <= block.getEnd() ; q++) {
+                    this.quads.add(q);
+                    Quad quad = quads.get(q);
+                    QuadOperand output = quad.getOutput();
+                    if (quad.getOp() == Quad.Op.CALL) {
+                        hasCall |= !Function.isStandardLibrary(output.getIdentifier());
+                        continue;
+                    }
+                    if (quad.getOp() == Quad.Op.PAR) {
+                        QuadOperand operand = quad.getOperand1();
+                        if (quad.getOperand2().getType() == QuadOperand.Type.RETCALLER) {
+                            definedTempVars.add(operand.getTempVar());
+                        } else if (quad.getOperand2().getType() == QuadOperand.Type.R
+                                   && operand.getType() == QuadOperand.Type.IDENTIFIER) {
+                            passedByReference.add(operand.getIdentifier());
+                        } else if (operand.getType() == QuadOperand.Type.TEMPVAR) {
+                            QuadAnalysis.increment(tempVarReads, operand.getTempVar());
+                        }
+                        continue;
+                    }
+                    QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2()};
+                    for (QuadOperand operand : operands) {
+                        if (operand != null && operand.getType() == QuadOperand.Type.TEMPVAR) {
+                            QuadAnalysis.increment(tempVarReads, operand.getTempVar());
+                        }
+                    }
+                    if (output == null) {
+                        continue;
+                    }
+                    if (output.getType() == QuadOperand.Type.TEMPVAR) {
+                        definedTempVars.add(output.getTempVar());
+                    } else if (output.getType() == QuadOperand.Type.IDENTIFIER
+                               && localVars.containsKey(output.getIdentifier())) {
+                        ArrayList<Integer> localVarDefinitions = definitions.get(output.getIdentifier());
+                        if (localVarDefinitions == null) {
+                            localVarDefinitions = new ArrayList<Integer>();
+                            definitions.put(output.getIdentifier(), localVarDefinitions);
+                        }
+                        localVarDefinitions.add(q);
+                    }
+                }
+            }
+        }
+
+        public int countTempVarReads(int tempVar) {
+            Integer count = tempVarReads.get(tempVar);
+            return (count == null ? 0 : count);
+        }
+
+        /* Whether the operand has the same value throughout the loop */
+        public boolean isInvariant(QuadOperand operand) {
+            switch (operand.getType()) {
+                case INT:
+                    return true;
+                case TEMPVAR:
+                    return !definedTempVars.contains(operand.getTempVar());
+                case IDENTIFIER:
+                    String identifier = operand.getIdentifier();
+                    return localVars.containsKey(identifier) && !definitions.containsKey(identifier)
+                           && !passedByReference.contains(identifier) && !(hasCall && localVars.get(identifier));
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /* Pointer temp var to the element of the array at the induction var plus the offset,
+     * or plus nothing if it is null */
+    private static class Pointer {
+        private final QuadOperand array;
+        private final String inductionVar;
+        private final QuadOperand offset;
+        private final QuadOperand tempVar;
+        private final int size;
+
+        public Pointer(QuadOperand array, String inductionVar, QuadOperand offset, QuadOperand tempVar, int size) {
+            this.array = array;
+            this.inductionVar = inductionVar;
+            this.offset = offset;
+            this.tempVar = tempVar;
+            this.size = size;
+        }
+
+        /* Output of the ARRAY quad setting the pointer */
+        public QuadOperand getAddress() {
+            return new QuadOperand(QuadOperand.Type.ADDRESS, tempVar.getTempVar());
+        }
+    }
+
+    /* Increment of an induction var by step, at the quad in position, which is the first
+     * one too unless a temp var carries the sum */
+    private static class Increment {
+        private final int first;
+        private final int position;
+        private final int step;
+
+        public Increment(int first, int position, int step) {
+            this.first = first;
+            this.position = position;
+            this.step = step;
+        }
+    }
+}
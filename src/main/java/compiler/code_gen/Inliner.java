@@ -0,0 +1,319 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.lang.String;
+
+/* Inlining of small functions on the quads, before the code of the caller is generated.
+ * Codegen runs per function, so each function is recorded once its own calls are
+ * inlined, while its scope is still open; its quads stay in the IR where they are.
+ * A call is replaced with a copy of the callee's quads, where:
+ *  - arguments by value become fresh temp vars, assigned at the call
+ *  - arguments by reference become the operand passed by the caller
+ *  - local and temp vars become fresh temp vars
+ *  - the returned value goes to the temp var the caller expects it in
+ *  - RET becomes a jump to the quad after the call
+ * Only functions of at most threshold quads are inlined, that reach no outer variables,
+ * have no local arrays and whose calls name the same functions from the caller.
+ * A function that may call back into itself is never inlined, which holds for any
+ * function calling only standard library functions or closed ones generated before it.
+ */
+public class Inliner {
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final int threshold;
+    private final HashMap<String, FunctionBody> functions;
+    private int inlinedCalls;
+
+    public Inliner(IntermediateRepresentation ir, SymbolTable symbolTable, int threshold) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.threshold = threshold;
+        this.functions = new HashMap<String, FunctionBody>();
+        this.inlinedCalls = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        ArrayList<Quad> callerQuads = new ArrayList<Quad>(quads.subList(firstQuad, quads.size()));
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        ArrayList<Quad> parameters = new ArrayList<Quad>();
+        int[] newIndex = new int[callerQuads.size() + 1];
+        int parametersStart = 0;
+        boolean changed = false;
+
+        for (int i = 0 ; i < callerQuads.size() ; i++) {
+            Quad quad = callerQuads.get(i);
+            if (quad.getOp() == Quad.Op.PAR) {
+                if (parameters.isEmpty()) {
+                    parametersStart = i;
+                }
+                parameters.add(quad);
+                continue;
+            }
+
+            /* Jumps to the parameters of an inlined call land on its first quad */
+            int position = firstQuad + newQuads.size();
+            if (quad.getOp() == Quad.Op.CALL
+                && inline(quad.getOutput().getIdentifier(), parameters, firstQuad, newQuads)) {
+                for (int j = parametersStart ; j <= i ; j++) {
+                    newIndex[j] = position;
+                }
+                parameters.clear();
+                inlinedCalls++;
+                changed = true;
+                continue;
+            }
+            for (Quad parameter : parameters) {
+                newIndex[parametersStart++] = firstQuad + newQuads.size();
+                newQuads.add(parameter);
+            }
+            parameters.clear();
+            newIndex[i] = firstQuad + newQuads.size();
+            newQuads.add(quad);
+        }
+        if (!changed) {
+            return;
+        }
+        newIndex[callerQuads.size()] = firstQuad + newQuads.size();
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+    }
+
+    /* Quads of the function start at firstQuad and end with the last quad in the IR.
+     * Called while its scope is the current one. */
+    public void record(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        String function = quads.get(firstQuad).getOperand1().getIdentifier();
+        long scope = symbolTable.getCurScope();
+        FunctionBody body = new FunctionBody(firstQuad, quads.size() - 1,
+                                             new ArrayList<Argument>(symbolTable.getArguments(scope)),
+                                             new ArrayList<Variable>(symbolTable.getLocalVars(scope)));
+
+        /* The main function shares its scope with the functions it declares */
+        boolean inlinable = (scope > 0 && body.getEnd() - body.getStart() - 1 <= threshold);
+        for (Variable variable : body.getLocalVars()) {
+            if (variable.getDimensions().size() > 0) {
+                inlinable = false;
+            }
+        }
+        for (int i = body.getStart() + 1 ; i < body.getEnd() ; i++) {
+            Quad quad = quads.get(i);
+            if (quad.getOp() == Quad.Op.CALL) {
+                String called = quad.getOutput().getIdentifier();
+                if (Function.isStandardLibrary(called)) {
+                    continue;
+                }
+                FunctionBody calledBody = functions.get(called);
+                if (calledBody == null || !calledBody.isClosed()) {
+                    body.setClosed(false);
+                }
+                body.getCalls().add(called);
+                continue;
+            }
+            if (quad.getOutput() != null && quad.getOutput().getType() == QuadOperand.Type.RETCALLED) {
+                body.setReturnsValue(true);
+            }
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (QuadOperand operand : operands) {
+                if (operand != null && operand.getType() == QuadOperand.Type.IDENTIFIER
+                    && symbolTable.lookupEntry(operand.getIdentifier()).getScope() != scope) {
+                    inlinable = false;
+                }
+            }
+        }
+        body.setInlinable(inlinable && body.isClosed());
+        functions.put(function, body);
+    }
+
+    public void printStatistics() {
+        System.out.println("Inlining:");
+        System.out.println("  inlined calls: " + inlinedCalls);
+    }
+
+    /* Append the quads replacing a call to newQuads, which start at firstQuad,
+     * or return false if it cannot be inlined */
+    private boolean inline(String called, ArrayList<Quad> parameters, int firstQuad, ArrayList<Quad> newQuads) {
+        FunctionBody body = functions.get(called);
+        if (body == null || !body.isInlinable() || !isVisible(body)) {
+            return false;
+        }
+        ArrayList<Argument> arguments = body.getArguments();
+        QuadOperand returnTempVar = null;
+        int numParameters = parameters.size();
+        if (numParameters > 0 && parameters.get(numParameters - 1).getOperand2().getType()
+                                 == QuadOperand.Type.RETCALLER) {
+            returnTempVar = parameters.get(--numParameters).getOperand1();
+        }
+        if (numParameters != arguments.size() || (returnTempVar == null && body.returnsValue())) {
+            return false;
+        }
+
+        /* Array arguments are indexed by name, so the caller must pass a whole array */
+        for (int i = 0 ; i < numParameters ; i++) {
+            Argument argument = arguments.get(i);
+            QuadOperand.Type type = parameters.get(i).getOperand1().getType();
+            if (argument.isReference()
+                && (argument.getDimensions().size() > 0 || argument.hasNoFirstDimension()
+                    ? type != QuadOperand.Type.IDENTIFIER && type != QuadOperand.Type.STRING
+                    : type != QuadOperand.Type.IDENTIFIER && type != QuadOperand.Type.ADDRESS)) {
+                return false;
+            }
+        }
+
+        HashMap<String, QuadOperand> identifiers = new HashMap<String, QuadOperand>();
+        HashMap<Integer, Integer> tempVars = new HashMap<Integer, Integer>();
+        for (int i = 0 ; i < numParameters ; i++) {
+            Argument argument = arguments.get(i);
+            QuadOperand operand = parameters.get(i).getOperand1();
+            if (argument.isReference()) {
+                identifiers.put(argument.getToken().getText(), operand);
+            } else {
+                QuadOperand tempVar = new QuadOperand(QuadOperand.Type.TEMPVAR,
+                                                      ir.newTempVar(argument.getType()));
+                identifiers.put(argument.getToken().getText(), tempVar);
+                newQuads.add(new Quad(Quad.Op.ASSIGN, operand, null, tempVar));
+            }
+        }
+        for (Variable variable : body.getLocalVars()) {
+            identifiers.put(variable.getToken().getText(),
+                            new QuadOperand(QuadOperand.Type.TEMPVAR, ir.newTempVar(variable.getType())));
+        }
+
+        /* Quads of the body keep their order, and the ENDU maps to the quad after them */
+        ArrayList<Quad> quads = ir.getQuads();
+        int base = firstQuad + newQuads.size() - (body.getStart() + 1);
+        for (int i = body.getStart() + 1 ; i < body.getEnd() ; i++) {
+            Quad quad = quads.get(i);
+            if (quad.getOp() == Quad.Op.RET) {
+                newQuads.add(new Quad(Quad.Op.JUMP, null, null,
+                                      new QuadOperand(QuadOperand.Type.LABEL, base + body.getEnd())));
+                continue;
+            }
+            newQuads.add(new Quad(quad.getOp(),
+                                  copyOperand(quad.getOperand1(), identifiers, tempVars, returnTempVar, base),
+                                  copyOperand(quad.getOperand2(), identifiers, tempVars, returnTempVar, base),
+                                  copyOperand(quad.getOutput(), identifiers, tempVars, returnTempVar, base)));
+        }
+        return true;
+    }
+
+    /* Whether every function the body calls is the same one when named from the caller */
+    private boolean isVisible(FunctionBody body) {
+        for (String called : body.getCalls()) {
+            String originalName = FinalCode.uniqueToOriginal(called);
+            SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(originalName);
+            if (symbolEntry == null || !(symbolEntry.getSymbol() instanceof Function)
+                || !FinalCode.makeUniqueFunctionName(originalName, String.valueOf(symbolEntry.getScope()))
+                             .equals(called)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private QuadOperand copyOperand(QuadOperand operand, HashMap<String, QuadOperand> identifiers,
+                                    HashMap<Integer, Integer> tempVars, QuadOperand returnTempVar, int base) {
+        if (operand == null) {
+            return null;
+        }
+        switch (operand.getType()) {
+            case TEMPVAR:
+            case ADDRESS:
+                Integer tempVar = tempVars.get(operand.getTempVar());
+                if (tempVar == null) {
+                    tempVar = ir.newTempVar(ir.getTempVars().get(operand.getTempVar()));
+                    ArrayInfo arrayInfo = ir.getArrayInfo().get(operand.getTempVar());
+                    if (arrayInfo != null) {
+                        ir.getArrayInfo().put(tempVar, arrayInfo);
+                    }
+                    tempVars.put(operand.getTempVar(), tempVar);
+                }
+                return new QuadOperand(operand.getType(), tempVar);
+            case IDENTIFIER:
+                QuadOperand replacement = identifiers.get(operand.getIdentifier());
+                return (replacement == null ? operand : replacement);
+            case RETCALLED:
+                return returnTempVar;
+            case LABEL:
+                return new QuadOperand(QuadOperand.Type.LABEL, base + operand.getTempVar());
+            default:
+                return operand;
+        }
+    }
+
+    /* Quads of a recorded function, from its UNIT to its ENDU, along with:
+     *  - its arguments in order and its local vars
+     *  - the functions it calls besides the standard library ones
+     *  - whether it is closed, meaning all it calls is generated before it and closed too
+     *  - whether it assigns a value to return
+     *  - whether its calls may be inlined
+     */
+    private static class FunctionBody {
+        private final int start;
+        private final int end;
+        private final ArrayList<Argument> arguments;
+        private final ArrayList<Variable> localVars;
+        private final HashSet<String> calls;
+        private boolean closed;
+        private boolean returnsValue;
+        private boolean inlinable;
+
+        public FunctionBody(int start, int end, ArrayList<Argument> arguments, ArrayList<Variable> localVars) {
+            this.start = start;
+            this.end = end;
+            this.arguments = arguments;
+            this.localVars = localVars;
+            this.calls = new HashSet<String>();
+            this.closed = true;
+            this.returnsValue = false;
+            this.inlinable = false;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public ArrayList<Argument> getArguments() {
+            return arguments;
+        }
+
+        public ArrayList<Variable> getLocalVars() {
+            return localVars;
+        }
+
+        public HashSet<String> getCalls() {
+            return calls;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public void setClosed(boolean closed) {
+            this.closed = closed;
+        }
+
+        public boolean returnsValue() {
+            return returnsValue;
+        }
+
+        public void setReturnsValue(boolean returnsValue) {
+            this.returnsValue = returnsValue;
+        }
+
+        public boolean isInlinable() {
+            return inlinable;
+        }
+
+        public void setInlinable(boolean inlinable) {
+            this.inlinable = inlinable;
+        }
+    }
+}
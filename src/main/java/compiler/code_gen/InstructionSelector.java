@@ -0,0 +1,397 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.lang.String;
+
+/* Bottom-up tree pattern instruction selection, in the style of BURS, for the quads of
+ * a function that operate on ints. Each quad is a tree with its operator at the root
+ * and its operands as leaves, where an array element is the subtree of the ARRAY quad
+ * computing its address, folded into the quad that uses it. FinalCode labels each leaf
+ * with the nonterminals it can be taken as, an immediate, a register or a memory
+ * operand, which are free, or else with the cost of loading it into a register and of
+ * storing to it through the templates. A folded element is a memory operand when its
+ * base and index need no scratch register. The rules give the cost of covering the root
+ * from those labels, and FinalCode emits the cheapest cover. Costs count instructions.
+ */
+public class InstructionSelector {
+    public static final int IMMEDIATE = 0;
+    public static final int REGISTER = 1;
+    public static final int MEMORY = 2;
+
+    public enum Rule {
+        /* mov d, a, or a loaded straight into the register d */
+        MOVE,
+        /* a loaded into eax, which is stored to d */
+        MOVE_THROUGH,
+        /* a loaded into eax, op eax, b, and eax stored to d */
+        OPERATE,
+        /* a loaded into the register d, op d, b */
+        OPERATE_IN_PLACE,
+        /* op d, b on the memory operand d, which is a */
+        OPERATE_MEMORY,
+        /* lea d, [a+b] or [a+c] on the register a */
+        LEA,
+        /* imul d, a, c */
+        IMUL_IMMEDIATE,
+        /* cmp a, b */
+        COMPARE,
+        /* a loaded into eax, cmp eax, b */
+        COMPARE_THROUGH
+    }
+
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final HashMap<Integer, Quad> foldedArrays;
+    private int foldedAccesses;
+    private final LinkedHashMap<Rule, Integer> selectedRules;
+
+    public InstructionSelector(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.foldedArrays = new HashMap<Integer, Quad>();
+        this.foldedAccesses = 0;
+        this.selectedRules = new LinkedHashMap<Rule, Integer>();
+        for (Rule rule : Rule.values()) {
+            selectedRules.put(rule, 0);
+        }
+    }
+
+    /* Folds each ARRAY quad whose address a single quad uses into that quad, moving it
+     * right before the use so that the index stays live up to the access. Quads in
+     * between must be in the same block and change neither the index nor, if it is not
+     * a local of the function, anything that may alias it. An element of an array that
+     * is neither local nor an argument of the function, so that its base takes a
+     * register of its own, is only folded at a constant index.
+     * Called at the UNIT of the function, while its scope is the current one. */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        foldedArrays.clear();
+        HashSet<Integer> jumpTargets = new HashSet<Integer>();
+        HashMap<Integer, Integer> definitions = new HashMap<Integer, Integer>();
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            QuadOperand output = quads.get(i).getOutput();
+            if (output == null) {
+                continue;
+            }
+            if (output.getType() == QuadOperand.Type.LABEL) {
+                jumpTargets.add(output.getTempVar());
+            } else if (output.getType() == QuadOperand.Type.TEMPVAR || output.getType() == QuadOperand.Type.ADDRESS) {
+                Integer count = definitions.get(output.getTempVar());
+                definitions.put(output.getTempVar(), (count == null ? 1 : count + 1));
+            }
+        }
+
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            if (quad.getOp() != Quad.Op.ARRAY || definitions.get(quad.getOutput().getTempVar()) != 1
+                || foldedArrays.containsKey(quad.getOutput().getTempVar())) {
+                continue;
+            }
+            int tempVar = quad.getOutput().getTempVar();
+            int use = getSingleUse(tempVar, firstQuad);
+            if (use <= i || !canFold(quad, i, use, jumpTargets)) {
+                continue;
+            }
+            for (int j = i ; j < use - 1 ; j++) {
+                quads.set(j, quads.get(j+1));
+            }
+            quads.set(use - 1, quad);
+            foldedArrays.put(tempVar, quad);
+            foldedAccesses++;
+
+            /* The quad now at i has not been looked at */
+            i--;
+        }
+    }
+
+    /* The ARRAY quad computing the address of the temp var, if folded into its use */
+    public Quad getFoldedArray(int tempVar) {
+        return foldedArrays.get(tempVar);
+    }
+
+    public Map<Integer, Quad> getFoldedArrays() {
+        return foldedArrays;
+    }
+
+    /* mov d, a */
+    public Selection selectMove(Operand source, Operand destination) {
+        Selection best = new Selection(Rule.MOVE_THROUGH, false,
+                                       source.getLoadCost() + destination.getStoreCost());
+        if (destination.has(REGISTER)) {
+            best = cheaper(best, Rule.MOVE, false, (source.sameAs(destination) ? 0 : source.getLoadCost()));
+        } else if (destination.has(MEMORY) && (source.has(IMMEDIATE) || source.has(REGISTER))) {
+            best = cheaper(best, Rule.MOVE, false, 1);
+        }
+        return record(best);
+    }
+
+    /* d <- a op b, for ADD, SUB and MULT */
+    public Selection selectOperation(Quad.Op op, Operand first, Operand second, Operand destination) {
+        Selection best = null;
+        boolean commutative = (op == Quad.Op.ADD || op == Quad.Op.MULT);
+        for (int swap = 0 ; swap < (commutative ? 2 : 1) ; swap++) {
+            boolean swapped = (swap == 1);
+            Operand a = (swapped ? second : first);
+            Operand b = (swapped ? first : second);
+            int operandCost = b.getOperandCost();
+            best = cheaper(best, Rule.OPERATE, swapped,
+                           a.getLoadCost() + 1 + operandCost + destination.getStoreCost());
+            if (destination.has(REGISTER) && (a.sameAs(destination)
+                                              || (b.getSource() != null && !b.mentions(destination.get(REGISTER))))) {
+                best = cheaper(best, Rule.OPERATE_IN_PLACE, swapped,
+                               (a.sameAs(destination) ? 0 : a.getLoadCost()) + 1 + operandCost);
+            }
+            if (op != Quad.Op.MULT && destination.has(MEMORY) && a.sameAs(destination)
+                && (b.has(IMMEDIATE) || b.has(REGISTER))) {
+                best = cheaper(best, Rule.OPERATE_MEMORY, swapped, 1);
+            }
+            int storeCost = (destination.has(REGISTER) ? 0 : destination.getStoreCost());
+            if (a.has(REGISTER) && ((op == Quad.Op.ADD && (b.has(REGISTER) || b.has(IMMEDIATE)))
+                                    || (op == Quad.Op.SUB && b.has(IMMEDIATE)
+                                        && !b.get(IMMEDIATE).equals(String.valueOf(Integer.MIN_VALUE))))) {
+                best = cheaper(best, Rule.LEA, swapped, 1 + storeCost);
+            }
+            if (op == Quad.Op.MULT && b.has(IMMEDIATE) && (a.has(REGISTER) || a.has(MEMORY))) {
+                best = cheaper(best, Rule.IMUL_IMMEDIATE, swapped, 1 + storeCost);
+            }
+        }
+        return record(best);
+    }
+
+    /* cmp a, b, followed by the conditional jump */
+    public Selection selectComparison(Operand first, Operand second) {
+        Selection best = null;
+        for (int swap = 0 ; swap < 2 ; swap++) {
+            boolean swapped = (swap == 1);
+            Operand a = (swapped ? second : first);
+            Operand b = (swapped ? first : second);
+            if ((a.has(REGISTER) && (b.has(IMMEDIATE) || b.has(REGISTER) || b.has(MEMORY)))
+                || (a.has(MEMORY) && (b.has(IMMEDIATE) || b.has(REGISTER)))) {
+                best = cheaper(best, Rule.COMPARE, swapped, 1);
+            }
+            best = cheaper(best, Rule.COMPARE_THROUGH, swapped, a.getLoadCost() + b.getOperandCost() + 1);
+        }
+        return record(best);
+    }
+
+    public void printStatistics() {
+        System.out.println("Instruction selection:");
+        System.out.println("  array accesses folded into addressing modes: " + foldedAccesses);
+        for (Rule rule : selectedRules.keySet()) {
+            System.out.println("  " + rule.toString().toLowerCase().replace('_', ' ') + ": " +
+                               selectedRules.get(rule));
+        }
+    }
+
+    private Selection cheaper(Selection best, Rule rule, boolean swapped, int cost) {
+        if (best == null || cost < best.getCost()) {
+            return new Selection(rule, swapped, cost);
+        }
+        return best;
+    }
+
+    private Selection record(Selection selection) {
+        selectedRules.put(selection.getRule(), selectedRules.get(selection.getRule()) + 1);
+        return selection;
+    }
+
+    /* Index of the only quad using the address in the temp var, or -1 if there is none,
+     * more than one or one using it as a pointer */
+    private int getSingleUse(int tempVar, int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        int use = -1;
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (int j = 0 ; j < operands.length ; j++) {
+                QuadOperand operand = operands[j];
+                if (operand == null || (operand.getType() != QuadOperand.Type.TEMPVAR
+                                        && operand.getType() != QuadOperand.Type.ADDRESS)
+                    || operand.getTempVar() != tempVar || (quad.getOp() == Quad.Op.ARRAY && j == 2)) {
+                    continue;
+                }
+                if (operand.getType() == QuadOperand.Type.TEMPVAR || (use >= 0 && use != i)) {
+                    return -1;
+                }
+                if (operand.getType() == QuadOperand.Type.ADDRESS) {
+                    use = i;
+                }
+            }
+        }
+        return use;
+    }
+
+    /* An element used as the index of another one is not folded, as that ARRAY quad
+     * may itself move */
+    private boolean canFold(Quad arrayQuad, int arrayIndex, int use, HashSet<Integer> jumpTargets) {
+        ArrayList<Quad> quads = ir.getQuads();
+        long scope = symbolTable.getCurScope();
+        QuadOperand index = arrayQuad.getOperand2();
+        if (quads.get(use).getOp() == Quad.Op.ARRAY || index.getType() == QuadOperand.Type.ADDRESS) {
+            return false;
+        }
+        boolean constantIndex = (index.getType() == QuadOperand.Type.INT);
+        QuadOperand array = arrayQuad.getOperand1();
+        if (!constantIndex && (array.getType() != QuadOperand.Type.IDENTIFIER
+                               || symbolTable.lookupEntry(array.getIdentifier()).getScope() != scope)) {
+            return false;
+        }
+        boolean localIndex = constantIndex || index.getType() == QuadOperand.Type.TEMPVAR;
+        if (index.getType() == QuadOperand.Type.IDENTIFIER) {
+            SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(index.getIdentifier());
+            Symbol symbol = symbolEntry.getSymbol();
+            localIndex = symbolEntry.getScope() == scope
+                         && !(symbol instanceof Argument && ((Argument)symbol).isReference());
+        }
+
+        /* Parameters are loaded at the CALL */
+        int end = use;
+        if (quads.get(use).getOp() == Quad.Op.PAR) {
+            while (end < quads.size() && quads.get(end).getOp() == Quad.Op.PAR) {
+                end++;
+            }
+            if (end == quads.size() || quads.get(end).getOp() != Quad.Op.CALL) {
+                return false;
+            }
+        }
+        for (int i = arrayIndex + 1 ; i <= end ; i++) {
+            if (jumpTargets.contains(i)) {
+                return false;
+            }
+            if (i == use || i == end) {
+                continue;
+            }
+            Quad quad = quads.get(i);
+            switch (quad.getOp()) {
+                case ARRAY:
+                case ASSIGN:
+                case ADD:
+                case SUB:
+                case MULT:
+                case DIV:
+                case MOD:
+                case PAR:
+                    break;
+                default:
+                    return false;
+            }
+            QuadOperand output = quad.getOutput();
+            if (quad.getOp() == Quad.Op.PAR || output == null || constantIndex) {
+                continue;
+            }
+            if (index.getType() == QuadOperand.Type.TEMPVAR) {
+                if ((output.getType() == QuadOperand.Type.TEMPVAR || output.getType() == QuadOperand.Type.ADDRESS)
+                    && output.getTempVar() == index.getTempVar()) {
+                    return false;
+                }
+            } else if (output.getType() == QuadOperand.Type.IDENTIFIER
+                       && output.getIdentifier().equals(index.getIdentifier())) {
+                return false;
+            } else if (!localIndex && (output.getType() == QuadOperand.Type.IDENTIFIER
+                                       || output.getType() == QuadOperand.Type.ADDRESS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Leaf of a tree, with the text of each nonterminal it can be taken as, or null.
+     * Loading it into a register or storing to it through the templates otherwise
+     * takes the given number of instructions. */
+    public static class Operand {
+        private final QuadOperand quadOperand;
+        private final String[] forms;
+        private final int loadCost;
+        private final int storeCost;
+
+        public Operand(QuadOperand quadOperand, String immediate, String register, String memory,
+                       int loadCost, int storeCost) {
+            this.quadOperand = quadOperand;
+            this.forms = new String[] {immediate, register, memory};
+            this.loadCost = loadCost;
+            this.storeCost = storeCost;
+        }
+
+        public QuadOperand getQuadOperand() {
+            return quadOperand;
+        }
+
+        public boolean has(int nonterminal) {
+            return forms[nonterminal] != null;
+        }
+
+        public String get(int nonterminal) {
+            return forms[nonterminal];
+        }
+
+        /* Text of the operand as the source of an instruction, or null if it must be loaded */
+        public String getSource() {
+            for (String form : forms) {
+                if (form != null) {
+                    return form;
+                }
+            }
+            return null;
+        }
+
+        /* Instructions loading the operand into a register */
+        public int getLoadCost() {
+            return (getSource() != null ? 1 : loadCost);
+        }
+
+        /* Instructions storing a register to the operand */
+        public int getStoreCost() {
+            return (has(REGISTER) || has(MEMORY) ? 1 : storeCost);
+        }
+
+        /* Extra instructions for using the operand as the source of an instruction */
+        public int getOperandCost() {
+            return (getSource() != null ? 0 : loadCost);
+        }
+
+        public boolean sameAs(Operand operand) {
+            String source = getSource();
+            return source != null && !has(IMMEDIATE) && source.equals(operand.getSource());
+        }
+
+        /* Whether the operand reads the given register */
+        public boolean mentions(String register) {
+            for (String form : forms) {
+                if (form != null && Peephole.mentions(form, register)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static class Selection {
+        private final Rule rule;
+        private final boolean swapped;
+        private final int cost;
+
+        public Selection(Rule rule, boolean swapped, int cost) {
+            this.rule = rule;
+            this.swapped = swapped;
+            this.cost = cost;
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        /* Whether the operands are taken in reverse order */
+        public boolean isSwapped() {
+            return swapped;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+    }
+}
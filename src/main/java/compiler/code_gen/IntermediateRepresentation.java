@@ -4,24 +4,22 @@ import compiler.symbol_table.Type;
 import compiler.node.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.ListIterator;
+import java.util.Set;
 import java.lang.String;
 
 public class IntermediateRepresentation {
     private final ArrayList<Quad> quads;
     private final ArrayList<Type> tempVars;
     private final HashMap<Integer, ArrayInfo> arrayInfo;
-    private final HashSet<Integer> labels; // Used only by Optimizer
-    private final boolean optimize;
 
-    public IntermediateRepresentation(boolean optimize) {
+    public IntermediateRepresentation() {
         this.quads = new ArrayList<Quad>();
         this.tempVars = new ArrayList<Type>();
         this.arrayInfo = new HashMap<Integer, ArrayInfo>();
-        this.labels = new HashSet<Integer>();
-        this.optimize = optimize;
     }
 
     public int getNextQuadIndex() {
@@ -40,25 +38,25 @@ public class IntermediateRepresentation {
     public void backpatch(ArrayList<Integer> toBackpatch, int destinationQuad) {
         for (Integer quad : toBackpatch) {
             quads.get(quad).setOutput(new QuadOperand(QuadOperand.Type.LABEL, destinationQuad));
-            if (optimize) {
-                labels.add(destinationQuad);
-            }
         }
     }
 
-    boolean quadIsLabel(int quad) {
-        Quad.Op op = quads.get(quad).getOp();
-        return labels.contains(quad) || op == Quad.Op.ENDU;
-    }
-
-    boolean quadIsJump(int quad) {
-        Quad.Op op = quads.get(quad).getOp();
-        return op == Quad.Op.JUMP ||  op == Quad.Op.CALL || op == Quad.Op.RET ||
-               op == Quad.Op.EQUAL || op == Quad.Op.NOT_EQUAL ||
-               op == Quad.Op.GREATER || op == Quad.Op.LESS ||
-               op == Quad.Op.GREATER_EQUAL || op == Quad.Op.LESS_EQUAL ||
-               op == Quad.Op.ENDU;
+    /* Replace the quads from the given index onwards, where newIndex maps each old quad
+     * to its new index, or to the one that takes its place. Jumps of the old quads
+     * that are kept are redirected, while new ones must already be. */
+    void replaceQuads(int firstQuad, ArrayList<Quad> newQuads, int[] newIndex) {
+        Set<Quad> oldQuads = Collections.newSetFromMap(new IdentityHashMap<Quad, Boolean>());
+        oldQuads.addAll(quads.subList(firstQuad, quads.size()));
+        for (Quad quad : newQuads) {
+            QuadOperand output = quad.getOutput();
+            if (oldQuads.contains(quad) && output != null && output.getType() == QuadOperand.Type.LABEL) {
+                quad.setOutput(new QuadOperand(QuadOperand.Type.LABEL,
+                                               newIndex[output.getTempVar() - firstQuad]));
+            }
         }
+        quads.subList(firstQuad, quads.size()).clear();
+        quads.addAll(newQuads);
+    }
 
     public void print(int quadIndex, int tempVarIndex) {
         for (ListIterator<Quad> it = quads.listIterator(quadIndex) ; it.hasNext() ; ) {
@@ -85,8 +83,4 @@ public class IntermediateRepresentation {
     public HashMap<Integer, ArrayInfo> getArrayInfo() {
         return arrayInfo;
     }
-
-    public HashSet<Integer> getLabels() {
-        return labels;
-    }
 }
@@ -0,0 +1,211 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.lang.String;
+
+/* Decides, when the code of a function is about to be generated, whether it needs an
+ * access link. A function needs one if it, or a function nested in it, follows the link
+ * chain past its own frame: to reach a variable of an enclosing scope, or to compute the
+ * access link of a function it calls. A function whose only such uses are reads of a few
+ * scalar variables gets them as extra arguments instead, as long as nothing it calls
+ * can write them while it runs.
+ *
+ * Nested functions are generated before their parent, so by then their needs are known.
+ * A function called before its code is generated, through a forward declaration or from
+ * a function nested in it, keeps its access link, since the call was generated assuming one.
+ * The same holds on X86 for a function whose arguments a nested function reads, as they
+ * were addressed assuming the access link below them.
+ */
+public class LambdaLifter {
+    private static final int maxLiftedVars = 4;
+
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final HashMap<String, FunctionInfo> functions;
+    private final HashMap<Long, Long> nestedReach;
+    private final HashSet<Long> linkAssumed;
+
+    public LambdaLifter(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.functions = new HashMap<String, FunctionInfo>();
+        this.nestedReach = new HashMap<Long, Long>();
+        this.linkAssumed = new HashSet<Long>();
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT */
+    public FunctionInfo analyze(String function, long scope, int firstQuad) {
+        FunctionInfo info = functions.get(function);
+        boolean forced = (info != null || linkAssumed.contains(scope));
+        long reach = scope;
+        boolean liftable = !forced;
+        ArrayList<Variable> outerVars = new ArrayList<Variable>();
+        ArrayList<Long> outerScopes = new ArrayList<Long>();
+
+        ArrayList<Quad> quads = ir.getQuads();
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            switch (quad.getOp()) {
+                case UNIT:
+                case ENDU:
+                    break;
+                case CALL:
+                    String called = quad.getOutput().getIdentifier();
+                    if (Function.isStandardLibrary(called) || called.equals(function)) {
+                        break;
+                    }
+                    long calledScope = symbolTable.lookupEntry(FinalCode.uniqueToOriginal(called)).getScope() + 1;
+                    FunctionInfo calledInfo = getCallee(called);
+                    if (calledInfo.hasAccessLink() && calledScope - 1 < scope) {
+                        reach = Math.min(reach, calledScope - 1);
+                        liftable = false;
+                    }
+                    for (int j = 0 ; j < calledInfo.getLiftedVars().size() ; j++) {
+                        long varScope = calledInfo.getLiftedScopes().get(j);
+                        if (varScope != scope) {
+                            addOuterVar(outerVars, outerScopes, calledInfo.getLiftedVars().get(j), varScope);
+                            reach = Math.min(reach, varScope);
+                        }
+                    }
+                    break;
+                default:
+                    QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+                    for (int j = 0 ; j < operands.length ; j++) {
+                        if (operands[j] == null || operands[j].getType() != QuadOperand.Type.IDENTIFIER) {
+                            continue;
+                        }
+                        SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(operands[j].getIdentifier());
+                        if (symbolEntry.getScope() == scope || !(symbolEntry.getSymbol() instanceof Variable)) {
+                            continue;
+                        }
+                        Variable variable = (Variable)symbolEntry.getSymbol();
+                        reach = Math.min(reach, symbolEntry.getScope());
+                        boolean written = (j == 2 || quad.getOp() == Quad.Op.ARRAY
+                                           || (quad.getOp() == Quad.Op.PAR
+                                               && quad.getOperand2().getType() == QuadOperand.Type.R));
+                        if (written || variable.getDimensions().size() > 0) {
+                            liftable = false;
+                        }
+                        addOuterVar(outerVars, outerScopes, variable, symbolEntry.getScope());
+                    }
+            }
+        }
+
+        Long nested = nestedReach.remove(scope);
+        if (nested != null && nested < scope) {
+            reach = Math.min(reach, nested);
+            liftable = false;
+        }
+        if (outerVars.size() > maxLiftedVars) {
+            liftable = false;
+        }
+
+        if (liftable) {
+            info = new FunctionInfo(false, outerVars, outerScopes, scope);
+        } else {
+            info = new FunctionInfo(forced || reach < scope, new ArrayList<Variable>(),
+                                    new ArrayList<Long>(), reach);
+        }
+        functions.put(function, info);
+        return info;
+    }
+
+    /* Called after the code of the function is generated. Walks through its
+     * access link are accounted to its parent. */
+    public void finish(String function, long scope) {
+        linkAssumed.remove(scope);
+        long reach = functions.get(function).getReach();
+        if (reach < scope - 1) {
+            Long parentReach = nestedReach.get(scope - 1);
+            nestedReach.put(scope - 1, (parentReach == null ? reach : Math.min(parentReach, reach)));
+        }
+    }
+
+    /* Info of a function about to be called, which keeps its access link if not analyzed yet */
+    public FunctionInfo getCallee(String function) {
+        FunctionInfo info = functions.get(function);
+        if (info == null) {
+            info = new FunctionInfo(true, new ArrayList<Variable>(), new ArrayList<Long>(), -1);
+            functions.put(function, info);
+        }
+        return info;
+    }
+
+    /* A nested function addressed an argument of the function at the given scope */
+    public void assumeLink(long scope) {
+        linkAssumed.add(scope);
+    }
+
+    private static void addOuterVar(ArrayList<Variable> outerVars, ArrayList<Long> outerScopes,
+                                    Variable variable, long scope) {
+        for (Variable outerVar : outerVars) {
+            if (outerVar == variable) {
+                return;
+            }
+        }
+        outerVars.add(variable);
+        outerScopes.add(scope);
+    }
+
+    /* Calling convention of a function:
+     *  - whether it takes an access link
+     *  - the outer variables it takes as extra arguments after its own, and their scopes
+     *  - the outermost scope it reaches through its access link
+     */
+    public static class FunctionInfo {
+        private final boolean accessLink;
+        private final ArrayList<Variable> liftedVars;
+        private final ArrayList<Long> liftedScopes;
+        private final ArrayDeque<Argument> liftedArguments;
+        private final long reach;
+
+        public FunctionInfo(boolean accessLink, ArrayList<Variable> liftedVars,
+                            ArrayList<Long> liftedScopes, long reach) {
+            this.accessLink = accessLink;
+            this.liftedVars = liftedVars;
+            this.liftedScopes = liftedScopes;
+            this.liftedArguments = new ArrayDeque<Argument>();
+            for (Variable variable : liftedVars) {
+                liftedArguments.add(new Argument(variable.getToken(), variable.getType(),
+                                                 new ArrayList<Integer>(), false, false));
+            }
+            this.reach = reach;
+        }
+
+        public boolean hasAccessLink() {
+            return accessLink;
+        }
+
+        public ArrayList<Variable> getLiftedVars() {
+            return liftedVars;
+        }
+
+        public ArrayList<Long> getLiftedScopes() {
+            return liftedScopes;
+        }
+
+        /* The extra arguments, as seen from inside the function */
+        public ArrayDeque<Argument> getLiftedArguments() {
+            return liftedArguments;
+        }
+
+        /* Extra argument standing for the given outer variable, or null */
+        public Argument getLiftedArgument(Symbol symbol) {
+            int i = 0;
+            for (Argument argument : liftedArguments) {
+                if (liftedVars.get(i++) == symbol) {
+                    return argument;
+                }
+            }
+            return null;
+        }
+
+        public long getReach() {
+            return reach;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package compiler.code_gen;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.lang.String;
+
+/* Live intervals of the temp vars and of some scalar local variables over the quads of
+ * a single UNIT..ENDU range, from backward liveness on the quad level flow graph. Vars
+ * are numbered with the temp vars first, from firstTempVar, and then the local vars in
+ * the given map. Pointer vars among them are reference arguments, which hold an address
+ * that is set on entry and used wherever the argument is read or written.
+ * An interval spans every quad where its var is live, used or defined,
+ * by position from the UNIT. Operands are read before the result is written, so an
+ * interval ending at the quad where another one starts does not overlap with it.
+ * An array element whose ARRAY quad is folded into the quad accessing it may be
+ * addressed after that quad writes its result, so the operands of the ARRAY quad
+ * stay live one quad past the access.
+ */
+public class LiveIntervals {
+    private final ArrayList<Quad> quads;
+    private final int firstQuad;
+    private final int lastQuad;
+    private final int firstTempVar;
+    private final HashMap<String, Integer> localVars;
+    private final HashSet<String> pointerVars;
+    private final Map<Integer, Quad> foldedArrays;
+    private final int[] start;
+    private final int[] end;
+
+    public LiveIntervals(IntermediateRepresentation ir, int firstQuad, int firstTempVar,
+                         HashMap<String, Integer> localVars) {
+        this(ir, firstQuad, firstTempVar, localVars, new HashSet<String>());
+    }
+
+    public LiveIntervals(IntermediateRepresentation ir, int firstQuad, int firstTempVar,
+                         HashMap<String, Integer> localVars, HashSet<String> pointerVars) {
+        this(ir, firstQuad, firstTempVar, localVars, pointerVars, new HashMap<Integer, Quad>());
+    }
+
+    /* Folded arrays map the temp vars of the ARRAY quads folded into their use to those quads */
+    public LiveIntervals(IntermediateRepresentation ir, int firstQuad, int firstTempVar,
+                         HashMap<String, Integer> localVars, HashSet<String> pointerVars,
+                         Map<Integer, Quad> foldedArrays) {
+        this.quads = ir.getQuads();
+        this.firstQuad = firstQuad;
+        this.lastQuad = quads.size() - 1;
+        this.firstTempVar = firstTempVar;
+        this.localVars = localVars;
+        this.pointerVars = pointerVars;
+        this.foldedArrays = foldedArrays;
+
+        int numQuads = lastQuad - firstQuad + 1;
+        int numVars = ir.getTempVars().size() - firstTempVar + localVars.size();
+        BitSet[] use = new BitSet[numQuads];
+        BitSet[] def = new BitSet[numQuads];
+        BitSet[] accessed = new BitSet[numQuads];
+        computeUseDef(use, def, accessed, numVars);
+
+        int[] jumpTarget = new int[numQuads];
+        for (int i = 0 ; i < numQuads ; i++) {
+            jumpTarget[i] = getJumpTarget(firstQuad + i);
+        }
+        BitSet[] liveIn = new BitSet[numQuads];
+        for (int i = 0 ; i < numQuads ; i++) {
+            liveIn[i] = new BitSet(numVars);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = numQuads - 1 ; i >= 0 ; i--) {
+                BitSet liveOut = new BitSet(numVars);
+                if (fallsThrough(firstQuad + i) && i + 1 < numQuads) {
+                    liveOut.or(liveIn[i+1]);
+                }
+                if (jumpTarget[i] >= 0) {
+                    liveOut.or(liveIn[jumpTarget[i]]);
+                }
+                liveOut.andNot(def[i]);
+                liveOut.or(use[i]);
+                if (!liveOut.equals(liveIn[i])) {
+                    liveIn[i] = liveOut;
+                    changed = true;
+                }
+            }
+        }
+
+        this.start = new int[numVars];
+        this.end = new int[numVars];
+        for (int v = 0 ; v < numVars ; v++) {
+            start[v] = -1;
+        }
+        for (int i = 0 ; i < numQuads ; i++) {
+            BitSet touched = (BitSet)liveIn[i].clone();
+            touched.or(def[i]);
+            touched.or(use[i]);
+            for (int v = touched.nextSetBit(0) ; v >= 0 ; v = touched.nextSetBit(v+1)) {
+                if (start[v] < 0) {
+                    start[v] = i;
+                }
+                end[v] = i;
+            }
+        }
+        for (int i = 0 ; i < numQuads ; i++) {
+            for (int v = accessed[i].nextSetBit(0) ; v >= 0 ; v = accessed[i].nextSetBit(v+1)) {
+                end[v] = Math.max(end[v], Math.min(i + 1, numQuads - 1));
+            }
+        }
+    }
+
+    public int getNumVars() {
+        return start.length;
+    }
+
+    /* First quad of the interval of the var, or -1 if it never appears */
+    public int getStart(int var) {
+        return start[var];
+    }
+
+    public int getEnd(int var) {
+        return end[var];
+    }
+
+    /* Parameters are pushed when the CALL is reached, so PAR operands are used there.
+     * Accessed holds the operands of the folded ARRAY quads whose element each quad accesses. */
+    private void computeUseDef(BitSet[] use, BitSet[] def, BitSet[] accessed, int numVars) {
+        BitSet pendingParameters = new BitSet(numVars);
+        BitSet pendingElements = new BitSet(numVars);
+        int returnVar = -1;
+        for (int i = firstQuad ; i <= lastQuad ; i++) {
+            Quad quad = quads.get(i);
+            BitSet quadUse = new BitSet(numVars);
+            BitSet quadDef = new BitSet(numVars);
+            BitSet quadAccessed = new BitSet(numVars);
+            switch (quad.getOp()) {
+                case PAR:
+                    switch (quad.getOperand2().getType()) {
+                        case V:
+                        case R:
+                            addUse(pendingParameters, quad.getOperand1());
+                            addFoldedUses(pendingElements, quad.getOperand1());
+                            break;
+                        case RETCALLER:
+                            returnVar = getVar(quad.getOperand1());
+                            break;
+                    }
+                    break;
+                case CALL:
+                    quadUse.or(pendingParameters);
+                    pendingParameters.clear();
+                    quadAccessed.or(pendingElements);
+                    pendingElements.clear();
+                    if (returnVar >= 0) {
+                        quadDef.set(returnVar);
+                        returnVar = -1;
+                    }
+                    break;
+                case ARRAY:
+                    addUse(quadUse, quad.getOperand1());
+                    addUse(quadUse, quad.getOperand2());
+                    quadDef.set(getVar(new QuadOperand(QuadOperand.Type.TEMPVAR,
+                                                       quad.getOutput().getTempVar())));
+                    break;
+                case ASSIGN:
+                case ADD:
+                case SUB:
+                case MULT:
+                case DIV:
+                case MOD:
+                    addUse(quadUse, quad.getOperand1());
+                    addUse(quadUse, quad.getOperand2());
+                    addFoldedUses(quadAccessed, quad.getOperand1());
+                    addFoldedUses(quadAccessed, quad.getOperand2());
+                    addFoldedUses(quadAccessed, quad.getOutput());
+                    if (quad.getOutput().getType() == QuadOperand.Type.ADDRESS
+                        || (quad.getOutput().getType() == QuadOperand.Type.IDENTIFIER
+                            && pointerVars.contains(quad.getOutput().getIdentifier()))) {
+                        addUse(quadUse, quad.getOutput());
+                    } else {
+                        int var = getVar(quad.getOutput());
+                        if (var >= 0) {
+                            quadDef.set(var);
+                        }
+                    }
+                    break;
+                case EQUAL:
+                case NOT_EQUAL:
+                case GREATER:
+                case LESS:
+                case GREATER_EQUAL:
+                case LESS_EQUAL:
+                    addUse(quadUse, quad.getOperand1());
+                    addUse(quadUse, quad.getOperand2());
+                    addFoldedUses(quadAccessed, quad.getOperand1());
+                    addFoldedUses(quadAccessed, quad.getOperand2());
+                    break;
+                default:
+                    break;
+            }
+            quadUse.or(quadAccessed);
+            use[i - firstQuad] = quadUse;
+            def[i - firstQuad] = quadDef;
+            accessed[i - firstQuad] = quadAccessed;
+        }
+    }
+
+    /* Operands of the folded ARRAY quad, if the operand is its element */
+    private void addFoldedUses(BitSet bitSet, QuadOperand quadOperand) {
+        if (quadOperand == null || quadOperand.getType() != QuadOperand.Type.ADDRESS) {
+            return;
+        }
+        Quad arrayQuad = foldedArrays.get(quadOperand.getTempVar());
+        if (arrayQuad != null) {
+            addUse(bitSet, arrayQuad.getOperand1());
+            addUse(bitSet, arrayQuad.getOperand2());
+        }
+    }
+
+    private void addUse(BitSet bitSet, QuadOperand quadOperand) {
+        int var = getVar(quadOperand);
+        if (var >= 0) {
+            bitSet.set(var);
+        }
+    }
+
+    /* Index of the operand among the vars, or -1 */
+    private int getVar(QuadOperand quadOperand) {
+        if (quadOperand == null) {
+            return -1;
+        }
+        switch (quadOperand.getType()) {
+            case TEMPVAR:
+            case ADDRESS:
+                return quadOperand.getTempVar() - firstTempVar;
+            case IDENTIFIER:
+                Integer var = localVars.get(quadOperand.getIdentifier());
+                return (var == null ? -1 : var);
+            default:
+                return -1;
+        }
+    }
+
+    private int getJumpTarget(int quadIndex) {
+        Quad quad = quads.get(quadIndex);
+        switch (quad.getOp()) {
+            case JUMP:
+            case EQUAL:
+            case NOT_EQUAL:
+            case GREATER:
+            case LESS:
+            case GREATER_EQUAL:
+            case LESS_EQUAL:
+                if (quad.getOutput().getType() != QuadOperand.Type.LABEL) {
+                    return -1;
+                }
+                return quad.getOutput().getTempVar() - firstQuad;
+            case RET:
+                return lastQuad - firstQuad;
+            default:
+                return -1;
+        }
+    }
+
+    private boolean fallsThrough(int quadIndex) {
+        Quad.Op op = quads.get(quadIndex).getOp();
+        return op != Quad.Op.JUMP && op != Quad.Op.RET && op != Quad.Op.ENDU;
+    }
+}
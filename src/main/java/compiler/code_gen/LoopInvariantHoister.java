@@ -0,0 +1,200 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.lang.String;
+
+/* Loop invariant code motion, before the code of a function is generated. A quad in a
+ * natural loop that computes a temp var assigned nowhere else, from operands that no
+ * quad of the loop changes, moves to a preheader inserted right before the loop header,
+ * so it runs once instead of on every iteration. Loops are handled innermost first, so
+ * a quad invariant in several nested loops ends up before the outermost of them.
+ * A hoisted quad may run even if the loop body would not, so only quads that cannot
+ * trap are moved: arithmetic, array addresses and divisions by a constant other than 0
+ * and -1. Reads through an address are never moved. Reads of outer variables and of
+ * reference arguments are moved only out of loops that make no calls and store nothing
+ * but scalar local vars and temp vars, as those stores may alias them. A local var
+ * passed by reference in the loop changes there, and so does one a nested function
+ * accesses if the loop calls a function other than the standard library ones.
+ */
+public class LoopInvariantHoister {
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final Set<Variable> nonLocalVars;
+    private int hoistedQuads;
+    private int preheaders;
+
+    public LoopInvariantHoister(IntermediateRepresentation ir, SymbolTable symbolTable,
+                                Set<Variable> nonLocalVars) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.nonLocalVars = nonLocalVars;
+        this.hoistedQuads = 0;
+        this.preheaders = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Called while its scope is the current one. Each preheader changes
+     * the flow graph, so it is built again after every loop that gets one. */
+    public void run(int firstQuad) {
+        HashMap<String, Boolean> localVars = QuadAnalysis.getLocalVars(symbolTable, nonLocalVars);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            ArrayList<Quad> quads = ir.getQuads();
+            FlowGraph flowGraph = new FlowGraph(quads, firstQuad, quads.size() - 1);
+            HashMap<Integer, Integer> definitions = QuadAnalysis.countDefinitions(quads, firstQuad);
+            for (FlowGraph.Loop loop : flowGraph.getLoops()) {
+                if (hoist(flowGraph, loop, localVars, definitions)) {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    public void printStatistics() {
+        System.out.println("Loop invariant code motion:");
+        System.out.println("  hoisted quads: " + hoistedQuads);
+        System.out.println("  preheaders inserted: " + preheaders);
+    }
+
+    private boolean hoist(FlowGraph flowGraph, FlowGraph.Loop loop, HashMap<String, Boolean> localVars,
+                          HashMap<Integer, Integer> definitions) {
+        ArrayList<Quad> quads = ir.getQuads();
+        if (!flowGraph.canInsertPreheader(quads, loop)) {
+            return false;
+        }
+
+        /* What the loop changes */
+        ArrayList<Integer> loopQuads = new ArrayList<Integer>();
+        HashSet<String> assignedVars = new HashSet<String>();
+        HashSet<Integer> assignedTempVars = new HashSet<Integer>();
+        boolean hasCall = false;
+        boolean hasLocalCall = false;
+        boolean storesMemory = false;
+        for (FlowGraph.Block block : flowGraph.getBlocks()) {
+            if (!loop.contains(block)) {
+                continue;
+            }
+            for (int q = block.getStart() ; q <= block.getEnd() ; q++) {
+                loopQuads.add(q);
+                Quad quad = quads.get(q);
+                QuadOperand output = quad.getOutput();
+                if (quad.getOp() == Quad.Op.CALL) {
+                    hasCall = true;
+                    hasLocalCall |= !Function.isStandardLibrary(output.getIdentifier());
+                } else if (quad.getOp() == Quad.Op.PAR) {
+                    QuadOperand operand = quad.getOperand1();
+                    if (quad.getOperand2().getType() == QuadOperand.Type.RETCALLER) {
+                        assignedTempVars.add(operand.getTempVar());
+                    } else if (quad.getOperand2().getType() == QuadOperand.Type.R
+                               && operand.getType() == QuadOperand.Type.IDENTIFIER) {
+                        assignedVars.add(operand.getIdentifier());
+                    }
+                } else if (output != null && output.getType() == QuadOperand.Type.TEMPVAR) {
+                    assignedTempVars.add(output.getTempVar());
+                } else if (output != null && quad.getOp() == Quad.Op.ARRAY) {
+                    assignedTempVars.add(output.getTempVar());
+                } else if (output != null && output.getType() == QuadOperand.Type.IDENTIFIER) {
+                    assignedVars.add(output.getIdentifier());
+                    storesMemory |= !localVars.containsKey(output.getIdentifier());
+                } else if (output != null && output.getType() == QuadOperand.Type.ADDRESS) {
+                    storesMemory = true;
+                }
+            }
+        }
+        boolean memoryInvariant = !hasCall && !storesMemory;
+
+        /* Invariant quads, in order, until no more are found */
+        ArrayList<Quad> preheader = new ArrayList<Quad>();
+        HashMap<Integer, ArrayList<Quad>> replacements = new HashMap<Integer, ArrayList<Quad>>();
+        HashSet<Integer> invariantTempVars = new HashSet<Integer>();
+        boolean found = true;
+        while (found) {
+            found = false;
+            for (int q : loopQuads) {
+                Quad quad = quads.get(q);
+                if (replacements.containsKey(q) || !isHoistable(quad, definitions)) {
+                    continue;
+                }
+                boolean invariant = true;
+                QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2()};
+                for (int i = 0 ; i < operands.length && invariant ; i++) {
+                    QuadOperand operand = operands[i];
+                    if (operand == null || (quad.getOp() == Quad.Op.ARRAY && i == 0)) {
+                        continue;
+                    }
+                    switch (operand.getType()) {
+                        case INT:
+                        case CHAR:
+                            break;
+                        case TEMPVAR:
+                            invariant = (!assignedTempVars.contains(operand.getTempVar())
+                                         || invariantTempVars.contains(operand.getTempVar()));
+                            break;
+                        case IDENTIFIER:
+                            String identifier = operand.getIdentifier();
+                            if (localVars.containsKey(identifier)) {
+                                invariant = (!assignedVars.contains(identifier)
+                                             && !(hasLocalCall && localVars.get(identifier)));
+                            } else {
+                                invariant = (memoryInvariant && !assignedVars.contains(identifier));
+                            }
+                            break;
+                        default:
+                            invariant = false;
+                    }
+                }
+                if (invariant) {
+                    preheader.add(quad);
+                    replacements.put(q, new ArrayList<Quad>());
+                    invariantTempVars.add(quad.getOutput().getTempVar());
+                    found = true;
+                }
+            }
+        }
+        if (preheader.isEmpty()) {
+            return false;
+        }
+        flowGraph.insertPreheader(ir, loop, preheader, replacements);
+        hoistedQuads += preheader.size();
+        preheaders++;
+        return true;
+    }
+
+    /* Whether the quad only computes a temp var assigned nowhere else, without trapping */
+    private static boolean isHoistable(Quad quad, HashMap<Integer, Integer> definitions) {
+        QuadOperand output = quad.getOutput();
+        switch (quad.getOp()) {
+            case ARRAY:
+                break;
+            case DIV:
+            case MOD:
+                QuadOperand divisor = quad.getOperand2();
+                if (divisor.getType() != QuadOperand.Type.INT
+                    || Integer.parseInt(divisor.getIdentifier()) == 0
+                    || Integer.parseInt(divisor.getIdentifier()) == -1) {
+                    return false;
+                }
+                if (output.getType() != QuadOperand.Type.TEMPVAR) {
+                    return false;
+                }
+                break;
+            case ASSIGN:
+            case ADD:
+            case SUB:
+            case MULT:
+                if (output.getType() != QuadOperand.Type.TEMPVAR) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+        }
+        return QuadAnalysis.isCountedOnce(definitions, output.getTempVar());
+    }
+}
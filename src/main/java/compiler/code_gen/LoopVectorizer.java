@@ -0,0 +1,658 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.lang.String;
+
+/* Loops over int and char arrays that the final code runs with SSE2 packed instructions,
+ * which every x86 target has. A loop qualifies when it is a header testing a scalar local
+ * counter against a bound that the loop does not change, and a body of straight line code
+ * that adds one to the counter after its statements. Each statement stores into a one
+ * dimensional array at the counter plus a constant, or adds to or subtracts from a scalar
+ * local var. Their values are built from elements of such arrays, at the counter plus a
+ * constant, loop invariant operands, additions, subtractions and multiplications by powers
+ * of two, all of the same type. Char loops only copy and fill, as there is no arithmetic
+ * on chars.
+ * At every entry into such a loop, the final code first runs as many iterations as fill
+ * whole vectors of 16 bytes, and leaves the rest to the loop itself. Loads and stores do
+ * not need aligned addresses, so no scalar loop runs before them either.
+ * A vector iteration runs each statement for all of its lanes at once, which keeps the
+ * order of the loop as long as no element that one iteration stores is loaded or stored by
+ * another one less than a vector away. Accesses to the same array at different offsets are
+ * checked here. Different arrays may be the same one when one of them is a reference
+ * argument, unless the other is a local array, so their addresses are checked when the
+ * code runs.
+ */
+public class LoopVectorizer {
+    /* Bytes in a vector register */
+    static final int VECTOR_SIZE = 16;
+    /* Registers for values, the ones after them hold the sums of reduced vars */
+    static final int VALUE_REGISTERS = 6;
+    static final int REDUCTION_REGISTERS = 2;
+
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private int vectorizedLoops;
+
+    public LoopVectorizer(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.vectorizedLoops = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Called while its scope is the current one. Returns the loops that
+     * qualify by the quad where each entry into them is, which is the header when it is
+     * entered by falling through into it, before its label, or else a jump to it. */
+    public HashMap<Integer, VectorLoop> run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        FlowGraph flowGraph = new FlowGraph(quads, firstQuad, quads.size() - 1);
+        HashMap<Integer, VectorLoop> entries = new HashMap<Integer, VectorLoop>();
+        for (FlowGraph.Loop loop : flowGraph.getLoops()) {
+            VectorLoop vectorLoop = analyze(quads, flowGraph, loop);
+            if (vectorLoop == null) {
+                continue;
+            }
+            ArrayList<Integer> loopEntries = getEntries(quads, flowGraph, loop);
+            if (loopEntries == null) {
+                continue;
+            }
+            for (int entry : loopEntries) {
+                entries.put(entry, vectorLoop);
+            }
+            vectorizedLoops++;
+        }
+        return entries;
+    }
+
+    public void printStatistics() {
+        System.out.println("Loop vectorization:");
+        System.out.println("  loops vectorized: " + vectorizedLoops);
+    }
+
+    /* Quads where the vector iterations go, for each edge into the header from outside
+     * the loop, or null if one of them is a conditional jump */
+    private ArrayList<Integer> getEntries(ArrayList<Quad> quads, FlowGraph flowGraph, FlowGraph.Loop loop) {
+        FlowGraph.Block header = loop.getHeader();
+        ArrayList<Integer> entries = new ArrayList<Integer>();
+        for (FlowGraph.Block predecessor : header.getPredecessors()) {
+            if (loop.contains(predecessor)) {
+                continue;
+            }
+            Quad last = quads.get(predecessor.getEnd());
+            if (last.getOp() == Quad.Op.JUMP) {
+                entries.add(predecessor.getEnd());
+            } else if (!FlowGraph.isJump(last) && predecessor.getEnd() + 1 == header.getStart()) {
+                entries.add(header.getStart());
+            } else {
+                return null;
+            }
+        }
+        return entries;
+    }
+
+    /* The loop as a vector loop, or null if it does not qualify */
+    private VectorLoop analyze(ArrayList<Quad> quads, FlowGraph flowGraph, FlowGraph.Loop loop) {
+        FlowGraph.Block header = loop.getHeader();
+        if (header.getStart() != header.getEnd() || header.getSuccessors().size() != 2) {
+            return null;
+        }
+        FlowGraph.Block body = null;
+        for (FlowGraph.Block successor : header.getSuccessors()) {
+            if (loop.contains(successor)) {
+                body = successor;
+            }
+        }
+        if (body == null || body == header || loop.getLatches().size() != 1 || loop.getLatches().get(0) != body
+            || body.getSuccessors().size() != 1) {
+            return null;
+        }
+
+        /* The test, as the counter being less than, or at most, the bound */
+        Quad test = quads.get(header.getStart());
+        Quad.Op op = test.getOp();
+        if (flowGraph.getBlock(test.getOutput().getTempVar()) != body) {
+            op = invert(op);
+        }
+        QuadOperand counter = test.getOperand1();
+        QuadOperand bound = test.getOperand2();
+        if (op == Quad.Op.GREATER || op == Quad.Op.GREATER_EQUAL) {
+            counter = test.getOperand2();
+            bound = test.getOperand1();
+            op = (op == Quad.Op.GREATER ? Quad.Op.LESS : Quad.Op.LESS_EQUAL);
+        }
+        if ((op != Quad.Op.LESS && op != Quad.Op.LESS_EQUAL) || !isCounter(counter)) {
+            return null;
+        }
+
+        /* Temp vars and vars the body defines, which must not be live outside of it */
+        HashSet<Integer> loopTempVars = new HashSet<Integer>();
+        HashSet<String> loopVars = new HashSet<String>();
+        for (int q = body.getStart() ; q <= body.getEnd() ; q++) {
+            QuadOperand output = quads.get(q).getOutput();
+            if (output == null) {
+                continue;
+            }
+            if (output.getType() == QuadOperand.Type.TEMPVAR || output.getType() == QuadOperand.Type.ADDRESS) {
+                loopTempVars.add(output.getTempVar());
+            } else if (output.getType() == QuadOperand.Type.IDENTIFIER) {
+                loopVars.add(output.getIdentifier());
+            }
+        }
+        for (int q = flowGraph.getBlocks().get(0).getStart() ; q < quads.size() ; q++) {
+            if (flowGraph.getBlock(q) == body) {
+                continue;
+            }
+            Quad quad = quads.get(q);
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (QuadOperand operand : operands) {
+                if (operand != null && (operand.getType() == QuadOperand.Type.TEMPVAR
+                                        || operand.getType() == QuadOperand.Type.ADDRESS)
+                    && loopTempVars.contains(operand.getTempVar())) {
+                    return null;
+                }
+            }
+        }
+        if (!isInvariant(bound, loopVars, loopTempVars, Type.INT)) {
+            return null;
+        }
+
+        BodyAnalysis analysis = new BodyAnalysis(counter.getIdentifier(), loopVars, loopTempVars);
+        for (int q = body.getStart() ; q <= body.getEnd() ; q++) {
+            Quad quad = quads.get(q);
+            if (q == body.getEnd() && quad.getOp() == Quad.Op.JUMP) {
+                break;
+            }
+            if (!analysis.add(quad)) {
+                return null;
+            }
+        }
+        ArrayList<Access[]> aliasChecks = (analysis.isComplete() ? analysis.getAliasChecks() : null);
+        if (aliasChecks == null) {
+            return null;
+        }
+        return new VectorLoop(counter, bound, op == Quad.Op.LESS_EQUAL, analysis.type,
+                              analysis.statements, aliasChecks);
+    }
+
+    /* A scalar int local var, which no store into an array changes */
+    private boolean isCounter(QuadOperand operand) {
+        if (operand.getType() != QuadOperand.Type.IDENTIFIER) {
+            return false;
+        }
+        SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(operand.getIdentifier());
+        return symbolEntry.getScope() == symbolTable.getCurScope() && isScalar(symbolEntry.getSymbol(), Type.INT);
+    }
+
+    /* A scalar var of the given type, other than a reference argument, which may be an array element */
+    private static boolean isScalar(Symbol symbol, Type type) {
+        if (!(symbol instanceof Variable) || symbol.getType() != type
+            || ((Variable)symbol).getDimensions().size() > 0) {
+            return false;
+        }
+        return !(symbol instanceof Argument) || (!((Argument)symbol).isReference()
+                                                 && !((Argument)symbol).hasNoFirstDimension());
+    }
+
+    /* An operand of the given type that the loop does not change */
+    private boolean isInvariant(QuadOperand operand, HashSet<String> loopVars,
+                                HashSet<Integer> loopTempVars, Type type) {
+        switch (operand.getType()) {
+            case INT:
+                return type == Type.INT;
+            case CHAR:
+                return type == Type.CHAR;
+            case IDENTIFIER:
+                return !loopVars.contains(operand.getIdentifier())
+                       && isScalar(symbolTable.lookup(operand.getIdentifier()), type);
+            case TEMPVAR:
+                int tempVar = operand.getTempVar();
+                return !loopTempVars.contains(tempVar) && !ir.getArrayInfo().containsKey(tempVar)
+                       && ir.getTempVars().get(tempVar) == type;
+            default:
+                return false;
+        }
+    }
+
+    private static Quad.Op invert(Quad.Op op) {
+        switch (op) {
+            case EQUAL:
+                return Quad.Op.NOT_EQUAL;
+            case NOT_EQUAL:
+                return Quad.Op.EQUAL;
+            case GREATER:
+                return Quad.Op.LESS_EQUAL;
+            case LESS:
+                return Quad.Op.GREATER_EQUAL;
+            case GREATER_EQUAL:
+                return Quad.Op.LESS;
+            case LESS_EQUAL:
+                return Quad.Op.GREATER;
+            default:
+                return op;
+        }
+    }
+
+    /* Statements of a loop body, found by running its quads on expressions */
+    private class BodyAnalysis {
+        private final String counter;
+        private final HashSet<String> loopVars;
+        private final HashSet<Integer> loopTempVars;
+        private final ArrayList<Statement> statements;
+        /* Values of temp vars, addresses of ARRAY quads and offsets of the counter plus a constant */
+        private final HashMap<Integer, Expression> values;
+        private final HashMap<Integer, Access> addresses;
+        private final HashMap<Integer, Integer> indices;
+        /* Arrays stored into so far, whose loads before the store may no longer be used */
+        private final HashSet<String> stored;
+        private final HashSet<String> reduced;
+        private Type type;
+        private boolean incremented;
+
+        BodyAnalysis(String counter, HashSet<String> loopVars, HashSet<Integer> loopTempVars) {
+            this.counter = counter;
+            this.loopVars = loopVars;
+            this.loopTempVars = loopTempVars;
+            this.statements = new ArrayList<Statement>();
+            this.values = new HashMap<Integer, Expression>();
+            this.addresses = new HashMap<Integer, Access>();
+            this.indices = new HashMap<Integer, Integer>();
+            this.stored = new HashSet<String>();
+            this.reduced = new HashSet<String>();
+            this.type = null;
+            this.incremented = false;
+        }
+
+        /* Whether the quad fits in the loop, after the ones before it */
+        boolean add(Quad quad) {
+            QuadOperand operand1 = quad.getOperand1();
+            QuadOperand operand2 = quad.getOperand2();
+            QuadOperand output = quad.getOutput();
+            if (incremented) {
+                return false;
+            }
+            switch (quad.getOp()) {
+                case ARRAY:
+                    if (operand1.getType() != QuadOperand.Type.IDENTIFIER) {
+                        return false;
+                    }
+                    Symbol symbol = symbolTable.lookup(operand1.getIdentifier());
+                    Integer offset = getIndex(operand2);
+                    if (!isVector(symbol) || offset == null || !setType(symbol.getType())) {
+                        return false;
+                    }
+                    addresses.put(output.getTempVar(), new Access(operand1.getIdentifier(), offset));
+                    return true;
+                case ADD:
+                case SUB:
+                    if (isCounterOperand(operand1) && operand2.getType() == QuadOperand.Type.INT) {
+                        int constant = Integer.parseInt(operand2.getIdentifier());
+                        if (quad.getOp() == Quad.Op.SUB) {
+                            constant = -constant;
+                        }
+                        if (isCounterOperand(output)) {
+                            return increment(constant);
+                        }
+                        if (output.getType() != QuadOperand.Type.TEMPVAR) {
+                            return false;
+                        }
+                        indices.put(output.getTempVar(), constant);
+                        return true;
+                    }
+                    if (quad.getOp() == Quad.Op.ADD && isCounterOperand(operand2)
+                        && operand1.getType() == QuadOperand.Type.INT && output.getType() == QuadOperand.Type.TEMPVAR) {
+                        indices.put(output.getTempVar(), Integer.parseInt(operand1.getIdentifier()));
+                        return true;
+                    }
+                    QuadOperand reducedVar = null;
+                    QuadOperand reducedValue = null;
+                    if (isReducible(operand1)) {
+                        reducedVar = operand1;
+                        reducedValue = operand2;
+                    } else if (quad.getOp() == Quad.Op.ADD && isReducible(operand2)) {
+                        reducedVar = operand2;
+                        reducedValue = operand1;
+                    }
+                    if (reducedVar != null) {
+                        return assign(output, reduce(quad.getOp(), reducedVar, getValue(reducedValue)));
+                    }
+                    return assign(output, combine(quad.getOp(), getValue(operand1), getValue(operand2)));
+                case MULT:
+                    Expression value = null;
+                    if (operand2.getType() == QuadOperand.Type.INT) {
+                        value = shift(getValue(operand1), Integer.parseInt(operand2.getIdentifier()));
+                    } else if (operand1.getType() == QuadOperand.Type.INT) {
+                        value = shift(getValue(operand2), Integer.parseInt(operand1.getIdentifier()));
+                    }
+                    return assign(output, value);
+                case ASSIGN:
+                    if (isCounterOperand(output)) {
+                        return operand1.getType() == QuadOperand.Type.TEMPVAR
+                               && indices.containsKey(operand1.getTempVar())
+                               && increment(indices.get(operand1.getTempVar()));
+                    }
+                    if (operand1.getType() == QuadOperand.Type.TEMPVAR && addresses.containsKey(operand1.getTempVar())
+                        && output.getType() == QuadOperand.Type.TEMPVAR) {
+                        addresses.put(output.getTempVar(), addresses.get(operand1.getTempVar()));
+                        return true;
+                    }
+                    return assign(output, getValue(operand1));
+                default:
+                    return false;
+            }
+        }
+
+        /* Whether the counter was incremented by one and something was stored or reduced */
+        boolean isComplete() {
+            return incremented && !statements.isEmpty();
+        }
+
+        /* Pairs of accesses to arrays that may be the same one, which the final code checks.
+         * Accesses to the same array at offsets less than a vector apart that are not the
+         * same make the loop not qualify, as an empty list would not tell. */
+        ArrayList<Access[]> getAliasChecks() {
+            ArrayList<Access> accesses = new ArrayList<Access>();
+            ArrayList<Access> stores = new ArrayList<Access>();
+            for (Statement statement : statements) {
+                if (statement.store != null) {
+                    stores.add(statement.store);
+                    accesses.add(statement.store);
+                }
+                statement.value.getLoads(accesses);
+            }
+            int lanes = VECTOR_SIZE / FrameLayout.getTypeSize(type);
+            ArrayList<Access[]> aliasChecks = new ArrayList<Access[]>();
+            HashSet<String> checked = new HashSet<String>();
+            for (Access store : stores) {
+                for (Access access : accesses) {
+                    if (store.array.equals(access.array)) {
+                        if (store.offset != access.offset && Math.abs((long)store.offset - access.offset) < lanes) {
+                            return null;
+                        }
+                        continue;
+                    }
+                    String key = store.array + " " + store.offset + " " + access.array + " " + access.offset;
+                    if (mayAlias(store.array, access.array) && checked.add(key)) {
+                        aliasChecks.add(new Access[] {store, access});
+                    }
+                }
+            }
+            return aliasChecks;
+        }
+
+        /* Whether the array, or one that may be the same, was stored into */
+        private boolean isStored(String array) {
+            for (String storedArray : stored) {
+                if (storedArray.equals(array) || mayAlias(storedArray, array)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean loadsStored(Expression value) {
+            ArrayList<Access> loads = new ArrayList<Access>();
+            value.getLoads(loads);
+            for (Access load : loads) {
+                if (isStored(load.array)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean mayAlias(String array1, String array2) {
+            SymbolTable.SymbolEntry entry1 = symbolTable.lookupEntry(array1);
+            SymbolTable.SymbolEntry entry2 = symbolTable.lookupEntry(array2);
+            if (isLocalArray(entry1) || isLocalArray(entry2)) {
+                return false;
+            }
+            return entry1.getSymbol() instanceof Argument || entry2.getSymbol() instanceof Argument;
+        }
+
+        private boolean isLocalArray(SymbolTable.SymbolEntry entry) {
+            return entry.getScope() == symbolTable.getCurScope() && !(entry.getSymbol() instanceof Argument);
+        }
+
+        private boolean increment(int step) {
+            incremented = (step == 1);
+            return incremented;
+        }
+
+        /* Offset from the counter of an array index */
+        private Integer getIndex(QuadOperand operand) {
+            if (isCounterOperand(operand)) {
+                return 0;
+            }
+            if (operand.getType() == QuadOperand.Type.TEMPVAR) {
+                return indices.get(operand.getTempVar());
+            }
+            return null;
+        }
+
+        private boolean isCounterOperand(QuadOperand operand) {
+            return operand.getType() == QuadOperand.Type.IDENTIFIER && operand.getIdentifier().equals(counter);
+        }
+
+        /* Vars assigned in the body must be reduced ones, read only by their reduction */
+        private Expression getValue(QuadOperand operand) {
+            switch (operand.getType()) {
+                case ADDRESS:
+                    Access access = addresses.get(operand.getTempVar());
+                    if (access == null || isStored(access.array)) {
+                        return null;
+                    }
+                    return new Expression(Expression.Kind.LOAD, access, null, 0, null, null);
+                case TEMPVAR:
+                    if (loopTempVars.contains(operand.getTempVar())) {
+                        Expression value = values.get(operand.getTempVar());
+                        return (value != null && !loadsStored(value) ? value : null);
+                    }
+                    break;
+                case IDENTIFIER:
+                    if (loopVars.contains(operand.getIdentifier())) {
+                        return null;
+                    }
+                    break;
+            }
+            if (type == null || !isInvariant(operand, loopVars, loopTempVars, type)) {
+                return null;
+            }
+            return new Expression(Expression.Kind.INVARIANT, null, operand, 0, null, null);
+        }
+
+        private Expression combine(Quad.Op op, Expression left, Expression right) {
+            if (left == null || right == null || type != Type.INT
+                || left.kind == Expression.Kind.REDUCTION || right.kind == Expression.Kind.REDUCTION) {
+                return null;
+            }
+            return new Expression((op == Quad.Op.ADD ? Expression.Kind.ADD : Expression.Kind.SUB),
+                                  null, null, 0, left, right);
+        }
+
+        private Expression shift(Expression value, int multiplier) {
+            if (value == null || type != Type.INT || value.kind == Expression.Kind.REDUCTION
+                || multiplier <= 0 || Integer.bitCount(multiplier) != 1) {
+                return null;
+            }
+            return new Expression(Expression.Kind.SHIFT, null, null, Integer.numberOfTrailingZeros(multiplier),
+                                  value, null);
+        }
+
+        /* A value stored into an array element, kept in a temp var, or assigned to the
+         * var it reduces */
+        private boolean assign(QuadOperand output, Expression value) {
+            if (value == null) {
+                return false;
+            }
+            switch (output.getType()) {
+                case ADDRESS:
+                    Access access = addresses.get(output.getTempVar());
+                    if (access == null || value.kind == Expression.Kind.REDUCTION
+                        || value.getRegisters() > VALUE_REGISTERS) {
+                        return false;
+                    }
+                    statements.add(new Statement(access, null, null, value));
+                    stored.add(access.array);
+                    return true;
+                case TEMPVAR:
+                    values.put(output.getTempVar(), value);
+                    return true;
+                case IDENTIFIER:
+                    return value.kind == Expression.Kind.REDUCTION && addReduction(output, value);
+                default:
+                    return false;
+            }
+        }
+
+        /* A var the body assigns, other than the counter, which may only be read where
+         * a value is added to it or subtracted from it */
+        private boolean isReducible(QuadOperand operand) {
+            return operand.getType() == QuadOperand.Type.IDENTIFIER && !isCounterOperand(operand)
+                   && loopVars.contains(operand.getIdentifier());
+        }
+
+        /* A var plus or minus a value, which is assigned to the var itself or to a temp
+         * var that is then assigned to it */
+        private Expression reduce(Quad.Op op, QuadOperand var, Expression value) {
+            if (value == null || value.kind == Expression.Kind.REDUCTION || type != Type.INT) {
+                return null;
+            }
+            return new Expression(Expression.Kind.REDUCTION, null, var, (op == Quad.Op.ADD ? 1 : -1), value, null);
+        }
+
+        private boolean addReduction(QuadOperand output, Expression reduction) {
+            if (!reduction.operand.getIdentifier().equals(output.getIdentifier())
+                || !isScalar(symbolTable.lookup(output.getIdentifier()), Type.INT)
+                || !reduced.add(output.getIdentifier()) || reduced.size() > REDUCTION_REGISTERS
+                || reduction.left.getRegisters() > VALUE_REGISTERS) {
+                return false;
+            }
+            statements.add(new Statement(null, output, (reduction.value > 0 ? Quad.Op.ADD : Quad.Op.SUB),
+                                         reduction.left));
+            return true;
+        }
+
+        private boolean setType(Type arrayType) {
+            if (type == null) {
+                type = arrayType;
+            }
+            return type == arrayType;
+        }
+
+        /* One dimensional array, declared or taken as an argument */
+        private boolean isVector(Symbol symbol) {
+            if (!(symbol instanceof Variable)) {
+                return false;
+            }
+            int dimensions = ((Variable)symbol).getDimensions().size();
+            if (symbol instanceof Argument && ((Argument)symbol).hasNoFirstDimension()) {
+                dimensions++;
+            }
+            return dimensions == 1;
+        }
+    }
+
+    /* An element of an array at the counter plus a constant */
+    static class Access {
+        final String array;
+        final int offset;
+
+        Access(String array, int offset) {
+            this.array = array;
+            this.offset = offset;
+        }
+    }
+
+    /* Element values of a vector: loads, invariant operands broadcast to all lanes,
+     * additions, subtractions and left shifts by a constant, and while the body is
+     * analyzed, a var plus or minus a value, as value says */
+    static class Expression {
+        enum Kind {LOAD, INVARIANT, ADD, SUB, SHIFT, REDUCTION}
+
+        final Kind kind;
+        final Access access;
+        final QuadOperand operand;
+        final int value;
+        final Expression left;
+        final Expression right;
+
+        Expression(Kind kind, Access access, QuadOperand operand, int value, Expression left, Expression right) {
+            this.kind = kind;
+            this.access = access;
+            this.operand = operand;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+        }
+
+        /* Vector registers needed to evaluate it, with the right operand of an
+         * operation in the register after the left one */
+        int getRegisters() {
+            switch (kind) {
+                case ADD:
+                case SUB:
+                    return Math.max(left.getRegisters(), right.getRegisters() + 1);
+                case SHIFT:
+                    return left.getRegisters();
+                default:
+                    return 1;
+            }
+        }
+
+        void getLoads(ArrayList<Access> loads) {
+            if (kind == Kind.LOAD) {
+                loads.add(access);
+            }
+            if (left != null) {
+                left.getLoads(loads);
+            }
+            if (right != null) {
+                right.getLoads(loads);
+            }
+        }
+    }
+
+    /* A store of a value into an array element, or a reduction adding the value
+     * to a var or subtracting it */
+    static class Statement {
+        final Access store;
+        final QuadOperand reduction;
+        final Quad.Op op;
+        final Expression value;
+
+        Statement(Access store, QuadOperand reduction, Quad.Op op, Expression value) {
+            this.store = store;
+            this.reduction = reduction;
+            this.op = op;
+            this.value = value;
+        }
+    }
+
+    /* A loop running while the counter is less than the bound, or at most the bound if
+     * inclusive, over elements of the given type */
+    static class VectorLoop {
+        final QuadOperand counter;
+        final QuadOperand bound;
+        final boolean inclusive;
+        final Type type;
+        final ArrayList<Statement> statements;
+        final ArrayList<Access[]> aliasChecks;
+
+        VectorLoop(QuadOperand counter, QuadOperand bound, boolean inclusive, Type type,
+                   ArrayList<Statement> statements, ArrayList<Access[]> aliasChecks) {
+            this.counter = counter;
+            this.bound = bound;
+            this.inclusive = inclusive;
+            this.type = type;
+            this.statements = statements;
+            this.aliasChecks = aliasChecks;
+        }
+
+        int getLanes() {
+            return VECTOR_SIZE / FrameLayout.getTypeSize(type);
+        }
+    }
+}
@@ -1,34 +1,36 @@
 package compiler.code_gen;
 
+import compiler.symbol_table.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.ListIterator;
 import java.util.HashSet;
 import java.lang.String;
 
+/* Splits the quads of each function into basic blocks, and eliminates common
+ * subexpressions within each block by local value numbering before they are printed.
+ */
 public class Optimizer {
     private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
     private final ArrayList<Integer> basicBlocks;
     private int curQuad;
-    public Optimizer(IntermediateRepresentation ir) {
+    private int eliminatedQuads;
+
+    public Optimizer(IntermediateRepresentation ir, SymbolTable symbolTable) {
         this.ir = ir;
+        this.symbolTable = symbolTable;
         this.basicBlocks = new ArrayList<Integer>();
         this.curQuad = 0;
+        this.eliminatedQuads = 0;
     }
 
     public void run() {
         ArrayList<Quad> quads = ir.getQuads();
-        int leader = curQuad;
-        for (ListIterator<Quad> it = quads.listIterator(curQuad+1) ; it.hasNext() ;) {
-            int quadNum = it.nextIndex();
-            Quad quad = it.next();
-            if (ir.quadIsLabel(quadNum) && leader != quadNum) {
-                basicBlocks.add(leader);
-                leader = quadNum;
-            }
-            if (ir.quadIsJump(quadNum)) {
-                basicBlocks.add(leader);
-                leader = quadNum + 1;
-            }
+        numberValues(new FlowGraph(quads, curQuad, quads.size() - 1));
+        for (FlowGraph.Block block : new FlowGraph(quads, curQuad, quads.size() - 1).getBlocks()) {
+            basicBlocks.add(block.getStart());
         }
         curQuad = quads.size();
     }
@@ -44,5 +46,180 @@ public class Optimizer {
             }
             System.out.println(quadNum + ": " + quad);
         }
+        System.out.println("\nCommon subexpressions eliminated: " + eliminatedQuads);
+    }
+
+    /* Local value numbering. A quad computing the same value as an earlier one in its
+     * block is dropped and its temp var replaced by the earlier one throughout the
+     * function, as long as both temp vars are assigned only there. Values read from
+     * memory are forgotten at stores through an address, at stores to reference
+     * arguments or outer variables, which may be aliases, and at calls. */
+    private void numberValues(FlowGraph flowGraph) {
+        ArrayList<Quad> quads = ir.getQuads();
+        HashMap<Integer, Integer> definitions = QuadAnalysis.countDefinitions(quads, curQuad);
+
+        HashMap<Integer, Integer> replacedTempVars = new HashMap<Integer, Integer>();
+        HashSet<Integer> dropped = new HashSet<Integer>();
+        for (FlowGraph.Block block : flowGraph.getBlocks()) {
+            HashMap<ArrayList<String>, Integer> values = new HashMap<ArrayList<String>, Integer>();
+            for (int j = block.getStart() ; j <= block.getEnd() ; j++) {
+                Quad quad = quads.get(j);
+                ArrayList<String> value = getValue(quad, replacedTempVars);
+                Integer tempVar = (value == null ? null : values.get(value));
+                QuadOperand output = quad.getOutput();
+                if (tempVar != null && QuadAnalysis.isCountedOnce(definitions, output.getTempVar())) {
+                    replacedTempVars.put(output.getTempVar(), tempVar);
+                    dropped.add(j);
+                    continue;
+                }
+                forget(quad, values);
+                if (value != null && QuadAnalysis.isCountedOnce(definitions, output.getTempVar())) {
+                    values.put(value, output.getTempVar());
+                }
+            }
+        }
+        if (dropped.isEmpty()) {
+            return;
+        }
+
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        int[] newIndex = new int[quads.size() - curQuad + 1];
+        for (int i = curQuad ; i < quads.size() ; i++) {
+            newIndex[i - curQuad] = curQuad + newQuads.size();
+            if (dropped.contains(i)) {
+                continue;
+            }
+            Quad quad = quads.get(i);
+            QuadOperand operand1 = replaceTempVar(quad.getOperand1(), replacedTempVars);
+            QuadOperand operand2 = replaceTempVar(quad.getOperand2(), replacedTempVars);
+            QuadOperand output = replaceTempVar(quad.getOutput(), replacedTempVars);
+            if (operand1 != quad.getOperand1() || operand2 != quad.getOperand2() || output != quad.getOutput()) {
+                quad = new Quad(quad.getOp(), operand1, operand2, output);
+            }
+            newQuads.add(quad);
+        }
+        newIndex[quads.size() - curQuad] = curQuad + newQuads.size();
+        eliminatedQuads += dropped.size();
+        ir.replaceQuads(curQuad, newQuads, newIndex);
+    }
+
+    /* Value computed by the quad in terms of its operands, or null if it is not a pure
+     * computation. Operands of commutative operators are ordered. The address an ARRAY
+     * quad computes depends only on the array and the index, so stores through it and
+     * calls forget the values read through it but not the address itself. */
+    private ArrayList<String> getValue(Quad quad, HashMap<Integer, Integer> replacedTempVars) {
+        switch (quad.getOp()) {
+            case ADD:
+            case MULT:
+            case SUB:
+            case DIV:
+            case MOD:
+            case ARRAY:
+                break;
+            default:
+                return null;
+        }
+        QuadOperand.Type outputType = (quad.getOp() == Quad.Op.ARRAY ? QuadOperand.Type.ADDRESS
+                                                                      : QuadOperand.Type.TEMPVAR);
+        if (quad.getOutput().getType() != outputType
+            || quad.getOperand1().getType() == QuadOperand.Type.STRING) {
+            return null;
+        }
+        String operand1 = getOperandKey(replaceTempVar(quad.getOperand1(), replacedTempVars));
+        String operand2 = getOperandKey(replaceTempVar(quad.getOperand2(), replacedTempVars));
+        if (quad.getOp() == Quad.Op.ARRAY) {
+            operand1 = "&" + quad.getOperand1().getIdentifier();
+        }
+        if ((quad.getOp() == Quad.Op.ADD || quad.getOp() == Quad.Op.MULT) && operand1.compareTo(operand2) > 0) {
+            String swap = operand1;
+            operand1 = operand2;
+            operand2 = swap;
+        }
+        ArrayList<String> value = new ArrayList<String>();
+        value.add(quad.getOp().toString());
+        value.add(operand1);
+        value.add(operand2);
+        return value;
+    }
+
+    /* Operands as they appear in values: reading memory is marked with [ ], the address
+     * of an array, which never changes, with &, and constants with # */
+    private String getOperandKey(QuadOperand operand) {
+        switch (operand.getType()) {
+            case IDENTIFIER:
+                return (isMemory(operand.getIdentifier()) ? "[" + operand.getIdentifier() + "]"
+                                                          : operand.getIdentifier());
+            case ADDRESS:
+                return "[" + operand + "]";
+            case TEMPVAR:
+                return operand.toString();
+            default:
+                return "#" + operand;
+        }
+    }
+
+    /* Forget the values that the quad may change */
+    private void forget(Quad quad, HashMap<ArrayList<String>, Integer> values) {
+        QuadOperand output = quad.getOutput();
+        String written = null;
+        boolean memory = false;
+        boolean locals = false;
+        switch (quad.getOp()) {
+            case CALL:
+                memory = true;
+                locals = !Function.isStandardLibrary(output.getIdentifier());
+                break;
+            case PAR:
+                if (quad.getOperand2().getType() == QuadOperand.Type.RETCALLER) {
+                    written = quad.getOperand1().toString();
+                }
+                break;
+            case ARRAY:
+            case JUMP:
+            case RET:
+            case UNIT:
+            case ENDU:
+                break;
+            default:
+                if (output == null || output.getType() == QuadOperand.Type.LABEL) {
+                    break;
+                }
+                if (output.getType() == QuadOperand.Type.ADDRESS
+                    || (output.getType() == QuadOperand.Type.IDENTIFIER && isMemory(output.getIdentifier()))) {
+                    memory = true;
+                } else {
+                    written = output.toString();
+                }
+        }
+
+        for (Iterator<ArrayList<String>> it = values.keySet().iterator() ; it.hasNext() ; ) {
+            ArrayList<String> value = it.next();
+            for (int i = 1 ; i < value.size() ; i++) {
+                String operand = value.get(i);
+                if ((memory && operand.startsWith("[")) || operand.equals(written)
+                    || (locals && !"[&$#".contains(operand.substring(0, 1)))) {
+                    it.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /* Whether the identifier may be an alias of memory that other names reach:
+     * a reference argument or a variable of an enclosing function */
+    private boolean isMemory(String identifier) {
+        SymbolTable.SymbolEntry symbolEntry = symbolTable.lookupEntry(identifier);
+        Symbol symbol = symbolEntry.getSymbol();
+        return symbolEntry.getScope() != symbolTable.getCurScope()
+               || (symbol instanceof Argument && ((Argument)symbol).isReference());
+    }
+
+    private static QuadOperand replaceTempVar(QuadOperand operand, HashMap<Integer, Integer> replacedTempVars) {
+        if (operand == null || (operand.getType() != QuadOperand.Type.TEMPVAR
+                                && operand.getType() != QuadOperand.Type.ADDRESS)) {
+            return operand;
+        }
+        Integer tempVar = replacedTempVars.get(operand.getTempVar());
+        return (tempVar == null ? operand : new QuadOperand(operand.getType(), tempVar));
     }
 }
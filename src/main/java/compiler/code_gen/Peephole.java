@@ -0,0 +1,337 @@
+package compiler.code_gen;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.lang.String;
+
+/* Window based peephole optimization over the assembly of a function, before it is
+ * written. Each rule looks at a fixed number of consecutive instructions and may
+ * replace them with a shorter sequence, until no rule applies. A label that some
+ * jump targets ends a window, while the rest are skipped, since control only reaches
+ * them by falling through. The number of instructions removed by each rule is kept
+ * for printStatistics.
+ */
+public class Peephole {
+    private static final String[][] registerFamilies = {
+        {"rax", "eax", "ax", "al"}, {"rbx", "ebx", "bx", "bl"},
+        {"rcx", "ecx", "cx", "cl"}, {"rdx", "edx", "dx", "dl"},
+        {"rsi", "esi", "si", "sil"}, {"rdi", "edi", "di", "dil"},
+        {"rbp", "ebp", "bp", "bpl"}, {"rsp", "esp", "sp", "spl"}
+    };
+
+    private final ArrayList<Rule> rules;
+    private final LinkedHashMap<String, Integer> removedInstructions;
+
+    public Peephole(Target target) {
+        this.rules = new ArrayList<Rule>();
+        this.removedInstructions = new LinkedHashMap<String, Integer>();
+        addRule(new StoreLoadRule());
+        addRule(new LoadStoreRule());
+        addRule(new SelfMoveRule(target));
+        addRule(new CharReturnRule());
+        addRule(new ImulConstantRule());
+    }
+
+    public void addRule(Rule rule) {
+        rules.add(rule);
+        removedInstructions.put(rule.getName(), 0);
+    }
+
+    public void run(ArrayList<String> code) {
+        HashSet<String> jumpTargets = getJumpTargets(code);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0 ; i < code.size() ; i++) {
+                if (!isInstruction(code.get(i))) {
+                    continue;
+                }
+                for (Rule rule : rules) {
+                    ArrayList<Integer> window = getWindow(code, i, rule.getWindowSize(), jumpTargets);
+                    if (window == null) {
+                        continue;
+                    }
+                    ArrayList<String> instructions = new ArrayList<String>();
+                    for (int line : window) {
+                        instructions.add(code.get(line));
+                    }
+                    List<String> replacement = rule.apply(instructions);
+                    if (replacement == null) {
+                        continue;
+                    }
+
+                    /* Skipped labels in the window end up after the replacement */
+                    for (int j = window.size() - 1 ; j >= 0 ; j--) {
+                        code.remove((int)window.get(j));
+                    }
+                    code.addAll(i, replacement);
+                    removedInstructions.put(rule.getName(), removedInstructions.get(rule.getName()) +
+                                            window.size() - replacement.size());
+                    changed = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    public void printStatistics() {
+        int total = 0;
+        System.out.println("Peephole instructions removed:");
+        for (String rule : removedInstructions.keySet()) {
+            System.out.println("  " + rule + ": " + removedInstructions.get(rule));
+            total += removedInstructions.get(rule);
+        }
+        System.out.println("  total: " + total);
+    }
+
+    /* Line numbers of the size consecutive instructions starting at the given one,
+     * or null if a directive, a jump target or the end of the code comes first */
+    private static ArrayList<Integer> getWindow(ArrayList<String> code, int start, int size,
+                                                HashSet<String> jumpTargets) {
+        ArrayList<Integer> window = new ArrayList<Integer>();
+        for (int i = start ; i < code.size() && window.size() < size ; i++) {
+            String line = code.get(i);
+            if (isInstruction(line)) {
+                window.add(i);
+            } else if (line.endsWith(":")) {
+                String label = line.substring(0, line.length() - 1);
+                if (!label.matches("L[0-9]+") || jumpTargets.contains(label)) {
+                    return null;
+                }
+            } else if (!line.isEmpty()) {
+                return null;
+            }
+        }
+        return (window.size() == size ? window : null);
+    }
+
+    private static HashSet<String> getJumpTargets(ArrayList<String> code) {
+        HashSet<String> jumpTargets = new HashSet<String>();
+        for (String line : code) {
+            if (isInstruction(line) && getOpcode(line).startsWith("j")) {
+                jumpTargets.add(getOperands(line).get(0));
+            }
+        }
+        return jumpTargets;
+    }
+
+    private static boolean isInstruction(String line) {
+        return !line.isEmpty() && !line.endsWith(":") && !line.startsWith(".") && !line.startsWith("\t");
+    }
+
+    static String getOpcode(String instruction) {
+        int index = instruction.indexOf(' ');
+        return (index < 0 ? instruction : instruction.substring(0, index));
+    }
+
+    static List<String> getOperands(String instruction) {
+        int index = instruction.indexOf(' ');
+        if (index < 0) {
+            return Collections.<String>emptyList();
+        }
+        return Arrays.asList(instruction.substring(index + 1).split(", "));
+    }
+
+    /* Whether the operand reads or names any part of the given register */
+    static boolean mentions(String operand, String register) {
+        String[] family = getRegisterFamily(register);
+        for (String token : operand.split("[^a-z0-9]+")) {
+            for (String alias : family) {
+                if (token.equals(alias)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isRegister(String operand) {
+        return getRegisterFamily(operand) != null;
+    }
+
+    /* Names of the same register in all widths, or null if not a register */
+    private static String[] getRegisterFamily(String register) {
+        for (String[] family : registerFamilies) {
+            for (String alias : family) {
+                if (alias.equals(register)) {
+                    return family;
+                }
+            }
+        }
+        if (register.matches("r(8|9|1[0-5])[dwb]?")) {
+            String base = register.replaceAll("[dwb]$", "");
+            return new String[] {base, base + "d", base + "w", base + "b"};
+        }
+        return null;
+    }
+
+    /* Memory operand of the form SIZE PTR [address], or null */
+    private static String getMemoryOperand(String operand) {
+        return (operand.contains(" PTR [") ? operand : null);
+    }
+
+    public interface Rule {
+        String getName();
+
+        int getWindowSize();
+
+        /* Replacement of the instructions in the window, or null if the rule does not apply */
+        List<String> apply(List<String> window);
+    }
+
+    /* mov SIZE PTR [a], r1 ; mov r2, SIZE PTR [a]  =>  mov SIZE PTR [a], r1 ; mov r2, r1 */
+    private static class StoreLoadRule implements Rule {
+        public String getName() {
+            return "store-load";
+        }
+
+        public int getWindowSize() {
+            return 2;
+        }
+
+        public List<String> apply(List<String> window) {
+            String store = window.get(0);
+            String load = window.get(1);
+            if (!getOpcode(store).equals("mov") || !getOpcode(load).equals("mov")) {
+                return null;
+            }
+            List<String> storeOperands = getOperands(store);
+            List<String> loadOperands = getOperands(load);
+            if (storeOperands.size() != 2 || loadOperands.size() != 2
+                || getMemoryOperand(storeOperands.get(0)) == null || !isRegister(storeOperands.get(1))
+                || !storeOperands.get(0).equals(loadOperands.get(1)) || !isRegister(loadOperands.get(0))) {
+                return null;
+            }
+            if (loadOperands.get(0).equals(storeOperands.get(1))) {
+                return Arrays.asList(store);
+            }
+            return Arrays.asList(store, "mov " + loadOperands.get(0) + ", " + storeOperands.get(1));
+        }
+    }
+
+    /* mov r, SIZE PTR [a] ; mov SIZE PTR [a], r  =>  mov r, SIZE PTR [a] */
+    private static class LoadStoreRule implements Rule {
+        public String getName() {
+            return "load-store";
+        }
+
+        public int getWindowSize() {
+            return 2;
+        }
+
+        public List<String> apply(List<String> window) {
+            String load = window.get(0);
+            String store = window.get(1);
+            if (!getOpcode(load).equals("mov") || !getOpcode(store).equals("mov")) {
+                return null;
+            }
+            List<String> loadOperands = getOperands(load);
+            List<String> storeOperands = getOperands(store);
+            if (loadOperands.size() != 2 || storeOperands.size() != 2
+                || !isRegister(loadOperands.get(0)) || getMemoryOperand(loadOperands.get(1)) == null
+                || !loadOperands.get(0).equals(storeOperands.get(1))
+                || !loadOperands.get(1).equals(storeOperands.get(0))
+                || mentions(loadOperands.get(1), loadOperands.get(0))) {
+                return null;
+            }
+            return Arrays.asList(load);
+        }
+    }
+
+    /* mov r, r  =>  nothing, unless it clears the upper half of a 64-bit register */
+    private static class SelfMoveRule implements Rule {
+        private final Target target;
+
+        public SelfMoveRule(Target target) {
+            this.target = target;
+        }
+
+        public String getName() {
+            return "self-move";
+        }
+
+        public int getWindowSize() {
+            return 1;
+        }
+
+        public List<String> apply(List<String> window) {
+            String move = window.get(0);
+            List<String> operands = getOperands(move);
+            if (!getOpcode(move).equals("mov") || operands.size() != 2
+                || !isRegister(operands.get(0)) || !operands.get(0).equals(operands.get(1))) {
+                return null;
+            }
+            String register = operands.get(0);
+            if (target == Target.X86_64 && (register.startsWith("e") || register.endsWith("d"))) {
+                return null;
+            }
+            return Collections.<String>emptyList();
+        }
+    }
+
+    /* push r ; mov r8, BYTE PTR [esp] ; pop r  =>  nothing, r8 being the low byte of r */
+    private static class CharReturnRule implements Rule {
+        public String getName() {
+            return "char-return";
+        }
+
+        public int getWindowSize() {
+            return 3;
+        }
+
+        public List<String> apply(List<String> window) {
+            List<String> pushOperands = getOperands(window.get(0));
+            List<String> moveOperands = getOperands(window.get(1));
+            List<String> popOperands = getOperands(window.get(2));
+            if (!getOpcode(window.get(0)).equals("push") || !getOpcode(window.get(1)).equals("mov")
+                || !getOpcode(window.get(2)).equals("pop")
+                || pushOperands.size() != 1 || !isRegister(pushOperands.get(0))
+                || !pushOperands.equals(popOperands) || moveOperands.size() != 2
+                || !moveOperands.get(1).matches("BYTE PTR \\[[er]sp\\]")
+                || !mentions(moveOperands.get(0), pushOperands.get(0))
+                || !moveOperands.get(0).matches("[a-d]l")) {
+                return null;
+            }
+            return Collections.<String>emptyList();
+        }
+    }
+
+    /* mov ecx, c ; imul ecx ; <write ecx>  =>  imul eax, eax, c ; <write ecx>
+     * The one operand imul also leaves the high half of the product in edx, which
+     * none of the code templates reads. */
+    private static class ImulConstantRule implements Rule {
+        public String getName() {
+            return "imul-constant";
+        }
+
+        public int getWindowSize() {
+            return 3;
+        }
+
+        public List<String> apply(List<String> window) {
+            String move = window.get(0);
+            String multiply = window.get(1);
+            String next = window.get(2);
+            List<String> moveOperands = getOperands(move);
+            List<String> nextOperands = getOperands(next);
+            if (!getOpcode(move).equals("mov") || !multiply.equals("imul ecx")
+                || moveOperands.size() != 2 || !moveOperands.get(0).equals("ecx")
+                || !moveOperands.get(1).matches("-?[0-9]+")) {
+                return null;
+            }
+            String nextOpcode = getOpcode(next);
+            if (!(nextOpcode.equals("mov") || nextOpcode.equals("lea")) || nextOperands.size() != 2
+                || !nextOperands.get(0).equals("ecx") || mentions(nextOperands.get(1), "ecx")) {
+                return null;
+            }
+            if (moveOperands.get(1).equals("1")) {
+                return Arrays.asList(next);
+            }
+            return Arrays.asList("imul eax, eax, " + moveOperands.get(1), next);
+        }
+    }
+}
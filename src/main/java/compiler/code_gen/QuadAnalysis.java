@@ -0,0 +1,81 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.lang.String;
+
+/* Facts about the quads and the variables of the current function that the passes
+ * over its quads share, computed while its scope is the current one.
+ */
+public class QuadAnalysis {
+    private QuadAnalysis() {
+    }
+
+    /* Scalar local vars and arguments by value of the current function */
+    public static HashSet<String> getLocalVars(SymbolTable symbolTable) {
+        HashSet<String> localVars = new HashSet<String>();
+        long scope = symbolTable.getCurScope();
+        for (Variable variable : symbolTable.getLocalVars(scope)) {
+            if (variable.getDimensions().size() == 0) {
+                localVars.add(variable.getToken().getText());
+            }
+        }
+        for (Argument argument : symbolTable.getArguments(scope)) {
+            if (!argument.isReference()) {
+                localVars.add(argument.getToken().getText());
+            }
+        }
+        return localVars;
+    }
+
+    /* Scalar local vars and arguments by value of the current function, mapped to
+     * whether a call may change them through a nested function. Local vars in
+     * nonLocalVars are accessed by nested functions, all of which are generated
+     * before the function they are declared in, so the set is complete by then. */
+    public static HashMap<String, Boolean> getLocalVars(SymbolTable symbolTable, Set<Variable> nonLocalVars) {
+        HashMap<String, Boolean> localVars = new HashMap<String, Boolean>();
+        long scope = symbolTable.getCurScope();
+        for (Variable variable : symbolTable.getLocalVars(scope)) {
+            if (variable.getDimensions().size() == 0) {
+                localVars.put(variable.getToken().getText(), nonLocalVars.contains(variable));
+            }
+        }
+        for (Argument argument : symbolTable.getArguments(scope)) {
+            if (!argument.isReference()) {
+                localVars.put(argument.getToken().getText(), true);
+            }
+        }
+        return localVars;
+    }
+
+    /* Assignments to each temp var from firstQuad on, including the return values
+     * of calls and the addresses of ARRAY quads */
+    public static HashMap<Integer, Integer> countDefinitions(ArrayList<Quad> quads, int firstQuad) {
+        HashMap<Integer, Integer> definitions = new HashMap<Integer, Integer>();
+        for (int q = firstQuad ; q < quads.size() ; q++) {
+            Quad quad = quads.get(q);
+            QuadOperand output = quad.getOutput();
+            if (quad.getOp() == Quad.Op.PAR && quad.getOperand2().getType() == QuadOperand.Type.RETCALLER) {
+                increment(definitions, quad.getOperand1().getTempVar());
+            } else if (output != null && (output.getType() == QuadOperand.Type.TEMPVAR
+                                          || quad.getOp() == Quad.Op.ARRAY)) {
+                increment(definitions, output.getTempVar());
+            }
+        }
+        return definitions;
+    }
+
+    /* Whether the temp var is counted exactly once, as assigned or as read */
+    public static boolean isCountedOnce(HashMap<Integer, Integer> counts, int tempVar) {
+        Integer count = counts.get(tempVar);
+        return count != null && count == 1;
+    }
+
+    public static void increment(HashMap<Integer, Integer> counts, int tempVar) {
+        Integer count = counts.get(tempVar);
+        counts.put(tempVar, (count == null ? 1 : count + 1));
+    }
+}
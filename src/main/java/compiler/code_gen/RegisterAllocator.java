@@ -0,0 +1,208 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.lang.String;
+
+/* Linear scan register allocation (Poletto & Sarkar) over the quads of a single
+ * UNIT..ENDU range. Candidates are the function's temp vars and the scalar
+ * local variables given by FinalCode, and the reference arguments it gives, which keep
+ * their address in a register. Only callee-saved registers are handed out,
+ * so values survive calls; eax, ecx and edx stay free as scratch for the code templates,
+ * as do the argument and static chain registers on X86_64.
+ * Intervals that do not fit are spilled, which means they keep their stack slot.
+ */
+public class RegisterAllocator {
+    private final String[] registers;
+    private final IntermediateRepresentation ir;
+    private final ArrayList<Type> tempVars;
+    private final int firstQuad;
+    private final int firstTempVar;
+    private final HashMap<String, Integer> localVars;
+    private final HashSet<String> pointerArguments;
+    private final HashMap<Integer, String> tempVarRegisters;
+    private final HashMap<String, String> localVarRegisters;
+    private final HashMap<String, String> pointerRegisters;
+    private final ArrayList<String> usedRegisters;
+
+    public RegisterAllocator(IntermediateRepresentation ir, int firstQuad, int firstTempVar,
+                             HashSet<String> candidateLocalVars, Target target) {
+        this(ir, firstQuad, firstTempVar, candidateLocalVars, new HashSet<String>(),
+             new HashSet<Integer>(), target);
+    }
+
+    /* Parameters passed at the given PAR quads are copied by the callee even if they are
+     * passed by reference, so the locals they name need no memory address */
+    public RegisterAllocator(IntermediateRepresentation ir, int firstQuad, int firstTempVar,
+                             HashSet<String> candidateLocalVars, HashSet<String> pointerArguments,
+                             HashSet<Integer> copiedParameters, Target target) {
+        this.registers = target.getAllocatableRegisters();
+        this.ir = ir;
+        ArrayList<Quad> quads = ir.getQuads();
+        this.tempVars = ir.getTempVars();
+        this.firstQuad = firstQuad;
+        this.firstTempVar = firstTempVar;
+        this.localVars = new HashMap<String, Integer>();
+        this.pointerArguments = pointerArguments;
+        this.tempVarRegisters = new HashMap<Integer, String>();
+        this.localVarRegisters = new HashMap<String, String>();
+        this.pointerRegisters = new HashMap<String, String>();
+        this.usedRegisters = new ArrayList<String>();
+
+        /* Locals passed by reference need a memory address */
+        HashSet<String> candidates = new HashSet<String>(candidateLocalVars);
+        for (int i = firstQuad ; i < quads.size() ; i++) {
+            Quad quad = quads.get(i);
+            if (quad.getOp() == Quad.Op.PAR && quad.getOperand2().getType() == QuadOperand.Type.R
+                && quad.getOperand1().getType() == QuadOperand.Type.IDENTIFIER && !copiedParameters.contains(i)) {
+                candidates.remove(quad.getOperand1().getIdentifier());
+            }
+        }
+        candidates.addAll(pointerArguments);
+        int numTempVars = tempVars.size() - firstTempVar;
+        for (String localVar : candidates) {
+            localVars.put(localVar, numTempVars + localVars.size());
+        }
+    }
+
+    public void run() {
+        run(new HashMap<Integer, Quad>());
+    }
+
+    /* The temp vars of the ARRAY quads folded into their use get no register */
+    public void run(Map<Integer, Quad> foldedArrays) {
+        LiveIntervals liveIntervals = new LiveIntervals(ir, firstQuad, firstTempVar, localVars,
+                                                        pointerArguments, foldedArrays);
+        Set<Integer> skippedTempVars = foldedArrays.keySet();
+        ArrayList<Interval> intervals = new ArrayList<Interval>();
+        for (int v = 0 ; v < liveIntervals.getNumVars() ; v++) {
+            if (liveIntervals.getStart(v) >= 0 && !skippedTempVars.contains(firstTempVar + v)) {
+                intervals.add(new Interval(v, liveIntervals.getStart(v), liveIntervals.getEnd(v)));
+            }
+        }
+        linearScan(intervals);
+    }
+
+    private void linearScan(ArrayList<Interval> intervals) {
+        Collections.sort(intervals, new Comparator<Interval>() {
+            @Override
+            public int compare(Interval a, Interval b) {
+                return Integer.compare(a.start, b.start);
+            }
+        });
+        HashMap<Integer, Interval> intervalOf = new HashMap<Integer, Interval>();
+        for (Interval interval : intervals) {
+            intervalOf.put(interval.var, interval);
+        }
+        ArrayList<Interval> active = new ArrayList<Interval>();
+        ArrayList<String> freeRegisters = new ArrayList<String>();
+        for (String register : registers) {
+            freeRegisters.add(register);
+        }
+        for (Interval interval : intervals) {
+
+            /* Operands are read before the result is written, so an interval ending
+             * at the quad where another one starts can hand over its register */
+            for (Iterator<Interval> it = active.iterator() ; it.hasNext() ; ) {
+                Interval activeInterval = it.next();
+                if (activeInterval.end <= interval.start) {
+                    freeRegisters.add(0, activeInterval.register);
+                    it.remove();
+                }
+            }
+            if (!freeRegisters.isEmpty()) {
+                interval.register = freeRegisters.remove(0);
+                active.add(interval);
+                continue;
+            }
+
+            /* Spill the interval that ends last */
+            Interval spill = interval;
+            for (Interval activeInterval : active) {
+                if (activeInterval.end > spill.end) {
+                    spill = activeInterval;
+                }
+            }
+            if (spill != interval) {
+                interval.register = spill.register;
+                spill.register = null;
+                active.remove(spill);
+                active.add(interval);
+            }
+        }
+
+        for (Interval interval : intervals) {
+            if (interval.register == null) {
+                continue;
+            }
+            if (!usedRegisters.contains(interval.register)) {
+                usedRegisters.add(interval.register);
+            }
+            if (interval.var < tempVars.size() - firstTempVar) {
+                tempVarRegisters.put(interval.var + firstTempVar, interval.register);
+            }
+        }
+        for (String localVar : localVars.keySet()) {
+            Interval interval = intervalOf.get(localVars.get(localVar));
+            if (interval != null && interval.register != null) {
+                if (pointerArguments.contains(localVar)) {
+                    pointerRegisters.put(localVar, interval.register);
+                } else {
+                    localVarRegisters.put(localVar, interval.register);
+                }
+            }
+        }
+
+        /* Keep a fixed order so that prologue and epilogue match */
+        ArrayList<String> ordered = new ArrayList<String>();
+        for (String register : registers) {
+            if (usedRegisters.contains(register)) {
+                ordered.add(register);
+            }
+        }
+        usedRegisters.clear();
+        usedRegisters.addAll(ordered);
+    }
+
+    public String getTempVarRegister(int tempVar) {
+        return tempVarRegisters.get(tempVar);
+    }
+
+    public String getLocalVarRegister(String identifier) {
+        return localVarRegisters.get(identifier);
+    }
+
+    /* Register holding the address a reference argument points to */
+    public String getPointerRegister(String identifier) {
+        return pointerRegisters.get(identifier);
+    }
+
+    public HashMap<String, String> getPointerRegisters() {
+        return pointerRegisters;
+    }
+
+    public ArrayList<String> getUsedRegisters() {
+        return usedRegisters;
+    }
+
+    private class Interval {
+        private final int var;
+        private final int start;
+        private final int end;
+        private String register;
+
+        public Interval(int var, int start, int end) {
+            this.var = var;
+            this.start = start;
+            this.end = end;
+            this.register = null;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.lang.String;
+
+/* Static single assignment form of the quads of a function, kept beside the quads
+ * instead of rewriting them. Every assignment to a temp var or to a tracked local var
+ * is a value of its own, and so is the value each var has on entry and every phi node,
+ * placed on the dominance frontiers of the blocks assigning a var that is read in some
+ * block before it is assigned there, or that more than one block assigns, so that the
+ * value on top of the stack of a var is the one it holds wherever it is read later.
+ * Renaming along the dominator tree gives each
+ * operand the value it reads, and each value its uses.
+ * A CALL assigns the temp var of its result, the vars passed to it by reference,
+ * and, unless it calls a standard library function, the local vars that a nested
+ * function may change. Those values, like the ones on entry, are unknown.
+ * Since the quads keep their vars, leaving SSA form needs no copies: the passes built
+ * on it rewrite the quads, and then the form is dropped.
+ */
+public class SsaForm {
+    public enum Kind { ENTRY, QUAD, CALL, PHI }
+
+    private final ArrayList<Quad> quads;
+    private final int firstQuad;
+    private final FlowGraph flowGraph;
+    private final boolean[] reachable;
+    private final int[] immediateDominators;
+    private final ArrayList<ArrayList<FlowGraph.Block>> dominatorTree;
+
+    private final HashMap<String, Integer> vars;
+    private final ArrayList<String> varNames;
+    private final HashMap<String, Boolean> localVars;
+
+    private final ArrayList<Kind> kinds;
+    private final ArrayList<Integer> valueVars;
+    private final ArrayList<Integer> definitions;
+    private final ArrayList<int[]> phiArguments;
+    private final ArrayList<ArrayList<Integer>> users;
+    private final ArrayList<ArrayList<Integer>> phiUsers;
+    private final ArrayList<ArrayList<Integer>> blockPhis;
+    private final int[][] operandValues;
+    private final ArrayList<ArrayList<Integer>> quadValues;
+    private int numPhis;
+
+    /* Quads of the function are the ones the flow graph covers, from firstQuad. The
+     * tracked local vars map to whether a call may change them through a nested function. */
+    public SsaForm(ArrayList<Quad> quads, int firstQuad, FlowGraph flowGraph, HashMap<String, Boolean> localVars) {
+        this.quads = quads;
+        this.firstQuad = firstQuad;
+        this.flowGraph = flowGraph;
+        this.reachable = flowGraph.getReachable();
+        this.immediateDominators = flowGraph.getImmediateDominators();
+        this.localVars = localVars;
+        this.vars = new HashMap<String, Integer>();
+        this.varNames = new ArrayList<String>();
+        this.kinds = new ArrayList<Kind>();
+        this.valueVars = new ArrayList<Integer>();
+        this.definitions = new ArrayList<Integer>();
+        this.phiArguments = new ArrayList<int[]>();
+        this.users = new ArrayList<ArrayList<Integer>>();
+        this.phiUsers = new ArrayList<ArrayList<Integer>>();
+        this.blockPhis = new ArrayList<ArrayList<Integer>>();
+        this.quadValues = new ArrayList<ArrayList<Integer>>();
+        this.numPhis = 0;
+
+        ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+        int numQuads = quads.size() - firstQuad;
+        this.operandValues = new int[numQuads][3];
+        for (int i = 0 ; i < numQuads ; i++) {
+            operandValues[i][0] = operandValues[i][1] = operandValues[i][2] = -1;
+            quadValues.add(new ArrayList<Integer>());
+        }
+        this.dominatorTree = new ArrayList<ArrayList<FlowGraph.Block>>();
+        for (int i = 0 ; i < blocks.size() ; i++) {
+            dominatorTree.add(new ArrayList<FlowGraph.Block>());
+            blockPhis.add(new ArrayList<Integer>());
+        }
+        for (int i = 0 ; i < blocks.size() ; i++) {
+            if (immediateDominators[i] >= 0) {
+                dominatorTree.get(immediateDominators[i]).add(blocks.get(i));
+            }
+        }
+
+        for (String localVar : localVars.keySet()) {
+            getVarIndex(localVar);
+        }
+        for (int q = firstQuad ; q < quads.size() ; q++) {
+            Quad quad = quads.get(q);
+            QuadOperand[] operands = {quad.getOperand1(), quad.getOperand2(), quad.getOutput()};
+            for (QuadOperand operand : operands) {
+                if (operand != null && (operand.getType() == QuadOperand.Type.TEMPVAR
+                                        || operand.getType() == QuadOperand.Type.ADDRESS)) {
+                    getVarIndex("$" + operand.getTempVar());
+                }
+            }
+        }
+        placePhis(flowGraph.getDominanceFrontiers(immediateDominators));
+
+        ArrayList<ArrayList<Integer>> stacks = new ArrayList<ArrayList<Integer>>();
+        for (int var = 0 ; var < varNames.size() ; var++) {
+            stacks.add(new ArrayList<Integer>());
+            stacks.get(var).add(newValue(Kind.ENTRY, var, -1));
+        }
+        rename(blocks.get(0), stacks);
+    }
+
+    public FlowGraph getFlowGraph() {
+        return flowGraph;
+    }
+
+    public boolean[] getReachable() {
+        return reachable;
+    }
+
+    /* Blocks whose immediate dominator is the given one */
+    public ArrayList<FlowGraph.Block> getDominated(FlowGraph.Block block) {
+        return dominatorTree.get(block.getIndex());
+    }
+
+    public int getNumValues() {
+        return kinds.size();
+    }
+
+    public int getNumPhis() {
+        return numPhis;
+    }
+
+    public Kind getKind(int value) {
+        return kinds.get(value);
+    }
+
+    public int getNumVars() {
+        return varNames.size();
+    }
+
+    /* Var the value is assigned to, by index */
+    public int getVar(int value) {
+        return valueVars.get(value);
+    }
+
+    /* Temp var, as $ and its number, or local var the value is assigned to */
+    public String getVarName(int value) {
+        return varNames.get(valueVars.get(value));
+    }
+
+    /* Quad assigning the value, or -1 for values on entry and phi nodes */
+    public int getDefinition(int value) {
+        return definitions.get(value);
+    }
+
+    /* Value each predecessor of the block of a phi node brings, in the order of the
+     * predecessors, or -1 from unreachable ones */
+    public int[] getPhiArguments(int value) {
+        return phiArguments.get(value);
+    }
+
+    public ArrayList<Integer> getPhis(FlowGraph.Block block) {
+        return blockPhis.get(block.getIndex());
+    }
+
+    /* Value the quad reads in operand 0, 1 or, for an address, 2 (its output), or -1 */
+    public int getOperandValue(int quad, int operand) {
+        return operandValues[quad - firstQuad][operand];
+    }
+
+    /* Values the quad assigns, in order */
+    public ArrayList<Integer> getQuadValues(int quad) {
+        return quadValues.get(quad - firstQuad);
+    }
+
+    /* Quads reading the value */
+    public ArrayList<Integer> getUsers(int value) {
+        return users.get(value);
+    }
+
+    /* Phi nodes reading the value */
+    public ArrayList<Integer> getPhiUsers(int value) {
+        return phiUsers.get(value);
+    }
+
+    /* Whether the operand reads a var of the form, which has a value at each use */
+    public boolean isTracked(QuadOperand operand) {
+        if (operand == null) {
+            return false;
+        }
+        switch (operand.getType()) {
+            case TEMPVAR:
+            case ADDRESS:
+                return true;
+            case IDENTIFIER:
+                return localVars.containsKey(operand.getIdentifier());
+            default:
+                return false;
+        }
+    }
+
+    private int getVarIndex(String name) {
+        Integer var = vars.get(name);
+        if (var == null) {
+            var = varNames.size();
+            vars.put(name, var);
+            varNames.add(name);
+        }
+        return var;
+    }
+
+    /* Var of an operand, or -1 if it is not tracked */
+    private int getOperandVar(QuadOperand operand) {
+        if (!isTracked(operand)) {
+            return -1;
+        }
+        if (operand.getType() == QuadOperand.Type.IDENTIFIER) {
+            return vars.get(operand.getIdentifier());
+        }
+        return vars.get("$" + operand.getTempVar());
+    }
+
+    private int newValue(Kind kind, int var, int definition) {
+        kinds.add(kind);
+        valueVars.add(var);
+        definitions.add(definition);
+        phiArguments.add(null);
+        users.add(new ArrayList<Integer>());
+        phiUsers.add(new ArrayList<Integer>());
+        return kinds.size() - 1;
+    }
+
+    /* Vars the quad reads, by operand, and the ones it assigns. A CALL assigns the vars
+     * of the PAR quads since the previous CALL that it returns into or takes by reference. */
+    private int[] getReads(Quad quad) {
+        int[] reads = {-1, -1, -1};
+        switch (quad.getOp()) {
+            case PAR:
+                if (quad.getOperand2().getType() != QuadOperand.Type.RETCALLER) {
+                    reads[0] = getOperandVar(quad.getOperand1());
+                }
+                break;
+            case UNIT:
+            case ENDU:
+            case JUMP:
+            case RET:
+            case CALL:
+                break;
+            case ARRAY:
+                reads[1] = getOperandVar(quad.getOperand2());
+                break;
+            default:
+                reads[0] = getOperandVar(quad.getOperand1());
+                reads[1] = getOperandVar(quad.getOperand2());
+                if (quad.getOutput() != null && quad.getOutput().getType() == QuadOperand.Type.ADDRESS) {
+                    reads[2] = getOperandVar(quad.getOutput());
+                }
+        }
+        return reads;
+    }
+
+    private ArrayList<Integer> getWrites(Quad quad, ArrayList<Quad> parameters) {
+        ArrayList<Integer> writes = new ArrayList<Integer>();
+        QuadOperand output = quad.getOutput();
+        switch (quad.getOp()) {
+            case CALL:
+                for (Quad parameter : parameters) {
+                    QuadOperand.Type mode = parameter.getOperand2().getType();
+                    int var = getOperandVar(parameter.getOperand1());
+                    if (var >= 0 && (mode == QuadOperand.Type.RETCALLER
+                                     || (mode == QuadOperand.Type.R
+                                         && parameter.getOperand1().getType() != QuadOperand.Type.ADDRESS))) {
+                        writes.add(var);
+                    }
+                }
+                if (!Function.isStandardLibrary(output.getIdentifier())) {
+                    for (String localVar : localVars.keySet()) {
+                        if (localVars.get(localVar)) {
+                            writes.add(vars.get(localVar));
+                        }
+                    }
+                }
+                break;
+            case ARRAY:
+                writes.add(vars.get("$" + output.getTempVar()));
+                break;
+            case ASSIGN:
+            case ADD:
+            case SUB:
+            case MULT:
+            case DIV:
+            case MOD:
+                if (output.getType() != QuadOperand.Type.ADDRESS && getOperandVar(output) >= 0) {
+                    writes.add(getOperandVar(output));
+                }
+                break;
+            default:
+                break;
+        }
+        return writes;
+    }
+
+    /* Semi-pruned placement: only vars read in some block before being assigned in it,
+     * or assigned in more than one block, get phi nodes */
+    private void placePhis(BitSet[] frontiers) {
+        ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+        ArrayList<BitSet> assigningBlocks = new ArrayList<BitSet>();
+        for (int var = 0 ; var < varNames.size() ; var++) {
+            assigningBlocks.add(new BitSet(blocks.size()));
+        }
+        BitSet global = new BitSet(varNames.size());
+        for (FlowGraph.Block block : blocks) {
+            if (!reachable[block.getIndex()]) {
+                continue;
+            }
+            BitSet assigned = new BitSet(varNames.size());
+            ArrayList<Quad> parameters = new ArrayList<Quad>();
+            for (int q = block.getStart() ; q <= block.getEnd() ; q++) {
+                Quad quad = quads.get(q);
+                for (int var : getReads(quad)) {
+                    if (var >= 0 && !assigned.get(var)) {
+                        global.set(var);
+                    }
+                }
+                for (int var : getWrites(quad, parameters)) {
+                    assigned.set(var);
+                    assigningBlocks.get(var).set(block.getIndex());
+                }
+                if (quad.getOp() == Quad.Op.PAR) {
+                    parameters.add(quad);
+                } else if (quad.getOp() == Quad.Op.CALL) {
+                    parameters.clear();
+                }
+            }
+        }
+
+        for (int var = 0 ; var < varNames.size() ; var++) {
+            if (assigningBlocks.get(var).cardinality() > 1) {
+                global.set(var);
+            }
+        }
+        for (int var = global.nextSetBit(0) ; var >= 0 ; var = global.nextSetBit(var+1)) {
+            BitSet hasPhi = new BitSet(blocks.size());
+            ArrayList<Integer> worklist = new ArrayList<Integer>();
+            BitSet assigning = assigningBlocks.get(var);
+            for (int b = assigning.nextSetBit(0) ; b >= 0 ; b = assigning.nextSetBit(b+1)) {
+                worklist.add(b);
+            }
+            while (!worklist.isEmpty()) {
+                int b = worklist.remove(worklist.size() - 1);
+                for (int f = frontiers[b].nextSetBit(0) ; f >= 0 ; f = frontiers[b].nextSetBit(f+1)) {
+                    if (hasPhi.get(f)) {
+                        continue;
+                    }
+                    hasPhi.set(f);
+                    FlowGraph.Block frontier = blocks.get(f);
+                    int phi = newValue(Kind.PHI, var, -1);
+                    int[] arguments = new int[frontier.getPredecessors().size()];
+                    for (int i = 0 ; i < arguments.length ; i++) {
+                        arguments[i] = -1;
+                    }
+                    phiArguments.set(phi, arguments);
+                    blockPhis.get(f).add(phi);
+                    numPhis++;
+                    if (!assigning.get(f)) {
+                        worklist.add(f);
+                    }
+                }
+            }
+        }
+    }
+
+    /* Give each read the value on top of the stack of its var, and push the values the
+     * block assigns until the blocks it dominates are done */
+    private void rename(FlowGraph.Block block, ArrayList<ArrayList<Integer>> stacks) {
+        ArrayList<Integer> pushed = new ArrayList<Integer>();
+        for (int phi : blockPhis.get(block.getIndex())) {
+            int var = valueVars.get(phi);
+            stacks.get(var).add(phi);
+            pushed.add(var);
+        }
+        ArrayList<Quad> parameters = new ArrayList<Quad>();
+        for (int q = block.getStart() ; q <= block.getEnd() ; q++) {
+            Quad quad = quads.get(q);
+            int[] reads = getReads(quad);
+            for (int i = 0 ; i < reads.length ; i++) {
+                if (reads[i] < 0) {
+                    continue;
+                }
+                ArrayList<Integer> stack = stacks.get(reads[i]);
+                int value = stack.get(stack.size() - 1);
+                operandValues[q - firstQuad][i] = value;
+                users.get(value).add(q);
+            }
+            for (int var : getWrites(quad, parameters)) {
+                int value = newValue((quad.getOp() == Quad.Op.CALL ? Kind.CALL : Kind.QUAD), var, q);
+                quadValues.get(q - firstQuad).add(value);
+                stacks.get(var).add(value);
+                pushed.add(var);
+            }
+            if (quad.getOp() == Quad.Op.PAR) {
+                parameters.add(quad);
+            } else if (quad.getOp() == Quad.Op.CALL) {
+                parameters.clear();
+            }
+        }
+        for (FlowGraph.Block successor : block.getSuccessors()) {
+            int predecessor = successor.getPredecessors().indexOf(block);
+            for (int phi : blockPhis.get(successor.getIndex())) {
+                ArrayList<Integer> stack = stacks.get(valueVars.get(phi));
+                int value = stack.get(stack.size() - 1);
+                phiArguments.get(phi)[predecessor] = value;
+                phiUsers.get(value).add(phi);
+            }
+        }
+        for (FlowGraph.Block dominated : dominatorTree.get(block.getIndex())) {
+            rename(dominated, stacks);
+        }
+        for (int var : pushed) {
+            ArrayList<Integer> stack = stacks.get(var);
+            stack.remove(stack.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.lang.String;
+
+/* Sparse conditional constant propagation and global value numbering over the SSA form
+ * of a function, before its code is generated.
+ * Constant propagation assumes every value constant and every block unreachable until
+ * shown otherwise, following only the branches that can be taken with the constants
+ * known so far. Values found constant replace their uses and the quads computing them,
+ * branches that always go one way become a jump or disappear, and blocks never reached
+ * are removed, even when reaching them depends on a constant flowing around a loop.
+ * Value numbering then walks the dominator tree: a quad computing a value some var
+ * still holds, from a quad that dominates it anywhere in the function, becomes a copy
+ * of that var. Arithmetic, array addresses and copies are numbered by their operation
+ * and the numbers of their operands; reads of memory, outer variables and reference
+ * arguments are never equal to anything, and phi nodes are equal to their arguments
+ * when these all are.
+ */
+public class SsaOptimizer {
+    private static final int TOP = 0;
+    private static final int CONSTANT = 1;
+    private static final int BOTTOM = 2;
+
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private final Set<Variable> nonLocalVars;
+    private int phis;
+    private int propagatedConstants;
+    private int foldedQuads;
+    private int unreachableQuads;
+    private int redundantQuads;
+
+    public SsaOptimizer(IntermediateRepresentation ir, SymbolTable symbolTable, Set<Variable> nonLocalVars) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.nonLocalVars = nonLocalVars;
+        this.phis = 0;
+        this.propagatedConstants = 0;
+        this.foldedQuads = 0;
+        this.unreachableQuads = 0;
+        this.redundantQuads = 0;
+    }
+
+    public void printStatistics() {
+        System.out.println("SSA optimization:");
+        System.out.println("  phi nodes placed: " + phis);
+        System.out.println("  propagated constants: " + propagatedConstants);
+        System.out.println("  folded quads: " + foldedQuads);
+        System.out.println("  unreachable quads removed: " + unreachableQuads);
+        System.out.println("  redundant quads removed: " + redundantQuads);
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT, and end with the last
+     * quad in the IR. Called while its scope is the current one. */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        FlowGraph flowGraph = new FlowGraph(quads, firstQuad, quads.size() - 1);
+        SsaForm ssa = new SsaForm(quads, firstQuad, flowGraph,
+                                  QuadAnalysis.getLocalVars(symbolTable, nonLocalVars));
+        phis += ssa.getNumPhis();
+
+        Propagation propagation = new Propagation(quads, ssa);
+        propagation.run();
+        Quad[] replacements = new Quad[quads.size() - firstQuad];
+        boolean[] dropped = new boolean[quads.size() - firstQuad];
+        boolean changed = applyConstants(quads, firstQuad, ssa, propagation, replacements, dropped);
+        changed |= numberValues(quads, firstQuad, ssa, propagation, replacements, dropped);
+        if (!changed) {
+            return;
+        }
+
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        int[] newIndex = new int[replacements.length + 1];
+        for (int i = 0 ; i < replacements.length ; i++) {
+            newIndex[i] = firstQuad + newQuads.size();
+            if (!dropped[i]) {
+                newQuads.add(replacements[i] != null ? replacements[i] : quads.get(firstQuad + i));
+            }
+        }
+        newIndex[replacements.length] = firstQuad + newQuads.size();
+        for (int i = 0 ; i < replacements.length ; i++) {
+            Quad quad = replacements[i];
+            if (quad != null && !dropped[i] && quad.getOutput() != null
+                && quad.getOutput().getType() == QuadOperand.Type.LABEL) {
+                newQuads.set(newIndex[i] - firstQuad,
+                             new Quad(quad.getOp(), quad.getOperand1(), quad.getOperand2(),
+                                      new QuadOperand(QuadOperand.Type.LABEL,
+                                                      newIndex[quad.getOutput().getTempVar() - firstQuad])));
+            }
+        }
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+    }
+
+    /* Rewrite the quads with the constants found, and drop the unreachable ones */
+    private boolean applyConstants(ArrayList<Quad> quads, int firstQuad, SsaForm ssa, Propagation propagation,
+                                   Quad[] replacements, boolean[] dropped) {
+        boolean changed = false;
+        FlowGraph flowGraph = ssa.getFlowGraph();
+        for (FlowGraph.Block block : flowGraph.getBlocks()) {
+            boolean executable = propagation.executable[block.getIndex()];
+            for (int q = block.getStart() ; q <= block.getEnd() ; q++) {
+                Quad quad = quads.get(q);
+                if (!executable) {
+                    if (quad.getOp() != Quad.Op.UNIT && quad.getOp() != Quad.Op.ENDU) {
+                        dropped[q - firstQuad] = true;
+                        unreachableQuads++;
+                        changed = true;
+                    }
+                    continue;
+                }
+                if (FlowGraph.isJump(quad) && quad.getOp() != Quad.Op.JUMP && quad.getOp() != Quad.Op.RET) {
+                    int outcome = propagation.getOutcome(q);
+                    if (outcome != 0) {
+                        if (outcome > 0) {
+                            replacements[q - firstQuad] = new Quad(Quad.Op.JUMP, null, null, quad.getOutput());
+                        } else {
+                            dropped[q - firstQuad] = true;
+                        }
+                        foldedQuads++;
+                        changed = true;
+                        continue;
+                    }
+                }
+                ArrayList<Integer> values = ssa.getQuadValues(q);
+                if (quad.getOp() != Quad.Op.ASSIGN && quad.getOp() != Quad.Op.CALL && values.size() == 1
+                    && propagation.state[values.get(0)] == CONSTANT) {
+                    replacements[q - firstQuad] = new Quad(Quad.Op.ASSIGN, constant(propagation.value[values.get(0)]),
+                                                           null, quad.getOutput());
+                    foldedQuads++;
+                    changed = true;
+                    continue;
+                }
+                QuadOperand operand1 = replaceConstant(quad, 0, q, ssa, propagation);
+                QuadOperand operand2 = replaceConstant(quad, 1, q, ssa, propagation);
+                if (operand1 != quad.getOperand1() || operand2 != quad.getOperand2()) {
+                    replacements[q - firstQuad] = new Quad(quad.getOp(), operand1, operand2, quad.getOutput());
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /* The operand, or the constant the value it reads has */
+    private QuadOperand replaceConstant(Quad quad, int operand, int q, SsaForm ssa, Propagation propagation) {
+        QuadOperand quadOperand = (operand == 0 ? quad.getOperand1() : quad.getOperand2());
+        int value = ssa.getOperandValue(q, operand);
+        if (value < 0 || quadOperand.getType() == QuadOperand.Type.ADDRESS
+            || (quad.getOp() == Quad.Op.PAR && quad.getOperand2().getType() != QuadOperand.Type.V)
+            || propagation.state[value] != CONSTANT) {
+            return quadOperand;
+        }
+        propagatedConstants++;
+        return constant(propagation.value[value]);
+    }
+
+    private static QuadOperand constant(int value) {
+        return new QuadOperand(QuadOperand.Type.INT, String.valueOf(value));
+    }
+
+    /* Number the values along the dominator tree and turn the quads computing a value
+     * that a var still holds into copies of it */
+    private boolean numberValues(ArrayList<Quad> quads, int firstQuad, SsaForm ssa, Propagation propagation,
+                                 Quad[] replacements, boolean[] dropped) {
+        ValueNumbering numbering = new ValueNumbering(quads, firstQuad, ssa, propagation, replacements, dropped);
+        numbering.walk(ssa.getFlowGraph().getBlocks().get(0));
+        redundantQuads += numbering.redundant;
+        return numbering.redundant > 0;
+    }
+
+    /* Wegman and Zadeck's algorithm, over the values of the form and the edges of the
+     * flow graph */
+    private static class Propagation {
+        private final ArrayList<Quad> quads;
+        private final SsaForm ssa;
+        private final FlowGraph flowGraph;
+        private final int[] state;
+        private final int[] value;
+        private final HashMap<Integer, FlowGraph.Block> phiBlocks;
+        private final boolean[] executable;
+        private final HashSet<Long> executableEdges;
+        private final ArrayList<FlowGraph.Block[]> edgeWorklist;
+        private final ArrayList<Integer> valueWorklist;
+
+        public Propagation(ArrayList<Quad> quads, SsaForm ssa) {
+            this.quads = quads;
+            this.ssa = ssa;
+            this.flowGraph = ssa.getFlowGraph();
+            this.state = new int[ssa.getNumValues()];
+            this.value = new int[ssa.getNumValues()];
+            for (int v = 0 ; v < state.length ; v++) {
+                SsaForm.Kind kind = ssa.getKind(v);
+                state[v] = (kind == SsaForm.Kind.ENTRY || kind == SsaForm.Kind.CALL ? BOTTOM : TOP);
+            }
+            this.phiBlocks = new HashMap<Integer, FlowGraph.Block>();
+            for (FlowGraph.Block block : flowGraph.getBlocks()) {
+                for (int phi : ssa.getPhis(block)) {
+                    phiBlocks.put(phi, block);
+                }
+            }
+            this.executable = new boolean[flowGraph.getBlocks().size()];
+            this.executableEdges = new HashSet<Long>();
+            this.edgeWorklist = new ArrayList<FlowGraph.Block[]>();
+            this.valueWorklist = new ArrayList<Integer>();
+        }
+
+        public void run() {
+            FlowGraph.Block entry = flowGraph.getBlocks().get(0);
+            executable[entry.getIndex()] = true;
+            visitBlock(entry);
+            while (!edgeWorklist.isEmpty() || !valueWorklist.isEmpty()) {
+                while (!edgeWorklist.isEmpty()) {
+                    FlowGraph.Block[] edge = edgeWorklist.remove(edgeWorklist.size() - 1);
+                    FlowGraph.Block block = edge[1];
+                    if (!executable[block.getIndex()]) {
+                        executable[block.getIndex()] = true;
+                        visitBlock(block);
+                    } else {
+                        for (int phi : ssa.getPhis(block)) {
+                            visitPhi(phi, block);
+                        }
+                    }
+                }
+                while (!valueWorklist.isEmpty()) {
+                    int v = valueWorklist.remove(valueWorklist.size() - 1);
+                    for (int phi : ssa.getPhiUsers(v)) {
+                        FlowGraph.Block block = phiBlocks.get(phi);
+                        if (executable[block.getIndex()]) {
+                            visitPhi(phi, block);
+                        }
+                    }
+                    for (int q : ssa.getUsers(v)) {
+                        FlowGraph.Block block = flowGraph.getBlock(q);
+                        if (executable[block.getIndex()]) {
+                            visitQuad(q);
+                            if (q == block.getEnd()) {
+                                visitBranch(block);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /* 1 if the conditional jump is always taken, -1 if never, 0 if unknown */
+        public int getOutcome(int q) {
+            Quad quad = quads.get(q);
+            int[] operand1 = getOperand(q, 0);
+            int[] operand2 = getOperand(q, 1);
+            if (operand1[0] != CONSTANT || operand2[0] != CONSTANT) {
+                return 0;
+            }
+            return (compare(quad.getOp(), operand1[1], operand2[1]) ? 1 : -1);
+        }
+
+        private void visitBlock(FlowGraph.Block block) {
+            for (int phi : ssa.getPhis(block)) {
+                visitPhi(phi, block);
+            }
+            for (int q = block.getStart() ; q <= block.getEnd() ; q++) {
+                visitQuad(q);
+            }
+            visitBranch(block);
+        }
+
+        private void visitPhi(int phi, FlowGraph.Block block) {
+            int[] arguments = ssa.getPhiArguments(phi);
+            ArrayList<FlowGraph.Block> predecessors = block.getPredecessors();
+            int newState = TOP;
+            int newValue = 0;
+            for (int i = 0 ; i < arguments.length ; i++) {
+                if (arguments[i] < 0 || !executableEdges.contains(getEdge(predecessors.get(i), block))) {
+                    continue;
+                }
+                int argument = arguments[i];
+                if (state[argument] == BOTTOM
+                    || (state[argument] == CONSTANT && newState == CONSTANT && value[argument] != newValue)) {
+                    newState = BOTTOM;
+                    break;
+                }
+                if (state[argument] == CONSTANT) {
+                    newState = CONSTANT;
+                    newValue = value[argument];
+                }
+            }
+            lower(phi, newState, newValue);
+        }
+
+        private void visitQuad(int q) {
+            Quad quad = quads.get(q);
+            for (int v : ssa.getQuadValues(q)) {
+                if (ssa.getKind(v) != SsaForm.Kind.QUAD) {
+                    continue;
+                }
+                int[] operand1 = getOperand(q, 0);
+                int[] operand2 = getOperand(q, 1);
+                switch (quad.getOp()) {
+                    case ASSIGN:
+                        lower(v, operand1[0], operand1[1]);
+                        break;
+                    case ADD:
+                    case SUB:
+                    case MULT:
+                    case DIV:
+                    case MOD:
+                        if (operand1[0] == BOTTOM || operand2[0] == BOTTOM) {
+                            lower(v, BOTTOM, 0);
+                        } else if (operand1[0] == CONSTANT && operand2[0] == CONSTANT) {
+                            Integer result = calculate(quad.getOp(), operand1[1], operand2[1]);
+                            lower(v, (result == null ? BOTTOM : CONSTANT), (result == null ? 0 : result));
+                        }
+                        break;
+                    default:
+                        lower(v, BOTTOM, 0);
+                }
+            }
+        }
+
+        private void visitBranch(FlowGraph.Block block) {
+            Quad last = quads.get(block.getEnd());
+            ArrayList<FlowGraph.Block> blocks = flowGraph.getBlocks();
+            if (!FlowGraph.isJump(last) || last.getOp() == Quad.Op.JUMP || last.getOp() == Quad.Op.RET) {
+                for (FlowGraph.Block successor : block.getSuccessors()) {
+                    markEdge(block, successor);
+                }
+                return;
+            }
+            int[] operand1 = getOperand(block.getEnd(), 0);
+            int[] operand2 = getOperand(block.getEnd(), 1);
+            if (operand1[0] == TOP || operand2[0] == TOP) {
+                return;
+            }
+            FlowGraph.Block target = flowGraph.getBlock(last.getOutput().getTempVar());
+            FlowGraph.Block next = blocks.get(block.getIndex() + 1);
+            if (operand1[0] == CONSTANT && operand2[0] == CONSTANT) {
+                markEdge(block, (compare(last.getOp(), operand1[1], operand2[1]) ? target : next));
+            } else {
+                markEdge(block, target);
+                markEdge(block, next);
+            }
+        }
+
+        private void markEdge(FlowGraph.Block from, FlowGraph.Block to) {
+            if (executableEdges.add(getEdge(from, to))) {
+                edgeWorklist.add(new FlowGraph.Block[] {from, to});
+            }
+        }
+
+        private long getEdge(FlowGraph.Block from, FlowGraph.Block to) {
+            return (long)from.getIndex() * flowGraph.getBlocks().size() + to.getIndex();
+        }
+
+        /* State and constant of an operand of the quad */
+        private int[] getOperand(int q, int operand) {
+            Quad quad = quads.get(q);
+            QuadOperand quadOperand = (operand == 0 ? quad.getOperand1() : quad.getOperand2());
+            if (quadOperand == null) {
+                return new int[] {BOTTOM, 0};
+            }
+            if (quadOperand.getType() == QuadOperand.Type.INT) {
+                return new int[] {CONSTANT, Integer.parseInt(quadOperand.getIdentifier())};
+            }
+            int v = ssa.getOperandValue(q, operand);
+            if (v < 0 || quadOperand.getType() == QuadOperand.Type.ADDRESS) {
+                return new int[] {BOTTOM, 0};
+            }
+            return new int[] {state[v], value[v]};
+        }
+
+        private void lower(int v, int newState, int newValue) {
+            if (newState <= state[v] && !(newState == CONSTANT && state[v] == CONSTANT && value[v] != newValue)) {
+                return;
+            }
+            if (state[v] == CONSTANT && newState == CONSTANT) {
+                newState = BOTTOM;
+            }
+            state[v] = newState;
+            value[v] = newValue;
+            valueWorklist.add(v);
+        }
+    }
+
+    private static Integer calculate(Quad.Op op, int value1, int value2) {
+        switch (op) {
+            case ADD:
+                return value1 + value2;
+            case SUB:
+                return value1 - value2;
+            case MULT:
+                return value1 * value2;
+            case DIV:
+            case MOD:
+                if (value2 == 0 || (value1 == Integer.MIN_VALUE && value2 == -1)) {
+                    return null;
+                }
+                return (op == Quad.Op.DIV ? value1 / value2 : value1 % value2);
+            default:
+                return null;
+        }
+    }
+
+    private static boolean compare(Quad.Op op, int value1, int value2) {
+        switch (op) {
+            case EQUAL:
+                return value1 == value2;
+            case NOT_EQUAL:
+                return value1 != value2;
+            case GREATER:
+                return value1 > value2;
+            case LESS:
+                return value1 < value2;
+            case GREATER_EQUAL:
+                return value1 >= value2;
+            default:
+                return value1 <= value2;
+        }
+    }
+
+    /* Dominator based value numbering, with the stack of values of each var as in
+     * renaming, so that a var is known to still hold a value where it is reused */
+    private static class ValueNumbering {
+        private final ArrayList<Quad> quads;
+        private final int firstQuad;
+        private final SsaForm ssa;
+        private final Propagation propagation;
+        private final Quad[] replacements;
+        private final boolean[] dropped;
+        private final int[] numbers;
+        private final HashMap<String, Integer> table;
+        private final HashMap<Integer, ArrayList<Integer>> holders;
+        private final ArrayList<ArrayList<Integer>> stacks;
+        private int nextNumber;
+        private int redundant;
+
+        public ValueNumbering(ArrayList<Quad> quads, int firstQuad, SsaForm ssa, Propagation propagation,
+                              Quad[] replacements, boolean[] dropped) {
+            this.quads = quads;
+            this.firstQuad = firstQuad;
+            this.ssa = ssa;
+            this.propagation = propagation;
+            this.replacements = replacements;
+            this.dropped = dropped;
+            this.numbers = new int[ssa.getNumValues()];
+            this.table = new HashMap<String, Integer>();
+            this.holders = new HashMap<Integer, ArrayList<Integer>>();
+            this.stacks = new ArrayList<ArrayList<Integer>>();
+            for (int var = 0 ; var < ssa.getNumVars() ; var++) {
+                stacks.add(new ArrayList<Integer>());
+            }
+            for (int v = 0 ; v < numbers.length ; v++) {
+                numbers[v] = -1;
+                if (ssa.getKind(v) == SsaForm.Kind.ENTRY) {
+                    numbers[v] = nextNumber++;
+                    stacks.get(ssa.getVar(v)).add(v);
+                }
+            }
+            this.redundant = 0;
+        }
+
+        public void walk(FlowGraph.Block block) {
+            if (!propagation.executable[block.getIndex()]) {
+                return;
+            }
+            ArrayList<Integer> pushed = new ArrayList<Integer>();
+            for (int phi : ssa.getPhis(block)) {
+                numbers[phi] = numberPhi(phi, block);
+                push(phi, pushed);
+            }
+            for (int q = block.getStart() ; q <= block.getEnd() ; q++) {
+                for (int v : ssa.getQuadValues(q)) {
+                    if (ssa.getKind(v) == SsaForm.Kind.QUAD) {
+                        numbers[v] = numberQuad(q, v);
+                    } else {
+                        numbers[v] = nextNumber++;
+                    }
+                    push(v, pushed);
+                }
+            }
+            for (FlowGraph.Block dominated : ssa.getDominated(block)) {
+                walk(dominated);
+            }
+            for (int v : pushed) {
+                ArrayList<Integer> stack = stacks.get(ssa.getVar(v));
+                stack.remove(stack.size() - 1);
+            }
+        }
+
+        private void push(int v, ArrayList<Integer> pushed) {
+            stacks.get(ssa.getVar(v)).add(v);
+            pushed.add(v);
+            ArrayList<Integer> values = holders.get(numbers[v]);
+            if (values == null) {
+                values = new ArrayList<Integer>();
+                holders.put(numbers[v], values);
+            }
+            values.add(v);
+        }
+
+        private int numberPhi(int phi, FlowGraph.Block block) {
+            if (propagation.state[phi] == CONSTANT) {
+                return lookup("c " + propagation.value[phi]);
+            }
+            int[] arguments = ssa.getPhiArguments(phi);
+            int number = -1;
+            for (int i = 0 ; i < arguments.length ; i++) {
+                if (arguments[i] < 0 || !propagation.executable[block.getPredecessors().get(i).getIndex()]) {
+                    continue;
+                }
+                int argument = numbers[arguments[i]];
+                if (argument < 0 || (number >= 0 && argument != number)) {
+                    return nextNumber++;
+                }
+                number = argument;
+            }
+            return (number >= 0 ? number : nextNumber++);
+        }
+
+        /* Number of the value the quad computes, and the quad turned into a copy if a var
+         * still holds it */
+        private int numberQuad(int q, int v) {
+            if (propagation.state[v] == CONSTANT) {
+                return lookup("c " + propagation.value[v]);
+            }
+            Quad quad = quads.get(q);
+            int operand1 = getNumber(q, 0);
+            int operand2 = getNumber(q, 1);
+            String key = null;
+            switch (quad.getOp()) {
+                case ASSIGN:
+                    return (operand1 >= 0 ? operand1 : nextNumber++);
+                case ADD:
+                case MULT:
+                    if (operand1 >= 0 && operand2 >= 0) {
+                        key = quad.getOp() + " " + Math.min(operand1, operand2) + " " + Math.max(operand1, operand2);
+                    }
+                    break;
+                case SUB:
+                case DIV:
+                case MOD:
+                    if (operand1 >= 0 && operand2 >= 0) {
+                        key = quad.getOp() + " " + operand1 + " " + operand2;
+                    }
+                    break;
+                case ARRAY:
+                    if (quad.getOperand1().getType() == QuadOperand.Type.IDENTIFIER && operand2 >= 0) {
+                        key = "ARRAY " + quad.getOperand1().getIdentifier() + " " + operand2;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (key == null) {
+                return nextNumber++;
+            }
+            int number = lookup(key);
+            int holder = findHolder(number, v);
+            if (holder >= 0 && !dropped[q - firstQuad] && replacements[q - firstQuad] == null) {
+                QuadOperand output = quad.getOutput();
+                if (quad.getOp() == Quad.Op.ARRAY) {
+                    output = new QuadOperand(QuadOperand.Type.TEMPVAR, output.getTempVar());
+                }
+                if (ssa.getVar(holder) == ssa.getVar(v)) {
+                    dropped[q - firstQuad] = true;
+                } else {
+                    replacements[q - firstQuad] = new Quad(Quad.Op.ASSIGN, getOperand(holder), null, output);
+                }
+                redundant++;
+            }
+            return number;
+        }
+
+        /* Value with the number that its var still holds, other than v, or -1 */
+        private int findHolder(int number, int v) {
+            ArrayList<Integer> values = holders.get(number);
+            if (values == null) {
+                return -1;
+            }
+            for (int holder : values) {
+                ArrayList<Integer> stack = stacks.get(ssa.getVar(holder));
+                if (holder != v && stack.get(stack.size() - 1) == holder) {
+                    return holder;
+                }
+            }
+            return -1;
+        }
+
+        private QuadOperand getOperand(int v) {
+            String name = ssa.getVarName(v);
+            if (name.startsWith("$")) {
+                return new QuadOperand(QuadOperand.Type.TEMPVAR, Integer.parseInt(name.substring(1)));
+            }
+            return new QuadOperand(QuadOperand.Type.IDENTIFIER, name);
+        }
+
+        /* Number of an operand of the quad, or -1 if it reads memory */
+        private int getNumber(int q, int operand) {
+            Quad quad = quads.get(q);
+            QuadOperand quadOperand = (operand == 0 ? quad.getOperand1() : quad.getOperand2());
+            if (quadOperand == null) {
+                return -1;
+            }
+            switch (quadOperand.getType()) {
+                case INT:
+                case CHAR:
+                    return lookup("c " + quadOperand.getIdentifier());
+                case TEMPVAR:
+                case IDENTIFIER:
+                    int v = ssa.getOperandValue(q, operand);
+                    return (v < 0 ? -1 : numbers[v]);
+                default:
+                    return -1;
+            }
+        }
+
+        private int lookup(String key) {
+            Integer number = table.get(key);
+            if (number == null) {
+                number = nextNumber++;
+                table.put(key, number);
+            }
+            return number;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package compiler.code_gen;
+
+import compiler.symbol_table.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.lang.String;
+
+/* Turns calls of a function to itself in tail position into a loop, before its
+ * code is generated: the arguments are assigned their new values and control jumps
+ * back to the first quad of the body, so deep recursions run in constant stack.
+ * A call is in tail position if, following jumps, it is followed only by the RET
+ * of its result, or by the end of the function. Reference arguments must be passed
+ * through unchanged, as the address they hold cannot be rebound on the quads.
+ * Values that an argument depends on are saved to temp vars before any argument
+ * is assigned. Tail calls to other functions are left to FinalCode.
+ */
+public class TailCallEliminator {
+    private final IntermediateRepresentation ir;
+    private final SymbolTable symbolTable;
+    private int eliminatedCalls;
+
+    public TailCallEliminator(IntermediateRepresentation ir, SymbolTable symbolTable) {
+        this.ir = ir;
+        this.symbolTable = symbolTable;
+        this.eliminatedCalls = 0;
+    }
+
+    /* Quads of the function start at firstQuad, with its UNIT. Called while its scope
+     * is the current one. */
+    public void run(int firstQuad) {
+        ArrayList<Quad> quads = ir.getQuads();
+        String function = quads.get(firstQuad).getOperand1().getIdentifier();
+        long scope = symbolTable.getCurScope();
+        ArrayList<Argument> arguments = new ArrayList<Argument>(symbolTable.getArguments(scope));
+        ArrayList<Quad> oldQuads = new ArrayList<Quad>(quads.subList(firstQuad, quads.size()));
+        ArrayList<Quad> newQuads = new ArrayList<Quad>();
+        int[] newIndex = new int[oldQuads.size() + 1];
+        int parametersStart = -1;
+        boolean changed = false;
+
+        for (int i = 0 ; i < oldQuads.size() ; i++) {
+            Quad quad = oldQuads.get(i);
+            if (quad.getOp() == Quad.Op.PAR) {
+                if (parametersStart < 0) {
+                    parametersStart = i;
+                }
+                continue;
+            }
+            if (parametersStart < 0) {
+                parametersStart = i;
+            }
+            int position = firstQuad + newQuads.size();
+            if (quad.getOp() == Quad.Op.CALL && quad.getOutput().getIdentifier().equals(function)
+                && isTailCall(firstQuad + i, oldQuads.subList(parametersStart, i), arguments)) {
+                reassignArguments(oldQuads.subList(parametersStart, i), arguments, newQuads);
+                newQuads.add(new Quad(Quad.Op.JUMP, null, null,
+                                      new QuadOperand(QuadOperand.Type.LABEL, firstQuad + 1)));
+                for (int j = parametersStart ; j <= i ; j++) {
+                    newIndex[j] = position;
+                }
+                eliminatedCalls++;
+                changed = true;
+            } else {
+                for (int j = parametersStart ; j <= i ; j++) {
+                    newIndex[j] = firstQuad + newQuads.size();
+                    newQuads.add(oldQuads.get(j));
+                }
+            }
+            parametersStart = -1;
+        }
+        if (!changed) {
+            return;
+        }
+        newIndex[oldQuads.size()] = firstQuad + newQuads.size();
+        ir.replaceQuads(firstQuad, newQuads, newIndex);
+    }
+
+    public void printStatistics(int siblingTailCalls) {
+        System.out.println("Tail call elimination:");
+        System.out.println("  self calls turned into jumps: " + eliminatedCalls);
+        System.out.println("  sibling calls reusing the frame: " + siblingTailCalls);
+    }
+
+    /* Whether the call at the given quad, with the given parameters, can be turned into a jump */
+    private boolean isTailCall(int call, List<Quad> parameters, ArrayList<Argument> arguments) {
+        QuadOperand returnTempVar = null;
+        int numParameters = parameters.size();
+        if (numParameters > 0 && parameters.get(numParameters - 1).getOperand2().getType()
+                                 == QuadOperand.Type.RETCALLER) {
+            returnTempVar = parameters.get(--numParameters).getOperand1();
+        }
+        if (numParameters != arguments.size()) {
+            return false;
+        }
+        for (int i = 0 ; i < numParameters ; i++) {
+            QuadOperand operand = parameters.get(i).getOperand1();
+            if (parameters.get(i).getOperand2().getType() == QuadOperand.Type.R
+                && (operand.getType() != QuadOperand.Type.IDENTIFIER
+                    || !operand.getIdentifier().equals(arguments.get(i).getToken().getText()))) {
+                return false;
+            }
+        }
+        return isFollowedByReturn(ir.getQuads(), call, returnTempVar);
+    }
+
+    /* Whether the quads after the given one, following jumps, only return the given temp
+     * var, or nothing if it is null */
+    static boolean isFollowedByReturn(ArrayList<Quad> quads, int quad, QuadOperand returnTempVar) {
+        boolean returned = (returnTempVar == null);
+        for (int steps = 0 ; steps < quads.size() ; steps++) {
+            Quad next = quads.get(++quad);
+            switch (next.getOp()) {
+                case JUMP:
+                    quad = next.getOutput().getTempVar() - 1;
+                    break;
+                case RET:
+                case ENDU:
+                    return returned;
+                case ASSIGN:
+                    if (returned || next.getOutput().getType() != QuadOperand.Type.RETCALLED
+                        || next.getOperand1().getType() != QuadOperand.Type.TEMPVAR
+                        || next.getOperand1().getTempVar() != returnTempVar.getTempVar()) {
+                        return false;
+                    }
+                    returned = true;
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    /* Assign the values passed by value to the arguments, saving first the ones
+     * that read another argument which may already be assigned */
+    private void reassignArguments(List<Quad> parameters, ArrayList<Argument> arguments,
+                                   ArrayList<Quad> newQuads) {
+        QuadOperand[] values = new QuadOperand[arguments.size()];
+        for (int i = 0 ; i < arguments.size() ; i++) {
+            Argument argument = arguments.get(i);
+            QuadOperand operand = parameters.get(i).getOperand1();
+            if (argument.isReference()
+                || (operand.getType() == QuadOperand.Type.IDENTIFIER
+                    && operand.getIdentifier().equals(argument.getToken().getText()))) {
+                continue;
+            }
+            if (operand.getType() == QuadOperand.Type.IDENTIFIER
+                && isArgument(operand.getIdentifier(), arguments)) {
+                values[i] = new QuadOperand(QuadOperand.Type.TEMPVAR, ir.newTempVar(argument.getType()));
+                newQuads.add(new Quad(Quad.Op.ASSIGN, operand, null, values[i]));
+            } else {
+                values[i] = operand;
+            }
+        }
+        for (int i = 0 ; i < arguments.size() ; i++) {
+            if (values[i] != null) {
+                newQuads.add(new Quad(Quad.Op.ASSIGN, values[i], null,
+                                      new QuadOperand(QuadOperand.Type.IDENTIFIER,
+                                                      arguments.get(i).getToken().getText())));
+            }
+        }
+    }
+
+    private static boolean isArgument(String identifier, ArrayList<Argument> arguments) {
+        for (Argument argument : arguments) {
+            if (argument.getToken().getText().equals(identifier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
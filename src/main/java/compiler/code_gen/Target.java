@@ -0,0 +1,94 @@
+package compiler.code_gen;
+
+import java.lang.String;
+
+/* Machine specifics of the supported backends. Code templates name registers by
+ * their 32-bit form, which is the width of Grace values on both targets, and the
+ * target widens them when they hold addresses.
+ *  - X86: cdecl, arguments and access link pushed on the stack
+ *  - X86_64: System V, the first arguments in registers and the access link in
+ *    r10, the ABI's static chain register
+ */
+public enum Target {
+    X86(4, new String[] {}, new String[] {"ebx", "esi", "edi"}),
+    X86_64(8, new String[] {"edi", "esi", "edx", "ecx", "r8d", "r9d"},
+           new String[] {"ebx", "r12d", "r13d", "r14d", "r15d"});
+
+    private final int wordSize;
+    private final String[] argumentRegisters;
+    private final String[] allocatableRegisters;
+
+    Target(int wordSize, String[] argumentRegisters, String[] allocatableRegisters) {
+        this.wordSize = wordSize;
+        this.argumentRegisters = argumentRegisters;
+        this.allocatableRegisters = allocatableRegisters;
+    }
+
+    public int getWordSize() {
+        return wordSize;
+    }
+
+    public String[] getArgumentRegisters() {
+        return argumentRegisters;
+    }
+
+    /* Callee-saved registers, so that allocated values survive calls */
+    public String[] getAllocatableRegisters() {
+        return allocatableRegisters;
+    }
+
+    public String getFramePointer() {
+        return getPointerRegister("ebp");
+    }
+
+    public String getStackPointer() {
+        return getPointerRegister("esp");
+    }
+
+    /* Displacement of the access link from the frame pointer */
+    public int getAccessLinkOffset() {
+        return (this == X86 ? 2 * wordSize : -wordSize);
+    }
+
+    public String getPointerSizeName() {
+        return (this == X86 ? "DWORD PTR" : "QWORD PTR");
+    }
+
+    /* Register wide enough to hold an address */
+    public String getPointerRegister(String register) {
+        if (this == X86) {
+            return register;
+        }
+        if (register.startsWith("r")) {
+            return register.substring(0, register.length() - 1);
+        }
+        return "r" + register.substring(1);
+    }
+
+    public String getByteRegister(String register) {
+        switch (register) {
+            case "eax":
+                return "al";
+            case "ebx":
+                return "bl";
+            case "ecx":
+                return "cl";
+            case "edx":
+                return "dl";
+        }
+        if (this == X86_64) {
+            switch (register) {
+                case "esi":
+                    return "sil";
+                case "edi":
+                    return "dil";
+            }
+            if (register.startsWith("r")) {
+                return register.substring(0, register.length() - 1) + "b";
+            }
+        }
+        System.err.println("Internal error: register " + register + " has no low byte in getByteRegister");
+        System.exit(1);
+        return null;
+    }
+}
@@ -3,9 +3,17 @@ package compiler.symbol_table;
 import compiler.node.*;
 import java.lang.String;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 public class Function extends Symbol {
+    /* Unique names of the standard library functions, all declared at scope -1 */
+    private static final Set<String> standardLibrary = new HashSet<String>(Arrays.asList(
+        "_puti_-1", "_putc_-1", "_puts_-1", "_geti_-1", "_getc_-1", "_gets_-1", "_abs_-1", "_ord_-1",
+        "_chr_-1", "_strlen_-1", "_strcpy_-1", "_strcmp_-1", "_strcat_-1"));
+
     private final ArrayDeque<Argument> arguments;
     private final boolean defined;
 
@@ -50,10 +58,6 @@ public class Function extends Symbol {
     }
 
     public static boolean isStandardLibrary(String function) {
-        return function.equals("_puti_-1") || function.equals("_putc_-1") || function.equals("_puts_-1") ||
-               function.equals("_geti_-1") || function.equals("_getc_-1") || function.equals("_gets_-1") ||
-               function.equals("_abs_-1") || function.equals("_ord_-1") || function.equals("_chr_-1") ||
-               function.equals("_strlen_-1") || function.equals("_strcpy_-1") || function.equals("_strcmp_-1") ||
-               function.equals("_strcat_-1");
+        return standardLibrary.contains(function);
     }
 }
@@ -1,5 +1,6 @@
 package compiler.tree_visitor;
 
+import compiler.Main;
 import compiler.code_gen.*;
 import compiler.symbol_table.*;
 import compiler.analysis.DepthFirstAdapter;
@@ -24,24 +25,55 @@ public class TreeVisitor extends DepthFirstAdapter {
     private final ArrayDeque<ReturnInfo> returnInfo;
     private final IntermediateRepresentation ir;
     private final Optimizer optimizer;
+    private final Inliner inliner;
+    private final TailCallEliminator tailCallEliminator;
+    private final ConstantFolder constantFolder;
+    private final ArithmeticSimplifier arithmeticSimplifier;
+    private final SsaOptimizer ssaOptimizer;
+    private final CopyPropagator copyPropagator;
+    private final DeadCodeEliminator deadCodeEliminator;
+    private final LoopInvariantHoister loopInvariantHoister;
+    private final InductionVariableOptimizer inductionVariableOptimizer;
+    private final BlockLayout blockLayout;
     private FinalCode finalCode;
     private final boolean printAST;
     private final boolean optimize;
     private int indentation;
 
-    public TreeVisitor(String output, boolean printAST, boolean optimize) {
+    public TreeVisitor(Main.Options options) {
         this.symbolTable = new SymbolTable();
         this.returnInfo = new ArrayDeque<ReturnInfo>();
-        this.ir = new IntermediateRepresentation(optimize);
-        this.optimizer = new Optimizer(this.ir);
+        this.ir = new IntermediateRepresentation();
+        this.optimizer = new Optimizer(this.ir, this.symbolTable);
+        this.inliner = (options.getInlineThreshold() > 0
+                        ? new Inliner(ir, symbolTable, options.getInlineThreshold())
+                        : null);
+        this.tailCallEliminator = (options.getTailCalls() ? new TailCallEliminator(ir, symbolTable) : null);
+        this.constantFolder = (options.getConstantFolding() ? new ConstantFolder(ir, symbolTable) : null);
+        this.arithmeticSimplifier = (options.getArithmeticSimplification() ? new ArithmeticSimplifier(ir) : null);
+        this.copyPropagator = (options.getCopyPropagation() ? new CopyPropagator(ir, symbolTable) : null);
+        this.deadCodeEliminator = (options.getDeadCodeElimination()
+                                   ? new DeadCodeEliminator(ir, symbolTable)
+                                   : null);
+        this.blockLayout = (options.getBlockLayout() ? new BlockLayout(ir) : null);
         try {
-            this.finalCode = new FinalCode(ir, symbolTable, output);
+            this.finalCode = new FinalCode(ir, symbolTable, options);
         } catch (IOException e) {
             System.err.println("I/O error regarding output file: " + e.getMessage());
             exit();
         }
-        this.printAST = printAST;
-        this.optimize = optimize;
+        this.ssaOptimizer = (options.getSsaOptimization()
+                             ? new SsaOptimizer(ir, symbolTable, finalCode.getNonLocalVars())
+                             : null);
+        this.loopInvariantHoister = (options.getLoopInvariantCodeMotion()
+                                     ? new LoopInvariantHoister(ir, symbolTable, finalCode.getNonLocalVars())
+                                     : null);
+        this.inductionVariableOptimizer = (options.getStrengthReduction()
+                                           ? new InductionVariableOptimizer(ir, symbolTable,
+                                                                            finalCode.getNonLocalVars())
+                                           : null);
+        this.printAST = options.getPrintAST();
+        this.optimize = options.getOptimize();
         this.indentation = 0;
     }
 
@@ -69,6 +101,41 @@ public class TreeVisitor extends DepthFirstAdapter {
         return optimizer;
     }
 
+    /* Statistics of the optimizations enabled by the options */
+    public void printStatistics() {
+        finalCode.printStatistics();
+        if (inliner != null) {
+            inliner.printStatistics();
+        }
+        if (tailCallEliminator != null) {
+            tailCallEliminator.printStatistics(finalCode.getSiblingTailCalls());
+        }
+        if (constantFolder != null) {
+            constantFolder.printStatistics();
+        }
+        if (arithmeticSimplifier != null) {
+            arithmeticSimplifier.printStatistics(finalCode.getLoweredArithmetic());
+        }
+        if (ssaOptimizer != null) {
+            ssaOptimizer.printStatistics();
+        }
+        if (copyPropagator != null) {
+            copyPropagator.printStatistics();
+        }
+        if (loopInvariantHoister != null) {
+            loopInvariantHoister.printStatistics();
+        }
+        if (inductionVariableOptimizer != null) {
+            inductionVariableOptimizer.printStatistics();
+        }
+        if (deadCodeEliminator != null) {
+            deadCodeEliminator.printStatistics();
+        }
+        if (blockLayout != null) {
+            blockLayout.printStatistics();
+        }
+    }
+
     private static String getClassName(Node node) {
         String nodeClass = node.getClass().toString();
         int suffixIndex = nodeClass.lastIndexOf('.');
@@ -269,9 +336,42 @@ public class TreeVisitor extends DepthFirstAdapter {
         ir.insertQuad(quad);
         //ir.print(finalCode.getCurQuad(), finalCode.getCurTempVar());
         //System.out.println("");
+        if (inliner != null) {
+            inliner.run(finalCode.getCurQuad());
+        }
+        if (tailCallEliminator != null) {
+            tailCallEliminator.run(finalCode.getCurQuad());
+        }
+        if (constantFolder != null) {
+            constantFolder.run(finalCode.getCurQuad());
+        }
+        if (arithmeticSimplifier != null) {
+            arithmeticSimplifier.run(finalCode.getCurQuad());
+        }
+        if (ssaOptimizer != null) {
+            ssaOptimizer.run(finalCode.getCurQuad());
+        }
+        if (copyPropagator != null) {
+            copyPropagator.run(finalCode.getCurQuad());
+        }
+        if (loopInvariantHoister != null) {
+            loopInvariantHoister.run(finalCode.getCurQuad());
+        }
+        if (inductionVariableOptimizer != null) {
+            inductionVariableOptimizer.run(finalCode.getCurQuad());
+        }
+        if (deadCodeEliminator != null) {
+            deadCodeEliminator.run(finalCode.getCurQuad());
+        }
+        if (blockLayout != null) {
+            blockLayout.run(finalCode.getCurQuad());
+        }
         if (optimize) {
             optimizer.run();
         }
+        if (inliner != null) {
+            inliner.record(finalCode.getCurQuad());
+        }
         finalCode.generate();
         try {
             symbolTable.exit();
@@ -475,9 +575,6 @@ public class TreeVisitor extends DepthFirstAdapter {
         Quad quad = new Quad(Quad.Op.JUMP, null, null, new QuadOperand(QuadOperand.Type.LABEL,
                                                                        firstQuad));
         ir.insertQuad(quad);
-        if (optimize) {
-            ir.getLabels().add(firstQuad);
-        }
         returnInfo.push(new BackpatchInfo(backpatchCond.getFalseList()));
         outAWhileStatement(node);
     }
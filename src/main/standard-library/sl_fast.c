@@ -0,0 +1,161 @@
+#include <inttypes.h>
+#include <string.h>
+#include <unistd.h>
+
+/* Buffered variant of sl.c, with the same functions and no stdio. Output is kept in
+ * a buffer that is written when it fills up, before input is read and at exit, and
+ * input is read in large blocks. Integers are formatted and parsed by hand. */
+
+#define BUFFER_SIZE 65536
+
+static char output[BUFFER_SIZE];
+static size_t outputLength = 0;
+static char input[BUFFER_SIZE];
+static size_t inputPosition = 0;
+static size_t inputLength = 0;
+
+static void flush(void) {
+    size_t written = 0;
+    while (written < outputLength) {
+        ssize_t n = write(1, output + written, outputLength - written);
+        if (n <= 0) {
+            break;
+        }
+        written += n;
+    }
+    outputLength = 0;
+}
+
+__attribute__((destructor))
+static void flushAtExit(void) {
+    flush();
+}
+
+static void put(char c) {
+    if (outputLength == BUFFER_SIZE) {
+        flush();
+    }
+    output[outputLength++] = c;
+}
+
+/* Next input character without consuming it, or -1 at end of input */
+static int peek(void) {
+    if (inputPosition == inputLength) {
+        flush();
+        ssize_t n = read(0, input, BUFFER_SIZE);
+        if (n <= 0) {
+            return -1;
+        }
+        inputPosition = 0;
+        inputLength = n;
+    }
+    return (unsigned char)input[inputPosition];
+}
+
+static int next(void) {
+    int c = peek();
+    if (c >= 0) {
+        inputPosition++;
+    }
+    return c;
+}
+
+static int isSpace(int c) {
+    return c == ' ' || (c >= '\t' && c <= '\r');
+}
+
+void _puti (int32_t n) {
+    char digits[10];
+    int count = 0;
+    uint32_t value = (uint32_t)n;
+    if (n < 0) {
+        put('-');
+        value = -value;
+    }
+    do {
+        digits[count++] = '0' + value % 10;
+        value /= 10;
+    } while (value > 0);
+    while (count > 0) {
+        put(digits[--count]);
+    }
+}
+
+void _putc (char c) {
+    put(c);
+}
+
+void _puts(char string[]) {
+    while (*string != '\0') {
+        put(*string++);
+    }
+}
+
+/* As scanf("%d"), leaving the first character after the number unread */
+int32_t _geti() {
+    uint32_t value = 0;
+    int negative = 0;
+    while (isSpace(peek())) {
+        next();
+    }
+    if (peek() == '-' || peek() == '+') {
+        negative = (next() == '-');
+    }
+    while (peek() >= '0' && peek() <= '9') {
+        value = value * 10 + (next() - '0');
+    }
+    return (int32_t)(negative ? -value : value);
+}
+
+/* As scanf(" %c") */
+char _getc() {
+    int c;
+    do {
+        c = next();
+    } while (isSpace(c));
+    return (c < 0 ? '\0' : (char)c);
+}
+
+/* As fgets, without the newline */
+void _gets(int32_t n, char s[]) {
+    int32_t length = 0;
+    if (n <= 0) {
+        return;
+    }
+    while (length < n - 1) {
+        int c = next();
+        if (c < 0 || c == '\n') {
+            break;
+        }
+        s[length++] = c;
+    }
+    s[length] = '\0';
+}
+
+int32_t _abs (int32_t n) {
+    return (n >= 0 ? n : n*-1);
+}
+
+int32_t _ord (char c) {
+    return (int32_t)c;
+}
+
+char _chr(int32_t i) {
+    return (char)i;
+}
+
+int32_t _strlen(char s[]) {
+    return strlen(s);
+}
+
+int32_t _strcmp(char s1[], char s2[]) {
+    return strcmp(s1, s2);
+}
+
+void _strcpy(char trg[], char src[]) {
+    strcpy(trg, src);
+}
+
+void _strcat(char trg[], char src[]) {
+    strcat(trg, src);
+}